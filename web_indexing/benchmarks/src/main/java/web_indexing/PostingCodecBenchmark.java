@@ -0,0 +1,92 @@
+package web_indexing;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time per value to encode and decode full blocks of docID gaps and frequencies with every posting codec. The gaps
+ * come from lists of 128 to 262144 documents per block of postings, from the densest lists to rare terms.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PostingCodecBenchmark {
+    private static final int BLOCKS = 1024;
+    private static final int VALUES = 2 * BLOCKS * IndexFormat.BLOCK_SIZE;
+
+    @Param({"varbyte", "streamvbyte", "simple8b", "pfordelta"})
+    public String codecName;
+
+    private PostingCodec codec;
+    private int[][] blocks;
+    private ByteBuffer encoded;
+    private ByteArrayOutputStream out;
+    private int[] values;
+
+    @Setup
+    public void setUp() {
+        codec = PostingCodecs.forName(codecName);
+        SyntheticCorpus corpus = new SyntheticCorpus(SyntheticCorpus.SEED);
+        Random random = new Random(SyntheticCorpus.SEED);
+        blocks = new int[2 * BLOCKS][];
+        for (int b = 0; b < BLOCKS; b++) {
+            int[] docIds = corpus.nextDocIds(IndexFormat.BLOCK_SIZE, IndexFormat.BLOCK_SIZE << (b % 12));
+            int[] gaps = new int[IndexFormat.BLOCK_SIZE];
+            int[] frequencies = new int[IndexFormat.BLOCK_SIZE];
+            for (int i = 0; i < IndexFormat.BLOCK_SIZE; i++) {
+                gaps[i] = docIds[i] - ((i > 0) ? docIds[i - 1] : 0);
+                // mostly 1 with a geometric tail, like the frequencies of words in web pages
+                frequencies[i] = 1 + (int) (-Math.log(1 - random.nextDouble()) * 1.5);
+            }
+            blocks[2 * b] = gaps;
+            blocks[2 * b + 1] = frequencies;
+        }
+        out = new ByteArrayOutputStream();
+        for (int[] block : blocks) {
+            codec.encode(block, IndexFormat.BLOCK_SIZE, out);
+        }
+        encoded = ByteBuffer.allocateDirect(out.size());
+        encoded.put(out.toByteArray()).flip();
+        values = new int[IndexFormat.BLOCK_SIZE];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public int encode() {
+        out.reset();
+        for (int[] block : blocks) {
+            codec.encode(block, IndexFormat.BLOCK_SIZE, out);
+        }
+        return out.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public int decode() {
+        encoded.position(0);
+        int checksum = 0;
+        for (int b = 0; b < blocks.length; b++) {
+            codec.decode(encoded, values, IndexFormat.BLOCK_SIZE);
+            checksum += values[b & (IndexFormat.BLOCK_SIZE - 1)];
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,128 @@
+package web_indexing;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cursors over encoded posting lists in memory: opening and decoding a whole list, and the nextGEQ intersection and
+ * the union of a short and a long list without scoring.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PostingListBenchmark {
+    private static final int TOTAL_DOCUMENTS = 1000000;
+
+    @Param({"varbyte", "streamvbyte", "simple8b", "pfordelta"})
+    public String codecName;
+
+    @Param({"1000", "20000"})
+    public int shortLength;
+
+    @Param({"200000"})
+    public int longLength;
+
+    private PostingCodec codec;
+    private ByteBuffer shortPostings;
+    private ByteBuffer longPostings;
+
+    private static int[] frequencies(int count) {
+        int[] frequencies = new int[count];
+        for (int i = 0; i < count; i++) {
+            frequencies[i] = 1 + (i % 7) / 5;
+        }
+        return frequencies;
+    }
+
+    @Setup
+    public void setUp() {
+        codec = PostingCodecs.forName(codecName);
+        SyntheticCorpus corpus = new SyntheticCorpus(SyntheticCorpus.SEED);
+        shortPostings = SyntheticCorpus.encodePostings(corpus.nextDocIds(shortLength, TOTAL_DOCUMENTS),
+                frequencies(shortLength), codec);
+        longPostings = SyntheticCorpus.encodePostings(corpus.nextDocIds(longLength, TOTAL_DOCUMENTS),
+                frequencies(longLength), codec);
+    }
+
+    private PostingList open(ByteBuffer postings, int count) {
+        PostingList pl = new PostingList();
+        pl.createPostings(postings.duplicate(), count, codec);
+        return pl;
+    }
+
+    /**
+     * Opens the long list and reads every docID and frequency.
+     */
+    @Benchmark
+    public long decode() {
+        PostingList pl = open(longPostings, longLength);
+        long checksum = 0;
+        for (int d = pl.docId(); d != PostingList.END; d = pl.next()) {
+            checksum += d + pl.freq();
+        }
+        return checksum;
+    }
+
+    /**
+     * Documents of both lists, the short list drives nextGEQ on the long one as in Query.findDisjunctiveResults.
+     */
+    @Benchmark
+    public int intersection() {
+        PostingList first = open(shortPostings, shortLength);
+        PostingList second = open(longPostings, longLength);
+        int matches = 0;
+        int did = first.docId();
+        while (did != PostingList.END) {
+            int d = second.nextGEQ(did);
+            if (d == PostingList.END) {
+                break;
+            }
+            if (d > did) {
+                did = first.nextGEQ(d);
+                continue;
+            }
+            matches += first.freq() + second.freq();
+            did = first.next();
+        }
+        return matches;
+    }
+
+    /**
+     * Documents of either list in docID order.
+     */
+    @Benchmark
+    public int union() {
+        PostingList first = open(shortPostings, shortLength);
+        PostingList second = open(longPostings, longLength);
+        int matches = 0;
+        int firstDoc = first.docId();
+        int secondDoc = second.docId();
+        while (firstDoc != PostingList.END || secondDoc != PostingList.END) {
+            int did = Math.min(firstDoc, secondDoc);
+            if (firstDoc == did) {
+                matches += first.freq();
+                firstDoc = first.next();
+            }
+            if (secondDoc == did) {
+                matches += second.freq();
+                secondDoc = second.next();
+            }
+        }
+        return matches;
+    }
+}
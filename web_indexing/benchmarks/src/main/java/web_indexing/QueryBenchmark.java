@@ -0,0 +1,162 @@
+package web_indexing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Query evaluation over the index of a synthetic corpus, built once per trial in a temporary directory with the steps
+ * of IndexBuilder. The index is opened without caches so that every query is evaluated, the time of a benchmark is
+ * the time per query, per document scored or per snippet.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+    private static final int QUERIES = 100;
+    private static final int SCORED_DOCUMENTS = 1000;
+
+    @Param({"varbyte"})
+    public String codecName;
+
+    @Param({"4"})
+    public int files;
+
+    @Param({"2500"})
+    public int documentsPerFile;
+
+    // false measures the cost of the query metrics
+    @Param({"true"})
+    public boolean metrics;
+
+    @Param({"false"})
+    public boolean tierIndex;
+
+    private File indexDirectory;
+    private Query query;
+    private String[] keywords;
+    private List<List<String>> terms;
+    private String[] documents;
+    private double[] idfs;
+    private int[] fdt;
+
+    @Setup
+    public void setUp() throws IOException {
+        indexDirectory = Files.createTempDirectory("query_benchmark").toFile();
+        query = SyntheticCorpus.buildIndex(indexDirectory, files, documentsPerFile,
+                PostingCodecs.forName(codecName), tierIndex);
+        if (query == null) {
+            throw new IllegalStateException("Unable to build the index in " + indexDirectory);
+        }
+        if (!metrics) {
+            query.setMetrics(null);
+        }
+        SyntheticCorpus corpus = new SyntheticCorpus(SyntheticCorpus.SEED + 1);
+        keywords = new String[QUERIES];
+        System.arraycopy(corpus.nextQueries(QUERIES / 2, 2), 0, keywords, 0, QUERIES / 2);
+        System.arraycopy(corpus.nextQueries(QUERIES - QUERIES / 2, 3), 0, keywords, QUERIES / 2,
+                QUERIES - QUERIES / 2);
+        terms = new ArrayList();
+        for (String keyword : keywords) {
+            terms.add(Arrays.asList(keyword.split(" ")));
+        }
+        // snippets are only made for documents that hold the query words
+        documents = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            documents[i] = new String(corpus.nextDocument(25, 400), StandardCharsets.UTF_8) + keywords[i] + " "
+                    + new String(corpus.nextDocument(25, 400), StandardCharsets.UTF_8);
+        }
+        Random random = new Random(SyntheticCorpus.SEED);
+        idfs = new double[] {1 + random.nextDouble(), 2 + random.nextDouble(), 4 + random.nextDouble()};
+        fdt = new int[] {1, 0, 3};
+    }
+
+    @TearDown
+    public void tearDown() {
+        SyntheticCorpus.delete(indexDirectory);
+    }
+
+    /**
+     * Top results of every query with the unions of Block-Max WAND, without URLs and snippets.
+     */
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void findTopResultsConjunctive(Blackhole blackhole) {
+        for (List<String> queryTerms : terms) {
+            blackhole.consume(query.findTopResults(queryTerms, null, "conjunctive"));
+        }
+    }
+
+    /**
+     * Top results of every query with the nextGEQ intersection, without URLs and snippets.
+     */
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void findTopResultsDisjunctive(Blackhole blackhole) {
+        for (List<String> queryTerms : terms) {
+            blackhole.consume(query.findTopResults(queryTerms, null, "disjunctive"));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SCORED_DOCUMENTS)
+    public double calculateBM25() {
+        double score = 0;
+        int totalDocuments = query.getTotalDocuments();
+        for (int docId = 1; docId <= SCORED_DOCUMENTS; docId++) {
+            score += query.calculateBM25(idfs, fdt, 1 + docId % totalDocuments);
+        }
+        return score;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void createSnippet(Blackhole blackhole) {
+        for (int i = 0; i < QUERIES; i++) {
+            blackhole.consume(query.createSnippet(documents[i], keywords[i].split(" ")));
+        }
+    }
+
+    /**
+     * Whole queries as the command line and the server run them, with the URLs and the snippets of the results.
+     */
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void getSearchResultsConjunctive(Blackhole blackhole) {
+        for (String keyword : keywords) {
+            blackhole.consume(query.getSearchResults(keyword, "conjunctive"));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void getSearchResultsDisjunctive(Blackhole blackhole) {
+        for (String keyword : keywords) {
+            blackhole.consume(query.getSearchResults(keyword, "disjunctive"));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package web_indexing;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to tokenize a document and count its words, the per record work of GeneratePostings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenizerBenchmark {
+    private static final int DOCUMENTS = 1000;
+
+    private byte[][] documents;
+    private Tokenizer tokenizer;
+    private BytesIntMap words;
+    private IntArrayList wordsCount;
+    private IntArrayList tokenWordIds;
+    private IntArrayList tokenPositions;
+
+    @Setup
+    public void setUp() {
+        SyntheticCorpus corpus = new SyntheticCorpus(SyntheticCorpus.SEED);
+        documents = new byte[DOCUMENTS][];
+        for (int i = 0; i < DOCUMENTS; i++) {
+            documents[i] = corpus.nextDocument(50, 800);
+        }
+        tokenizer = new Tokenizer();
+        words = new BytesIntMap();
+        wordsCount = new IntArrayList();
+        tokenWordIds = new IntArrayList();
+        tokenPositions = new IntArrayList();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public int findWordsCount() {
+        int totalWords = 0;
+        for (byte[] document : documents) {
+            totalWords += GeneratePostings.findWordsCount(tokenizer, document, words, wordsCount, null, null);
+        }
+        return totalWords;
+    }
+
+    /**
+     * Also records the word and the offset of every token, as GeneratePostings does for the positions sidecar.
+     */
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public int findWordsCountWithPositions() {
+        int totalWords = 0;
+        for (byte[] document : documents) {
+            totalWords += GeneratePostings.findWordsCount(tokenizer, document, words, wordsCount, tokenWordIds,
+                    tokenPositions);
+        }
+        return totalWords;
+    }
+}
@@ -0,0 +1,214 @@
+package web_indexing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Deterministic synthetic corpus of the benchmarks. The vocabulary, the documents and the queries are generated from
+ * a seed, so every run measures the same data. The words of the documents follow a Zipf distribution over the
+ * vocabulary like the words of web pages, documents are sentences of 5 to 20 words that start with a capital letter.
+ */
+class SyntheticCorpus {
+    public static final long SEED = 42;
+    private static final int VOCABULARY_SIZE = 50000;
+    // queries use words of these ranks, frequent enough to match documents without being stop words
+    private static final int QUERY_MIN_RANK = 20;
+    private static final int QUERY_MAX_RANK = 2000;
+
+    private String[] vocabulary;
+    private double[] cumulativeWeights;
+    private Random random;
+
+    /**
+     * The vocabulary is always generated from SEED, the seed only changes the documents and the queries.
+     */
+    SyntheticCorpus(long seed) {
+        Random vocabularyRandom = new Random(SEED);
+        this.vocabulary = new String[VOCABULARY_SIZE];
+        Set<String> words = new HashSet();
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            String word;
+            do {
+                char[] letters = new char[3 + vocabularyRandom.nextInt(8)];
+                for (int j = 0; j < letters.length; j++) {
+                    letters[j] = (char) ('a' + vocabularyRandom.nextInt(26));
+                }
+                word = new String(letters);
+            } while (!words.add(word));
+            vocabulary[i] = word;
+        }
+        this.cumulativeWeights = new double[VOCABULARY_SIZE];
+        double total = 0;
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            total += 1.0 / (i + 1);
+            cumulativeWeights[i] = total;
+        }
+        this.random = new Random(seed);
+    }
+
+    public String nextWord() {
+        double weight = random.nextDouble() * cumulativeWeights[VOCABULARY_SIZE - 1];
+        int rank = Arrays.binarySearch(cumulativeWeights, weight);
+        return vocabulary[Math.min((rank >= 0) ? rank : -rank - 1, VOCABULARY_SIZE - 1)];
+    }
+
+    public byte[] nextDocument(int minWords, int maxWords) {
+        int totalWords = minWords + random.nextInt(maxWords - minWords + 1);
+        StringBuilder document = new StringBuilder();
+        int sentenceLeft = 0;
+        for (int i = 0; i < totalWords; i++) {
+            String word = nextWord();
+            if (sentenceLeft == 0) {
+                sentenceLeft = 5 + random.nextInt(16);
+                word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+            }
+            document.append(word);
+            document.append((--sentenceLeft == 0) ? ". " : " ");
+        }
+        return document.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns queries of the given number of distinct words separated by single spaces.
+     */
+    public String[] nextQueries(int queries, int terms) {
+        String[] keywords = new String[queries];
+        for (int q = 0; q < queries; q++) {
+            Set<String> words = new HashSet();
+            while (words.size() < terms) {
+                words.add(vocabulary[QUERY_MIN_RANK + random.nextInt(QUERY_MAX_RANK - QUERY_MIN_RANK)]);
+            }
+            keywords[q] = String.join(" ", words);
+        }
+        return keywords;
+    }
+
+    /**
+     * Returns count distinct docIDs between 1 and maxDocId in increasing order.
+     */
+    public int[] nextDocIds(int count, int maxDocId) {
+        int[] docIds = new int[count];
+        int docId = 0;
+        for (int i = 0; i < count; i++) {
+            int left = count - i;
+            // docIDs that can be skipped while leaving room for the ones left
+            int room = maxDocId - docId - left;
+            docId += 1 + random.nextInt(Math.min(room, 2 * room / left) + 1);
+            docIds[i] = docId;
+        }
+        return docIds;
+    }
+
+    /**
+     * Writes a WET file of the given number of documents, a gzip member per WARC conversion record like the files of
+     * Common Crawl.
+     */
+    public void writeWetFile(File file, int fileIndex, int documents) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        for (int i = 0; i < documents; i++) {
+            byte[] content = nextDocument(50, 800);
+            String url = "http://site" + random.nextInt(1000) + ".example.com/" + fileIndex + "/" + i;
+            String header = "WARC/1.0\r\n"
+                    + "WARC-Type: conversion\r\n"
+                    + "WARC-Target-URI: " + url + "\r\n"
+                    + "WARC-Date: 2018-04-01T00:00:00Z\r\n"
+                    + "WARC-Record-ID: <urn:uuid:" + new UUID(random.nextLong(), random.nextLong()) + ">\r\n"
+                    + "Content-Type: text/plain\r\n"
+                    + "Content-Length: " + content.length + "\r\n\r\n";
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(record);
+            gzip.write(header.getBytes(StandardCharsets.UTF_8));
+            gzip.write(content);
+            gzip.write("\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            gzip.close();
+            record.writeTo(out);
+        }
+        out.close();
+    }
+
+    /**
+     * Builds the index of a corpus of files WET files of documentsPerFile documents in directory with the same steps
+     * as IndexBuilder, and opens it without caches and with sequential snippets. With tierIndex the tier index is
+     * written and queries try it first. Returns null when the index cannot be built.
+     */
+    public static Query buildIndex(File directory, int files, int documentsPerFile, PostingCodec codec,
+            Boolean tierIndex) throws IOException {
+        SyntheticCorpus corpus = new SyntheticCorpus(SEED);
+        File wetFiles = new File(directory, "wet_files");
+        wetFiles.mkdirs();
+        for (int i = 0; i < files; i++) {
+            corpus.writeWetFile(new File(wetFiles, String.format("%05d.warc.wet.gz", i)), i, documentsPerFile);
+        }
+        String path = directory.getPath();
+        GeneratePostings gp = new GeneratePostings(wetFiles.getPath(), path + "/runs", path + "/documents", path,
+                GeneratePostings.defaultHeapBudget(), GeneratePostings.defaultWorkers());
+        if (!gp.ifDirectoryAndMappingDocumentCreated()) {
+            return null;
+        }
+        gp.createPostings();
+        InvertedIndex index = new InvertedIndex(path + "/runs", path + "/document_table.bin", path + "/lexicon.gz",
+                path + "/lexicon.bin", path + "/invertedIndex");
+        index.setCodec(codec);
+        if (!index.ifLexiconAndInvertedIndexDocumentCreated()
+                || (tierIndex && !index.setTierIndex(path + "/tierIndex", path + "/tierLexicon.bin"))) {
+            return null;
+        }
+        index.createIndex();
+        List<String> arguments = new ArrayList(Arrays.asList("--no-cache", "--sequential-snippets"));
+        if (tierIndex) {
+            arguments.add("--tier-index");
+        }
+        return Query.open(path, path + "/document_table.bin", path + "/documents", arguments);
+    }
+
+    /**
+     * Encodes a posting list in the block format of the inverted index, with the codec the blocks are encoded with.
+     */
+    public static ByteBuffer encodePostings(int[] docIds, int[] frequencies, PostingCodec codec) {
+        ByteArrayOutputStream headers = new ByteArrayOutputStream();
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        int[] gaps = new int[IndexFormat.BLOCK_SIZE];
+        int[] blockFrequencies = new int[IndexFormat.BLOCK_SIZE];
+        int lastDocId = 0;
+        for (int start = 0; start < docIds.length; start += IndexFormat.BLOCK_SIZE) {
+            int count = Math.min(IndexFormat.BLOCK_SIZE, docIds.length - start);
+            for (int i = 0; i < count; i++) {
+                gaps[i] = docIds[start + i] - lastDocId;
+                blockFrequencies[i] = frequencies[start + i];
+                lastDocId = docIds[start + i];
+            }
+            int blockStart = blocks.size();
+            codec.encode(gaps, count, blocks);
+            codec.encode(blockFrequencies, count, blocks);
+            VarByte.encode(lastDocId, headers);
+            VarByte.encode(blocks.size() - blockStart, headers);
+            VarByte.encode(0, headers);
+        }
+        ByteBuffer postings = ByteBuffer.allocateDirect(headers.size() + blocks.size());
+        postings.put(headers.toByteArray()).put(blocks.toByteArray()).flip();
+        return postings;
+    }
+
+    public static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,42 @@
+package web_indexing;
+
+/**
+ * BM25 formula shared by the index builder, which stores score upper bounds, and the query processor, which scores
+ * documents. Both sides must compute the score the same way for the bounds to hold.
+ */
+class BM25 {
+    public static final double K1 = 1.2;
+    public static final double B = 0.75;
+    public static final int IMPACT_LEVELS = 255;
+
+    private BM25() {
+    }
+
+    public static double idf(int totalDocuments, int documentFrequency) {
+        return Math.log((totalDocuments - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    /**
+     * Length normalization K1 * ((1 - B) + B * documentLength / averageDocumentLength) of a document. It only depends
+     * on the document, so the document table stores it as a float and scoring reads it instead of recomputing it.
+     */
+    public static float documentNorm(int documentLength, double averageDocumentLength) {
+        return (float) (K1 * ((1 - B) + B * documentLength / averageDocumentLength));
+    }
+
+    public static double tfNormalization(int frequency, float documentNorm) {
+        return (K1 + 1) * frequency / (documentNorm + frequency);
+    }
+
+    /**
+     * Maps a tf normalization, which is always below K1 + 1, to an impact in [0, IMPACT_LEVELS]. Rounds up so that
+     * the dequantized impact stays an upper bound.
+     */
+    public static int quantize(double tfNormalization) {
+        return (int) Math.min(IMPACT_LEVELS, Math.ceil(tfNormalization / (K1 + 1) * IMPACT_LEVELS));
+    }
+
+    public static double dequantize(int impact) {
+        return impact * (K1 + 1) / IMPACT_LEVELS;
+    }
+}
@@ -0,0 +1,202 @@
+package web_indexing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Open addressing map from byte strings to dense ids 0..size-1, given in insertion order. Keys are copied into a single
+ * byte pool, so looking up or adding a key that is already present allocates nothing.
+ */
+class BytesIntMap {
+    private int[] slots;
+    private int[] hashes;
+    private int[] offsets;
+    private int[] lengths;
+    private byte[] pool;
+    private int poolSize;
+    private int size;
+
+    BytesIntMap() {
+        slots = new int[64];
+        hashes = new int[32];
+        offsets = new int[32];
+        lengths = new int[32];
+        pool = new byte[256];
+        poolSize = 0;
+        size = 0;
+    }
+
+    private static int hash(byte[] key, int offset, int length) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + key[i];
+        }
+        // murmur3 finalizer, spreads the bits of the polynomial hash over the table
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private boolean keyEquals(int id, byte[] key, int offset, int length) {
+        if (lengths[id] != length) {
+            return false;
+        }
+        int start = offsets[id];
+        for (int i = 0; i < length; i++) {
+            if (pool[start + i] != key[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the id of the key or -1 when it is not in the map.
+     */
+    public int get(byte[] key, int offset, int length) {
+        int hash = hash(key, offset, length);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && keyEquals(id, key, offset, length)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the id of the key, adding it with the next id when it is not in the map.
+     */
+    public int add(byte[] key, int offset, int length) {
+        int hash = hash(key, offset, length);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && keyEquals(id, key, offset, length)) {
+                return id;
+            }
+        }
+        int id = size++;
+        if (id == hashes.length) {
+            hashes = Arrays.copyOf(hashes, id * 2);
+            offsets = Arrays.copyOf(offsets, id * 2);
+            lengths = Arrays.copyOf(lengths, id * 2);
+        }
+        if (poolSize + length > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + length));
+        }
+        System.arraycopy(key, offset, pool, poolSize, length);
+        hashes[id] = hash;
+        offsets[id] = poolSize;
+        lengths[id] = length;
+        poolSize += length;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return id;
+    }
+
+    /**
+     * Adds the key with the given id in the source map and returns its id in this map.
+     */
+    public int addKey(BytesIntMap source, int sourceId) {
+        return add(source.pool, source.offsets[sourceId], source.lengths[sourceId]);
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int keyLength(int id) {
+        return lengths[id];
+    }
+
+    public String keyToString(int id) {
+        return new String(pool, offsets[id], lengths[id], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Polynomial hash of the key, the String.hashCode of an ASCII key.
+     */
+    public int keyHashCode(int id) {
+        int h = 0;
+        for (int i = offsets[id]; i < offsets[id] + lengths[id]; i++) {
+            h = 31 * h + pool[i];
+        }
+        return h;
+    }
+
+    public void writeKey(int id, OutputStream out) throws IOException {
+        out.write(pool, offsets[id], lengths[id]);
+    }
+
+    /**
+     * Compares two keys as unsigned bytes, which is the order of their UTF-8 strings.
+     */
+    public int compareKeys(int a, int b) {
+        int length = Math.min(lengths[a], lengths[b]);
+        for (int i = 0; i < length; i++) {
+            int order = (pool[offsets[a] + i] & 0xFF) - (pool[offsets[b] + i] & 0xFF);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return lengths[a] - lengths[b];
+    }
+
+    /**
+     * Returns all the ids ordered by their keys.
+     */
+    public int[] sortedIds() {
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i;
+        }
+        mergeSort(ids, new int[size], 0, size);
+        return ids;
+    }
+
+    private void mergeSort(int[] ids, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(ids, buffer, from, middle);
+        mergeSort(ids, buffer, middle, to);
+        System.arraycopy(ids, from, buffer, from, to - from);
+        int left = from, right = middle;
+        for (int i = from; i < to; i++) {
+            if (right == to || (left < middle && compareKeys(buffer[left], buffer[right]) <= 0)) {
+                ids[i] = buffer[left++];
+            } else {
+                ids[i] = buffer[right++];
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(slots, 0);
+        poolSize = 0;
+        size = 0;
+    }
+}
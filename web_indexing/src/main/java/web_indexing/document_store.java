@@ -0,0 +1,214 @@
+package web_indexing;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Writes a document file as a document store: the documents are appended one after another to a stream that is cut
+ * into blocks of BLOCK_SIZE bytes and every block is compressed on its own with Deflater. The offset of a document is
+ * its offset in the uncompressed stream, so offset / BLOCK_SIZE is the block it starts in and offset % BLOCK_SIZE its
+ * offset inside the block. The file starts with MAGIC and VERSION, the compressed blocks follow, then the offset of
+ * every block and the end of the last one as longs, the number of blocks, the length of the uncompressed stream as a
+ * long and MAGIC again. The blocks may be compressed in parallel by a ParallelCompressor, the file is the same.
+ */
+class DocumentStoreWriter {
+    public static final int MAGIC = 0x57445354; // "WDST"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+    public static final int TRAILER_SIZE = 16;
+    public static final int BLOCK_SIZE = 1 << 14;
+
+    private String documentFileName;
+    private DataOutputStream documentFile;
+    private ByteArrayOutputStream blockOffsets;
+    private DataOutputStream blockOffsetsOut;
+    private ParallelCompressor compressor;
+    private byte[] block;
+    private int blockSize;
+    private int totalBlocks;
+    private long totalBytes;
+    private long length;
+
+    DocumentStoreWriter(String documentFileName) throws IOException {
+        this(documentFileName, null, 1);
+    }
+
+    /**
+     * Compresses up to maxPending blocks at once on the threads of executor while documents are added.
+     */
+    DocumentStoreWriter(String documentFileName, ExecutorService executor, int maxPending) throws IOException {
+        this.documentFileName = documentFileName;
+        this.documentFile = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(documentFileName)));
+        this.blockOffsets = new ByteArrayOutputStream();
+        this.blockOffsetsOut = new DataOutputStream(blockOffsets);
+        this.compressor = new ParallelCompressor(executor, maxPending, ParallelCompressor::deflate,
+                this::writeBlock);
+        this.block = new byte[BLOCK_SIZE];
+        documentFile.writeInt(MAGIC);
+        documentFile.writeInt(VERSION);
+        this.totalBytes = HEADER_SIZE;
+    }
+
+    /**
+     * Appends the document and returns its offset.
+     */
+    public long add(byte[] data) throws IOException {
+        long offset = length;
+        int written = 0;
+        while (written < data.length) {
+            int size = Math.min(data.length - written, BLOCK_SIZE - blockSize);
+            System.arraycopy(data, written, block, blockSize, size);
+            blockSize += size;
+            written += size;
+            if (blockSize == BLOCK_SIZE) {
+                flushBlock();
+            }
+        }
+        length += data.length;
+        return offset;
+    }
+
+    private void flushBlock() throws IOException {
+        compressor.add(block, blockSize);
+        block = new byte[BLOCK_SIZE];
+        blockSize = 0;
+    }
+
+    private void writeBlock(byte[] compressed) throws IOException {
+        blockOffsetsOut.writeLong(totalBytes);
+        documentFile.write(compressed);
+        totalBytes += compressed.length;
+        totalBlocks++;
+    }
+
+    public void finish() throws IOException {
+        if (blockSize > 0) {
+            flushBlock();
+        }
+        compressor.finish();
+        blockOffsetsOut.writeLong(totalBytes);
+        blockOffsets.writeTo(documentFile);
+        documentFile.writeInt(totalBlocks);
+        documentFile.writeLong(length);
+        documentFile.writeInt(MAGIC);
+        documentFile.close();
+    }
+
+    /**
+     * Closes the document file without its trailer and deletes it, after the documents could not all be added.
+     */
+    public void abort() {
+        compressor.cancel();
+        try {
+            documentFile.close();
+        } catch (IOException e) {
+            // the file is deleted anyway
+        }
+        new File(documentFileName).delete();
+    }
+}
+
+/**
+ * Memory mapped document store, see DocumentStoreWriter. Decompressed blocks are kept in a cache shared by the stores
+ * of an IndexReader, keyed by the id of the store and the block.
+ */
+class DocumentStore {
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private MappedFile documentFile;
+    private long blockOffsetsStart;
+    private int totalBlocks;
+    private long length;
+    private long id;
+    private SegmentedLruCache<Long, byte[]> blockCache;
+
+    DocumentStore(MappedFile documentFile, int id, SegmentedLruCache<Long, byte[]> blockCache) throws IOException {
+        this.documentFile = documentFile;
+        long fileLength = documentFile.length();
+        long minimumLength = DocumentStoreWriter.HEADER_SIZE + 8 + DocumentStoreWriter.TRAILER_SIZE;
+        if (!isDocumentStore(documentFile) || fileLength < minimumLength
+                || documentFile.getInt(fileLength - 4) != DocumentStoreWriter.MAGIC) {
+            throw new IOException("Not a document store");
+        }
+        this.totalBlocks = documentFile.getInt(fileLength - DocumentStoreWriter.TRAILER_SIZE);
+        this.length = documentFile.getLong(fileLength - 12);
+        this.blockOffsetsStart = fileLength - DocumentStoreWriter.TRAILER_SIZE - 8L * (totalBlocks + 1);
+        this.id = id;
+        this.blockCache = blockCache;
+    }
+
+    /**
+     * Whether the file starts like a document store, document files written before hold the raw documents.
+     */
+    public static Boolean isDocumentStore(MappedFile documentFile) {
+        return documentFile.length() >= DocumentStoreWriter.HEADER_SIZE
+                && documentFile.getInt(0) == DocumentStoreWriter.MAGIC
+                && documentFile.getInt(4) == DocumentStoreWriter.VERSION;
+    }
+
+    private byte[] block(int block) {
+        Long key = (id << 32) | block;
+        byte[] data = (blockCache != null) ? blockCache.get(key) : null;
+        if (data != null) {
+            return data;
+        }
+        long start = documentFile.getLong(blockOffsetsStart + 8L * block);
+        long end = documentFile.getLong(blockOffsetsStart + 8L * (block + 1));
+        byte[] compressed = new byte[(int) (end - start)];
+        documentFile.slice(start, compressed.length).get(compressed);
+        data = new byte[(int) Math.min(DocumentStoreWriter.BLOCK_SIZE,
+                length - (long) block * DocumentStoreWriter.BLOCK_SIZE)];
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        try {
+            inflater.setInput(compressed);
+            int size = 0;
+            while (size < data.length && !inflater.finished()) {
+                int inflated = inflater.inflate(data, size, data.length - size);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw new DataFormatException("truncated block");
+                }
+                size += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt block " + block + " in document store", e);
+        }
+        if (blockCache != null) {
+            blockCache.put(key, data);
+        }
+        return data;
+    }
+
+    /**
+     * Returns a read only view of size bytes of the documents starting at offset. A document inside a single block is
+     * a view of the cached block, one that crosses blocks is copied.
+     */
+    public ByteBuffer read(long offset, int size) {
+        if (offset < 0 || size < 0 || offset + size > length) {
+            throw new IndexOutOfBoundsException("offset " + offset + " size " + size + " length " + length);
+        }
+        int block = (int) (offset / DocumentStoreWriter.BLOCK_SIZE);
+        int position = (int) (offset % DocumentStoreWriter.BLOCK_SIZE);
+        if (position + size <= DocumentStoreWriter.BLOCK_SIZE) {
+            return ByteBuffer.wrap(block(block), position, size).slice().asReadOnlyBuffer();
+        }
+        byte[] copy = new byte[size];
+        int copied = 0;
+        while (copied < size) {
+            int count = Math.min(size - copied, DocumentStoreWriter.BLOCK_SIZE - position);
+            System.arraycopy(block(block), position, copy, copied, count);
+            copied += count;
+            block++;
+            position = 0;
+        }
+        return ByteBuffer.wrap(copy).asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,228 @@
+package web_indexing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Memory mapped table of the documents, written by GeneratePostings next to url_doc_mapping.gz. DocIDs are dense and
+ * start at 1, so the row of a document is docID - 1 and every column is a fixed width array read in place.
+ *
+ * The file starts with MAGIC, VERSION, the number of documents, the number of document files, the total number of
+ * terms of all documents and the position of the document file names. The columns follow in this order: the offsets
+ * of the documents in their document file as longs, the end of every URL in the URL heap as longs, the document
+ * lengths in terms as ints, the BM25.documentNorm of the documents as floats, the document file ids and the document
+ * sizes in bytes as ints. Version 1 had no norms. The URL heap holds the UTF-8 bytes
+ * of the URLs one after another and the file names table holds the var-byte length and UTF-8 bytes of every document
+ * file name in file id order.
+ */
+class DocumentTable {
+    public static final int MAGIC = 0x57444F43; // "WDOC"
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 32;
+
+    private MappedFile documentTableFile;
+    private int totalDocuments;
+    private long totalDocumentsTerms;
+    private long offsetsPosition;
+    private long urlEndsPosition;
+    private long lengthsPosition;
+    private long normsPosition;
+    private long fileIdsPosition;
+    private long sizesPosition;
+    private long urlsPosition;
+    private String[] documentFileNames;
+
+    DocumentTable(String fileName) throws IOException {
+        documentTableFile = new MappedFile(fileName);
+        if (documentTableFile.length() < HEADER_SIZE) {
+            throw new IOException(fileName + " is not a document table");
+        }
+        ByteBuffer header = documentTableFile.slice(0, HEADER_SIZE);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Unsupported document table format in " + fileName);
+        }
+        totalDocuments = header.getInt();
+        documentFileNames = new String[header.getInt()];
+        totalDocumentsTerms = header.getLong();
+        long fileNamesPosition = header.getLong();
+
+        offsetsPosition = HEADER_SIZE;
+        urlEndsPosition = offsetsPosition + 8L * totalDocuments;
+        lengthsPosition = urlEndsPosition + 8L * totalDocuments;
+        normsPosition = lengthsPosition + 4L * totalDocuments;
+        fileIdsPosition = normsPosition + 4L * totalDocuments;
+        sizesPosition = fileIdsPosition + 4L * totalDocuments;
+        urlsPosition = sizesPosition + 4L * totalDocuments;
+
+        ByteBuffer fileNames = documentTableFile.slice(fileNamesPosition,
+                (int) (documentTableFile.length() - fileNamesPosition));
+        for (int i = 0; i < documentFileNames.length; i++) {
+            byte[] utf8 = new byte[VarByte.decode(fileNames)];
+            fileNames.get(utf8);
+            documentFileNames[i] = new String(utf8, StandardCharsets.UTF_8);
+        }
+    }
+
+    public int size() {
+        return totalDocuments;
+    }
+
+    public long getTotalDocumentsTerms() {
+        return totalDocumentsTerms;
+    }
+
+    public double getAverageLength() {
+        return (double) totalDocumentsTerms / totalDocuments;
+    }
+
+    public int getLength(int docId) {
+        return documentTableFile.getInt(lengthsPosition + 4L * (docId - 1));
+    }
+
+    public float getNorm(int docId) {
+        return Float.intBitsToFloat(documentTableFile.getInt(normsPosition + 4L * (docId - 1)));
+    }
+
+    public String getDocumentFileName(int docId) {
+        return documentFileNames[documentTableFile.getInt(fileIdsPosition + 4L * (docId - 1))];
+    }
+
+    public long getOffset(int docId) {
+        return documentTableFile.getLong(offsetsPosition + 8L * (docId - 1));
+    }
+
+    public int getSize(int docId) {
+        return documentTableFile.getInt(sizesPosition + 4L * (docId - 1));
+    }
+
+    public String getUrl(int docId) {
+        long start = (docId > 1) ? documentTableFile.getLong(urlEndsPosition + 8L * (docId - 2)) : 0;
+        long end = documentTableFile.getLong(urlEndsPosition + 8L * (docId - 1));
+        ByteBuffer url = documentTableFile.slice(urlsPosition + start, (int) (end - start));
+        byte[] utf8 = new byte[url.remaining()];
+        url.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
+
+/**
+ * Writes the document table described in DocumentTable, documents must be added in docID order. Every column is
+ * written to its own temporary file while documents come in, the columns are appended to the table when it is
+ * finished.
+ */
+class DocumentTableWriter {
+    private static final String[] COLUMNS = {"offsets", "urlEnds", "lengths", "fileIds", "sizes", "urls"};
+    private static final int LENGTHS = 2;
+
+    private String fileName;
+    private File[] columnFiles;
+    private DataOutputStream[] columns;
+    private HashMap<String, Integer> documentFileIds;
+    private List<String> documentFileNames;
+    private int totalDocuments;
+    private long totalDocumentsTerms;
+    private long urlsSize;
+
+    DocumentTableWriter(String fileName) throws IOException {
+        this.fileName = fileName;
+        this.columnFiles = new File[COLUMNS.length];
+        this.columns = new DataOutputStream[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            columnFiles[i] = new File(fileName + "." + COLUMNS[i]);
+            columns[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(columnFiles[i]), 1 << 16));
+        }
+        this.documentFileIds = new HashMap();
+        this.documentFileNames = new ArrayList();
+        this.totalDocuments = 0;
+        this.totalDocumentsTerms = 0;
+        this.urlsSize = 0;
+    }
+
+    public void add(String url, int length, String documentFileName, long offset, int size) throws IOException {
+        Integer fileId = documentFileIds.get(documentFileName);
+        if (fileId == null) {
+            fileId = documentFileNames.size();
+            documentFileIds.put(documentFileName, fileId);
+            documentFileNames.add(documentFileName);
+        }
+        byte[] utf8 = url.getBytes(StandardCharsets.UTF_8);
+        urlsSize += utf8.length;
+        columns[0].writeLong(offset);
+        columns[1].writeLong(urlsSize);
+        columns[2].writeInt(length);
+        columns[3].writeInt(fileId);
+        columns[4].writeInt(size);
+        columns[5].write(utf8);
+        totalDocuments++;
+        totalDocumentsTerms += length;
+    }
+
+    /**
+     * Writes the header, the columns and the document file names, and removes the temporary column files. The norms
+     * need the average document length, so they are computed from the lengths column here.
+     */
+    public void finish() throws IOException {
+        DataOutputStream table = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName),
+                1 << 16));
+        try {
+            table.writeInt(DocumentTable.MAGIC);
+            table.writeInt(DocumentTable.VERSION);
+            table.writeInt(totalDocuments);
+            table.writeInt(documentFileNames.size());
+            table.writeLong(totalDocumentsTerms);
+            table.writeLong(DocumentTable.HEADER_SIZE + 32L * totalDocuments + urlsSize);
+            byte[] buffer = new byte[1 << 16];
+            for (int i = 0; i < COLUMNS.length; i++) {
+                columns[i].close();
+                InputStream in = new BufferedInputStream(new FileInputStream(columnFiles[i]), 1 << 16);
+                try {
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        table.write(buffer, 0, read);
+                    }
+                } finally {
+                    in.close();
+                }
+                if (i == LENGTHS) {
+                    writeNorms(table);
+                }
+                columnFiles[i].delete();
+            }
+            ByteArrayOutputStream fileNames = new ByteArrayOutputStream();
+            for (String documentFileName : documentFileNames) {
+                byte[] utf8 = documentFileName.getBytes(StandardCharsets.UTF_8);
+                VarByte.encode(utf8.length, fileNames);
+                fileNames.write(utf8);
+            }
+            fileNames.writeTo(table);
+        } finally {
+            table.close();
+        }
+    }
+
+    private void writeNorms(DataOutputStream table) throws IOException {
+        double averageDocumentLength = (double) totalDocumentsTerms / totalDocuments;
+        DataInputStream lengths = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                columnFiles[LENGTHS]), 1 << 16));
+        try {
+            for (int i = 0; i < totalDocuments; i++) {
+                table.writeFloat(BM25.documentNorm(lengths.readInt(), averageDocumentLength));
+            }
+        } finally {
+            lengths.close();
+        }
+    }
+}
@@ -1,49 +1,251 @@
 package web_indexing;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.zip.GZIPOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 import org.archive.io.ArchiveReader;
 import org.archive.io.ArchiveRecord;
-import org.archive.io.ArchiveRecordHeader;
 import org.archive.io.warc.WARCReaderFactory;
 
+/**
+ * Documents and run files of one ingested WET file. The docIDs of the file are local, starting at 1, until
+ * GeneratePostings gives the file its docID base. The documents are stored one after another in the document store
+ * documentFileName. The bytes of all the records read, the postings of the documents kept and the time taken give the
+ * ingestion throughput of the file.
+ */
+class IngestedFile {
+    private String wetFileName;
+    private String documentFileName;
+    private List<String> urls;
+    private IntArrayList totalWords;
+    private IntArrayList sizes;
+    private List<File> runFiles;
+    private long bytes;
+    private long postings;
+    private long nanos;
+
+    IngestedFile(String wetFileName, String documentFileName) {
+        this.wetFileName = wetFileName;
+        this.documentFileName = documentFileName;
+        this.urls = new ArrayList();
+        this.totalWords = new IntArrayList();
+        this.sizes = new IntArrayList();
+    }
+
+    public void addDocument(String url, int documentTotalWords, int size) {
+        urls.add(url);
+        totalWords.add(documentTotalWords);
+        sizes.add(size);
+    }
+
+    public String getDocumentFileName() {
+        return documentFileName;
+    }
+
+    public Integer getTotalUrls() {
+        return urls.size();
+    }
+
+    public String getUrl(int index) {
+        return urls.get(index);
+    }
+
+    public int getTotalWords(int index) {
+        return totalWords.get(index);
+    }
+
+    public int getSize(int index) {
+        return sizes.get(index);
+    }
+
+    public List<File> getRunFiles() {
+        return runFiles;
+    }
+
+    public void setRunFiles(List<File> runFiles) {
+        this.runFiles = runFiles;
+    }
+
+    public void setThroughput(long bytes, long postings, long nanos) {
+        this.bytes = bytes;
+        this.postings = postings;
+        this.nanos = nanos;
+    }
+
+    public String getWetFileName() {
+        return wetFileName;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getPostings() {
+        return postings;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+}
+
+/**
+ * URL and content of a WARC record, handed from the reader stage of an ingestion to its tokenizer stage.
+ */
+class WarcDocument {
+    public static final WarcDocument END = new WarcDocument(null, null);
+
+    private String url;
+    private byte[] data;
+
+    WarcDocument(String url, byte[] data) {
+        this.url = url;
+        this.data = data;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
+
+/**
+ * Ingests WET files into run files, document stores and the document table. Every file is ingested as a pipeline:
+ * a reader thread reads and inflates the WARC records into a bounded queue, the worker of the file tokenizes them and
+ * inverts the postings, and the blocks of its document store are compressed on the compression threads, so a single
+ * large WET file is not bound to one core.
+ */
 class GeneratePostings {
+    public static final String DOC_ID_ORDER = "docid_order";
+
+    // records read ahead of the tokenizer, per file
+    private static final int RECORD_QUEUE_SIZE = 64;
+    // how often the tokenizer stage checks that the reader is still running while it waits for a record
+    private static final long RECORD_POLL_MILLIS = 100;
+
     private String wetFilesPath;
-    private GZIPOutputStream urlToDocMappingFile;
-    private File postingsDirectory;
+    private OutputStream urlToDocMappingFile;
+    private DocumentTableWriter documentTableFile;
+    private File runsDirectory;
     private File documentsDirectory;
+    private long heapBudget;
+    private int workers;
+    private Boolean positions;
+    private Boolean reorderDocIds;
+    private Metrics metrics;
+    private ExecutorService readerExecutor;
+    private ExecutorService compressionExecutor;
+
+    GeneratePostings(String wetFilesPath, String runsOutputPath, String documentDirectoryPath, long heapBudget,
+            int workers) {
+        this(wetFilesPath, runsOutputPath, documentDirectoryPath, ".", heapBudget, workers);
+    }
 
-    GeneratePostings(String wetFilesPath, String postingsOutputPath, String documentDirectoryPath) {
+    /**
+     * Writes url_doc_mapping.gz and document_table.bin to indexDirectoryPath instead of the current directory.
+     */
+    GeneratePostings(String wetFilesPath, String runsOutputPath, String documentDirectoryPath,
+            String indexDirectoryPath, long heapBudget, int workers) {
         this.wetFilesPath = wetFilesPath;
-        this.urlToDocMappingFile = createUrlToDocMapping();
-        this.postingsDirectory = createOutputDirectory(postingsOutputPath);
+        this.workers = workers;
+        this.readerExecutor = Executors.newFixedThreadPool(workers);
+        this.compressionExecutor = Executors.newFixedThreadPool(workers);
+        this.urlToDocMappingFile = createUrlToDocMapping(indexDirectoryPath + "/url_doc_mapping.gz");
+        this.documentTableFile = createDocumentTable(indexDirectoryPath + "/document_table.bin");
+        this.runsDirectory = createOutputDirectory(runsOutputPath);
         this.documentsDirectory = createOutputDirectory(documentDirectoryPath);
+        this.heapBudget = heapBudget;
+        this.positions = false;
+        this.reorderDocIds = false;
+        this.metrics = new Metrics();
+    }
+
+    /**
+     * Records the ingestion metrics in metrics, which may be shared with the other steps of an index build: the
+     * latency of every document kept, the time of every WET file and the records, bytes and postings ingested.
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Writes the positions sidecar of every document file, which lets snippets be read around the query words.
+     */
+    public void setPositions(Boolean positions) {
+        this.positions = positions;
+    }
+
+    /**
+     * Numbers the documents in URL order instead of crawl order, see urlOrderKey. The pages of a site get consecutive
+     * docIDs, which makes the docID gaps of the posting lists smaller. The URL mapping and the document table are
+     * written in the new order and the new docID of every document is written to DOC_ID_ORDER in the runs directory,
+     * InvertedIndex renumbers the postings with it while merging.
+     */
+    public void setReorderDocIds(Boolean reorderDocIds) {
+        this.reorderDocIds = reorderDocIds;
+    }
+
+    public static long defaultHeapBudget() {
+        return Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    public static int defaultWorkers() {
+        return Runtime.getRuntime().availableProcessors();
     }
 
-    private GZIPOutputStream createUrlToDocMapping() {
+    private OutputStream createUrlToDocMapping(String fileName) {
         try {
-            return new GZIPOutputStream(new FileOutputStream("./url_doc_mapping.gz"));
+            return new ParallelGzipOutputStream(new FileOutputStream(fileName), compressionExecutor, 2 * workers);
         } catch (IOException e) {
             System.out.println("Unable to create URL to Doc Mapping file");
         }
         return null;
     }
 
+    private DocumentTableWriter createDocumentTable(String fileName) {
+        try {
+            return new DocumentTableWriter(fileName);
+        } catch (IOException e) {
+            System.out.println("Unable to create document table file");
+        }
+        return null;
+    }
+
     public Boolean ifDirectoryAndMappingDocumentCreated() {
-        return postingsDirectory != null && documentsDirectory != null && urlToDocMappingFile != null;
+        return runsDirectory != null && documentsDirectory != null && urlToDocMappingFile != null
+                && documentTableFile != null;
     }
 
     private File createOutputDirectory(String postingsPath) {
         File file = new File(postingsPath);
         if (!file.exists()) {
-            if (file.mkdir()) {
+            if (file.mkdirs()) {
                 System.out.println("Directory is created!");
             } else {
                 System.out.println("Failed to create directory!");
@@ -53,96 +255,322 @@ class GeneratePostings {
         return file;
     }
 
-    private Boolean isCorrectWord(String word) {
-        return ((word != null) && (word.length() > 2) && (word.matches("^[a-zA-Z0-9]*$")));
-    }
-
-    private Map<String, Integer> findWordsCount(String[] words) {
-        Map<String, Integer> wordsCount = new HashMap<String, Integer>();
-        for (String word : words) {
-            word = word.toLowerCase();
-            if (!isCorrectWord(word)) {
-                continue;
-            }
-            Integer count = wordsCount.getOrDefault(word, 0);
-            wordsCount.put(word, count + 1);
+    /**
+     * Counts the valid words of a record and returns the total number of words of the record. words maps every
+     * distinct word to its index in wordsCount, both are cleared first and reused from record to record. When
+     * tokenWordIds is not null the word id and the byte offset of every valid token are added to tokenWordIds and
+     * tokenPositions, which are cleared first too.
+     */
+    static int findWordsCount(Tokenizer tokenizer, byte[] rawData, BytesIntMap words, IntArrayList wordsCount,
+            IntArrayList tokenWordIds, IntArrayList tokenPositions) {
+        words.clear();
+        wordsCount.clear();
+        if (tokenWordIds != null) {
+            tokenWordIds.clear();
+            tokenPositions.clear();
         }
-        return wordsCount;
+        return tokenizer.tokenize(rawData, 0, rawData.length, (token, length) -> {
+            int wordId = words.add(token, 0, length);
+            if (wordId == wordsCount.size()) {
+                wordsCount.add(1);
+            } else {
+                wordsCount.increment(wordId);
+            }
+            if (tokenWordIds != null) {
+                tokenWordIds.add(wordId);
+                tokenPositions.add(tokenizer.getTokenStart());
+            }
+        });
     }
 
-    private Boolean isPageValid(Map<String, Integer> wordsCount, int totalWords) {
+    private Boolean isPageValid(IntArrayList wordsCount, int totalWords) {
         int totalWordsAfterParsing = 0;
-        for (Integer count : wordsCount.values()) {
-            totalWordsAfterParsing += count;
+        for (int i = 0; i < wordsCount.size(); i++) {
+            totalWordsAfterParsing += wordsCount.get(i);
         }
 
         return (float) totalWordsAfterParsing / totalWords > 0.1;
     }
 
-    public void createPostings() {
-        final File folder = new File(wetFilesPath);
-        int fileEntryIndex = 0;
-        long totalUrls = 0;
+    /**
+     * Reader stage of an ingestion: puts the records of the WET file that have a URL in records, then END. A reader
+     * that fails, with an exception or an Error, stops without END, the tokenizer stage sees it is done in nextRecord
+     * and gets the failure from its Future.
+     */
+    Void readRecords(File fileEntry, BlockingQueue<WarcDocument> records) throws IOException, InterruptedException {
+        FileInputStream is = new FileInputStream(fileEntry);
+        ArchiveReader ar = WARCReaderFactory.get(wetFilesPath + "/" + fileEntry.getName(), is, true);
         try {
-            for (final File fileEntry : folder.listFiles()) {
-                fileEntryIndex++;
-                long totalDocumentsBytes = 0;
-                FileInputStream is = new FileInputStream(fileEntry);
-                ArchiveReader ar = WARCReaderFactory.get(wetFilesPath + "/" + fileEntry.getName(), is, true);
-                GZIPOutputStream gzos = new GZIPOutputStream(
-                        new FileOutputStream(postingsDirectory.getName() + "/" + fileEntryIndex + ".gz"));
-                String fileName = documentsDirectory.getName() + "/" + fileEntryIndex;
-                FileOutputStream documentsFile = new FileOutputStream(fileName);
-                for (ArchiveRecord r : ar) {
+            for (ArchiveRecord r : ar) {
+                String url = r.getHeader().getUrl();
+                if (url == null) {
+                    continue;
+                }
+                records.put(new WarcDocument(url, IOUtils.toByteArray(r, r.available())));
+            }
+        } finally {
+            ar.close();
+        }
+        records.put(WarcDocument.END);
+        return null;
+    }
 
-                    ArchiveRecordHeader header = r.getHeader();
-                    String url = r.getHeader().getUrl();
-                    if (url == null) {
-                        continue;
-                    }
-                    // System.out.println("totalURLs =" + totalUrls + " URL=" + url);
+    /**
+     * Next record of the reader, END once the reader is done and its records are taken, whether it put END or failed.
+     */
+    private static WarcDocument nextRecord(BlockingQueue<WarcDocument> records, Future<Void> reader)
+            throws InterruptedException {
+        while (true) {
+            WarcDocument document = records.poll(RECORD_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (document != null) {
+                return document;
+            }
+            if (reader.isDone()) {
+                // the reader put its last records before it was done
+                document = records.poll();
+                return (document != null) ? document : WarcDocument.END;
+            }
+        }
+    }
 
-                    byte[] rawData = IOUtils.toByteArray(r, r.available());
+    private IngestedFile ingestFile(File fileEntry, int fileEntryIndex) throws IOException, InterruptedException {
+        long startTime = System.nanoTime();
+        LatencyHistogram recordTime = metrics.histogram("ingestion.record");
+        long bytes = 0;
+        long postings = 0;
+        PostingsInverter postingsInverter = new PostingsInverter(runsDirectory, fileEntryIndex + "-",
+                heapBudget / workers, 1);
+        Tokenizer tokenizer = new Tokenizer();
+        BytesIntMap words = new BytesIntMap();
+        IntArrayList wordsCount = new IntArrayList();
+        IntArrayList tokenWordIds = positions ? new IntArrayList() : null;
+        IntArrayList tokenPositions = positions ? new IntArrayList() : null;
+        int totalUrls = 0;
+        String fileName = new File(documentsDirectory, String.valueOf(fileEntryIndex)).getPath();
+        DocumentStoreWriter documentsFile = new DocumentStoreWriter(fileName, compressionExecutor, 2 * workers);
+        PositionsWriter positionsFile = null;
+        IngestedFile ingestedFile = new IngestedFile(fileEntry.getName(), fileName);
+        BlockingQueue<WarcDocument> records = new ArrayBlockingQueue(RECORD_QUEUE_SIZE);
+        Future<Void> reader = readerExecutor.submit(() -> readRecords(fileEntry, records));
+        Boolean finished = false;
+        try {
+            if (positions) {
+                positionsFile = new PositionsWriter(fileName);
+            }
+            for (WarcDocument document = nextRecord(records, reader); document != WarcDocument.END;
+                    document = nextRecord(records, reader)) {
+                long recordStartTime = System.nanoTime();
+                byte[] rawData = document.getData();
+                bytes += rawData.length;
 
-                    String content = new String(rawData);
-                    String[] words = content.split(" ");
+                int totalWords = findWordsCount(tokenizer, rawData, words, wordsCount, tokenWordIds,
+                        tokenPositions);
 
-                    Map<String, Integer> wordsCount = findWordsCount(words);
+                if (!isPageValid(wordsCount, totalWords)) {
+                    continue;
+                }
+                totalUrls++;
+                postingsInverter.addPostings(words, wordsCount, totalUrls);
 
-                    if (!isPageValid(wordsCount, words.length)) {
-                        continue;
-                    }
-                    totalUrls++;
-                    for (String word : wordsCount.keySet()) {
-                        String posting = word + " " + totalUrls + " " + wordsCount.get(word) + "\n";
-                        gzos.write(posting.getBytes());
-                    }
+                long documentOffset = documentsFile.add(rawData);
+                if (positionsFile != null) {
+                    positionsFile.add(documentOffset, words, wordsCount, tokenWordIds, tokenPositions);
+                }
+                ingestedFile.addDocument(document.getUrl(), totalWords, rawData.length);
+                postings += wordsCount.size();
+                recordTime.record(System.nanoTime() - recordStartTime);
+            }
+            reader.get();
+            documentsFile.finish();
+            if (positionsFile != null) {
+                positionsFile.finish();
+            }
+            finished = true;
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to read " + fileEntry.getName(), e.getCause());
+        } finally {
+            // stops the reader when the tokenizer stage failed
+            reader.cancel(true);
+            if (!finished) {
+                // a document file without its trailer cannot be opened, it is deleted with its positions
+                documentsFile.abort();
+                if (positionsFile != null) {
+                    positionsFile.abort();
+                }
+            }
+        }
+        ingestedFile.setRunFiles(postingsInverter.finish());
+        ingestedFile.setThroughput(bytes, postings, System.nanoTime() - startTime);
+        return ingestedFile;
+    }
 
-                    documentsFile.write(rawData);
+    private void recordThroughput(IngestedFile ingestedFile) {
+        double seconds = Math.max(ingestedFile.getNanos(), 1) / 1e9;
+        System.out.println(String.format(Locale.ROOT, "%s: %d records, %.0f records/s, %.2f MB/s, %.0f postings/s",
+                ingestedFile.getWetFileName(), ingestedFile.getTotalUrls(), ingestedFile.getTotalUrls() / seconds,
+                ingestedFile.getBytes() / seconds / (1 << 20), ingestedFile.getPostings() / seconds));
+        metrics.histogram("ingestion.file").record(ingestedFile.getNanos());
+        metrics.counter("ingestion.files").increment();
+        metrics.counter("ingestion.records").add(ingestedFile.getTotalUrls());
+        metrics.counter("ingestion.bytes").add(ingestedFile.getBytes());
+        metrics.counter("ingestion.postings").add(ingestedFile.getPostings());
+    }
 
-                    urlToDocMappingFile.write((totalUrls + " " + url + " " + words.length + " " + fileName + " "
-                            + totalDocumentsBytes + " " + rawData.length + " \n").getBytes());
+    /**
+     * Sort key of a URL: its host with the labels reversed followed by the rest of the URL without the scheme, so
+     * http://www.example.com/a gives com.example.www/a and the pages of a host and the hosts of a domain sort together.
+     */
+    static String urlOrderKey(String url) {
+        int hostStart = url.indexOf("://");
+        hostStart = (hostStart < 0) ? 0 : hostStart + 3;
+        int hostEnd = hostStart;
+        while (hostEnd < url.length() && "/?#:".indexOf(url.charAt(hostEnd)) < 0) {
+            hostEnd++;
+        }
+        String[] labels = url.substring(hostStart, hostEnd).toLowerCase(Locale.ROOT).split("\\.");
+        StringBuilder key = new StringBuilder(url.length());
+        for (int i = labels.length - 1; i >= 0; i--) {
+            key.append(labels[i]);
+            if (i > 0) {
+                key.append('.');
+            }
+        }
+        return key.append(url, hostEnd, url.length()).toString();
+    }
+
+    private void writeDocument(int docId, IngestedFile ingestedFile, int index, long offset) throws IOException {
+        String url = ingestedFile.getUrl(index);
+        int totalWords = ingestedFile.getTotalWords(index);
+        String fileName = ingestedFile.getDocumentFileName();
+        int size = ingestedFile.getSize(index);
+        urlToDocMappingFile.write((docId + " " + url + " " + totalWords + " " + fileName + " " + offset + " " + size
+                + " \n").getBytes());
+        documentTableFile.add(url, totalWords, fileName, offset, size);
+    }
+
+    /**
+     * Writes the documents of the file to the URL mapping and the document table with the docIDs following docIdBase.
+     */
+    private void writeDocuments(IngestedFile ingestedFile, int docIdBase) throws IOException {
+        long offset = 0;
+        for (int i = 0; i < ingestedFile.getTotalUrls(); i++) {
+            writeDocument(docIdBase + i + 1, ingestedFile, i, offset);
+            offset += ingestedFile.getSize(i);
+        }
+    }
 
-                    totalDocumentsBytes += rawData.length;
+    /**
+     * Writes the documents of all the files to the URL mapping and the document table in URL order, and the new docID
+     * of every document to DOC_ID_ORDER: the number of documents followed by the new docIDs in crawl order as ints.
+     */
+    private void writeDocumentsInUrlOrder(List<IngestedFile> ingestedFiles, int totalDocuments) throws IOException {
+        IngestedFile[] files = new IngestedFile[totalDocuments];
+        int[] indexes = new int[totalDocuments];
+        long[] offsets = new long[totalDocuments];
+        String[] keys = new String[totalDocuments];
+        int document = 0;
+        for (IngestedFile ingestedFile : ingestedFiles) {
+            long offset = 0;
+            for (int i = 0; i < ingestedFile.getTotalUrls(); i++) {
+                files[document] = ingestedFile;
+                indexes[document] = i;
+                offsets[document] = offset;
+                keys[document] = urlOrderKey(ingestedFile.getUrl(i));
+                offset += ingestedFile.getSize(i);
+                document++;
+            }
+        }
+        Integer[] order = new Integer[totalDocuments];
+        for (int i = 0; i < totalDocuments; i++) {
+            order[i] = i;
+        }
+        // stable, documents with the same key keep their crawl order
+        Arrays.sort(order, (a, b) -> keys[a].compareTo(keys[b]));
+        int[] newDocIds = new int[totalDocuments];
+        for (int docId = 1; docId <= totalDocuments; docId++) {
+            document = order[docId - 1];
+            writeDocument(docId, files[document], indexes[document], offsets[document]);
+            newDocIds[document] = docId;
+        }
+        DataOutputStream docIdOrder = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                new File(runsDirectory, DOC_ID_ORDER))));
+        docIdOrder.writeInt(totalDocuments);
+        for (int newDocId : newDocIds) {
+            docIdOrder.writeInt(newDocId);
+        }
+        docIdOrder.close();
+    }
 
-                    // System.out.println("=-=-=-=-=-=-=-=-=");
+    /**
+     * Ingests the WET files on a pool of workers. The files are handed to the URL mapping, the document table and the
+     * run manifest in file order, so file n gets the docIDs following the ones of file n - 1 whatever order the
+     * workers finish in. With setReorderDocIds the documents are renumbered in URL order once all the files are
+     * ingested. Returns false when a file cannot be ingested.
+     */
+    public Boolean createPostings() {
+        File[] files = new File(wetFilesPath).listFiles();
+        Arrays.sort(files);
+        return createPostings(files);
+    }
 
+    /**
+     * Ingests the given WET files of the WET files directory only, in the given order.
+     */
+    public Boolean createPostings(final File[] files) {
+        ExecutorService ingestionExecutor = Executors.newFixedThreadPool(workers);
+        List<Future<IngestedFile>> ingestedFiles = new ArrayList();
+        for (int i = 0; i < files.length; i++) {
+            final int fileEntryIndex = i + 1;
+            ingestedFiles.add(ingestionExecutor.submit(() -> ingestFile(files[fileEntryIndex - 1], fileEntryIndex)));
+        }
+        try {
+            Writer manifest = new OutputStreamWriter(new FileOutputStream(
+                    new File(runsDirectory, PostingsInverter.MANIFEST)));
+            List<IngestedFile> reorderedFiles = new ArrayList();
+            int docIdBase = 0;
+            for (Future<IngestedFile> future : ingestedFiles) {
+                IngestedFile ingestedFile = future.get();
+                recordThroughput(ingestedFile);
+                if (reorderDocIds) {
+                    reorderedFiles.add(ingestedFile);
+                } else {
+                    writeDocuments(ingestedFile, docIdBase);
                 }
-                documentsFile.close();
-                gzos.finish();
-                gzos.close();
+                for (File runFile : ingestedFile.getRunFiles()) {
+                    manifest.write(runFile.getName() + " " + docIdBase + "\n");
+                }
+                docIdBase += ingestedFile.getTotalUrls();
+            }
+            manifest.close();
+            if (reorderDocIds) {
+                writeDocumentsInUrlOrder(reorderedFiles, docIdBase);
             }
             urlToDocMappingFile.close();
-        } catch (IOException ex) {
+            documentTableFile.finish();
+            return true;
+        } catch (IOException | InterruptedException | ExecutionException ex) {
             ex.printStackTrace();
+        } finally {
+            // stops the files still being ingested after a failure
+            ingestionExecutor.shutdownNow();
+            readerExecutor.shutdown();
+            compressionExecutor.shutdown();
         }
+        return false;
     }
 
+    /**
+     * With --reorder-docids the documents are numbered in URL order.
+     */
     public static void main(String[] args) {
         long startTime = System.currentTimeMillis();
-        GeneratePostings gp = new GeneratePostings("./wet_files", "./postings", "./documents");
-        if (gp.ifDirectoryAndMappingDocumentCreated())
+        GeneratePostings gp = new GeneratePostings("./wet_files", "./runs", "./documents", defaultHeapBudget(),
+                defaultWorkers());
+        if (gp.ifDirectoryAndMappingDocumentCreated()) {
+            gp.setReorderDocIds(Arrays.asList(args).contains("--reorder-docids"));
             gp.createPostings();
+            gp.getMetrics().writeJson("./ingestion_metrics.json");
+        }
         System.out.println("Total time =" + (System.currentTimeMillis() - startTime) / 60000.0);
     }
 }
\ No newline at end of file
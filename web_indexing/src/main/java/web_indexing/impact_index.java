@@ -0,0 +1,227 @@
+package web_indexing;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Impact ordered variant of the inverted index for score-at-a-time evaluation, written by InvertedIndex when it is
+ * asked to. It has its own binary lexicon, in the format of Lexicon, whose entries point into this file.
+ *
+ * The file starts with MAGIC, VERSION and the score of the highest impact as a double. The impact of a posting is its
+ * BM25 term score quantized on IMPACT_LEVELS levels of the best score any posting of the collection can have, so the
+ * impacts of different terms add up. The postings of a term are the var-byte number of segments, one (impact, posting
+ * count, size in bytes) var-byte triple per segment and then the segments, in decreasing impact order. A segment holds
+ * the increasing docIDs of its postings as gaps, the first one relative to 0. Postings of terms with a negative idf
+ * are left out as they can only lower a score.
+ */
+class ImpactIndex {
+    public static final int MAGIC = 0x57494D50; // "WIMP"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int IMPACT_LEVELS = 255;
+
+    private MappedFile impactIndexFile;
+    private Lexicon lexicon;
+    private double maxImpactScore;
+
+    ImpactIndex(String impactIndexPath, String lexiconPath) throws IOException {
+        impactIndexFile = new MappedFile(impactIndexPath);
+        if (impactIndexFile.length() < HEADER_SIZE) {
+            throw new IOException(impactIndexPath + " is not an impact index");
+        }
+        ByteBuffer header = impactIndexFile.slice(0, HEADER_SIZE);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Unsupported impact index format in " + impactIndexPath);
+        }
+        maxImpactScore = header.getDouble();
+        lexicon = new Lexicon(lexiconPath);
+    }
+
+    /**
+     * Best BM25 term score of a collection of totalDocuments documents, reached by a term of a single document.
+     */
+    public static double maxTermScore(int totalDocuments) {
+        return Math.max(BM25.idf(totalDocuments, 1), Double.MIN_NORMAL) * (BM25.K1 + 1);
+    }
+
+    /**
+     * Quantizes a positive score to an impact in [1, IMPACT_LEVELS], rounding up.
+     */
+    public static int impact(double score, double maxImpactScore) {
+        return (int) Math.max(1, Math.min(IMPACT_LEVELS, Math.ceil(score / maxImpactScore * IMPACT_LEVELS)));
+    }
+
+    public double getMaxImpactScore() {
+        return maxImpactScore;
+    }
+
+    /**
+     * Returns the impact ordered postings of the term, or null when the term has none.
+     */
+    public ImpactList get(String term) {
+        Posting p = lexicon.get(term);
+        if (p == null) {
+            return null;
+        }
+        return new ImpactList(impactIndexFile.slice(p.getOffset(), p.getSize()));
+    }
+}
+
+/**
+ * Segments of the impact ordered postings of one term. The segment headers are parsed when the list is created, a
+ * segment is decoded on request.
+ */
+class ImpactList {
+    private ByteBuffer postings;
+    private int[] impacts;
+    private int[] counts;
+    private int[] offsets;
+
+    ImpactList(ByteBuffer postings) {
+        this.postings = postings;
+        int segments = VarByte.decode(postings);
+        impacts = new int[segments];
+        counts = new int[segments];
+        offsets = new int[segments];
+        int[] sizes = new int[segments];
+        for (int i = 0; i < segments; i++) {
+            impacts[i] = VarByte.decode(postings);
+            counts[i] = VarByte.decode(postings);
+            sizes[i] = VarByte.decode(postings);
+        }
+        int offset = postings.position();
+        for (int i = 0; i < segments; i++) {
+            offsets[i] = offset;
+            offset += sizes[i];
+        }
+    }
+
+    public int getSegments() {
+        return impacts.length;
+    }
+
+    public int getImpact(int segment) {
+        return impacts[segment];
+    }
+
+    public int getCount(int segment) {
+        return counts[segment];
+    }
+
+    /**
+     * Decodes the docIDs of the segment into docIds, which must hold getCount(segment) ints.
+     */
+    public void decodeSegment(int segment, int[] docIds) {
+        postings.position(offsets[segment]);
+        int docId = 0;
+        for (int i = 0; i < counts[segment]; i++) {
+            docId += VarByte.decode(postings);
+            docIds[i] = docId;
+        }
+    }
+}
+
+/**
+ * Writes the impact index and its lexicon, terms must be added in sorted order.
+ */
+class ImpactIndexWriter {
+    private OutputStream impactIndexFile;
+    private LexiconWriter lexicon;
+    private double maxImpactScore;
+    private long totalBytes;
+    private int[] impacts;
+    private int[] segmentStarts;
+    private int[] segmentDocIds;
+    private ByteArrayOutputStream segmentCount;
+    private ByteArrayOutputStream headers;
+    private ByteArrayOutputStream segments;
+
+    ImpactIndexWriter(String impactIndexPath, String lexiconPath, int totalDocuments) throws IOException {
+        this.impactIndexFile = new BufferedOutputStream(new FileOutputStream(impactIndexPath), 1 << 16);
+        this.lexicon = new LexiconWriter(lexiconPath);
+        this.maxImpactScore = ImpactIndex.maxTermScore(totalDocuments);
+        this.totalBytes = ImpactIndex.HEADER_SIZE;
+        this.impacts = new int[0];
+        this.segmentStarts = new int[ImpactIndex.IMPACT_LEVELS + 2];
+        this.segmentDocIds = new int[0];
+        this.segmentCount = new ByteArrayOutputStream();
+        this.headers = new ByteArrayOutputStream();
+        this.segments = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(impactIndexFile);
+        header.writeInt(ImpactIndex.MAGIC);
+        header.writeInt(ImpactIndex.VERSION);
+        header.writeDouble(maxImpactScore);
+    }
+
+    /**
+     * Writes the postings of a term grouped by impact, with a counting sort over the impact levels that keeps the
+     * docIDs of a segment increasing.
+     */
+    public void add(String term, TermPostings postings, double idf, DocumentTable documentTable) throws IOException {
+        if (idf <= 0) {
+            return;
+        }
+        int size = postings.size();
+        if (impacts.length < size) {
+            impacts = new int[Math.max(size, impacts.length * 2)];
+            segmentDocIds = new int[impacts.length];
+        }
+        Arrays.fill(segmentStarts, 0);
+        for (int i = 0; i < size; i++) {
+            double score = idf * BM25.tfNormalization(postings.getFrequency(i),
+                    documentTable.getNorm(postings.getDocId(i)));
+            impacts[i] = ImpactIndex.impact(score, maxImpactScore);
+            // segments are laid out from the highest impact down
+            segmentStarts[ImpactIndex.IMPACT_LEVELS - impacts[i] + 1]++;
+        }
+        for (int level = 1; level < segmentStarts.length; level++) {
+            segmentStarts[level] += segmentStarts[level - 1];
+        }
+        for (int i = 0; i < size; i++) {
+            segmentDocIds[segmentStarts[ImpactIndex.IMPACT_LEVELS - impacts[i]]++] = postings.getDocId(i);
+        }
+
+        segmentCount.reset();
+        headers.reset();
+        segments.reset();
+        int totalSegments = 0, maxImpact = 0;
+        int start = 0;
+        for (int level = 0; level <= ImpactIndex.IMPACT_LEVELS; level++) {
+            int end = segmentStarts[level];
+            if (end == start) {
+                continue;
+            }
+            int segmentStart = segments.size();
+            int lastDocId = 0;
+            for (int i = start; i < end; i++) {
+                VarByte.encode(segmentDocIds[i] - lastDocId, segments);
+                lastDocId = segmentDocIds[i];
+            }
+            maxImpact = Math.max(maxImpact, ImpactIndex.IMPACT_LEVELS - level);
+            VarByte.encode(ImpactIndex.IMPACT_LEVELS - level, headers);
+            VarByte.encode(end - start, headers);
+            VarByte.encode(segments.size() - segmentStart, headers);
+            totalSegments++;
+            start = end;
+        }
+        VarByte.encode(totalSegments, segmentCount);
+        int totalBytesForTerm = segmentCount.size() + headers.size() + segments.size();
+        segmentCount.writeTo(impactIndexFile);
+        headers.writeTo(impactIndexFile);
+        segments.writeTo(impactIndexFile);
+        lexicon.add(term, totalBytes, totalBytesForTerm, size,
+                maxImpact * maxImpactScore / ImpactIndex.IMPACT_LEVELS);
+        totalBytes += totalBytesForTerm;
+    }
+
+    public void finish() throws IOException {
+        impactIndexFile.close();
+        lexicon.finish();
+    }
+}
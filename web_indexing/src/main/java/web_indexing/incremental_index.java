@@ -0,0 +1,597 @@
+package web_indexing;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Immutable segment of an incremental index, holding the documents from firstDocId on. Its documents are stored in
+ * the directories of IncrementalIndex.DOCUMENTS_DIRECTORY named by documentGenerations, the generation of a new
+ * segment or the generations of the segments a merged segment was merged from.
+ */
+class Segment {
+    private String name;
+    private Integer firstDocId;
+    private Integer totalDocuments;
+    private List<String> documentGenerations;
+
+    Segment(String name, Integer firstDocId, Integer totalDocuments, List<String> documentGenerations) {
+        this.name = name;
+        this.firstDocId = firstDocId;
+        this.totalDocuments = totalDocuments;
+        this.documentGenerations = documentGenerations;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Integer getFirstDocId() {
+        return firstDocId;
+    }
+
+    Integer getTotalDocuments() {
+        return totalDocuments;
+    }
+
+    List<String> getDocumentGenerations() {
+        return documentGenerations;
+    }
+}
+
+/**
+ * Index that grows by segments instead of being rebuilt. Every addSegment ingests the WET files that no segment holds
+ * yet into a new segment whose docIDs follow the last docID of the index and schedules a merge, which compacts
+ * segments on a background thread with a tiered policy: MERGE_FACTOR neighbouring segments of the same size tier,
+ * tiers growing by MERGE_FACTOR, are merged into one. ShardedQuery.openSegments searches all segments and picks up
+ * the segments published later.
+ *
+ * A segment is a directory of SEGMENTS_DIRECTORY named by its generation, holding the document table, inverted index
+ * and lexicon of its documents with local docIDs starting at 1, and the names of its WET files in wet_files. The
+ * documents of every generation are stored in DOCUMENTS_DIRECTORY and are shared by the segments merged from it. The
+ * manifest lists the name, first docID, number of documents and document generations of every segment in docID
+ * order. Segments are never modified, a new or merged segment is written first and published by replacing the
+ * manifest, so readers see either the old or the new segments, and the directories of a segment that fails before it
+ * is published are deleted. Readers only map the documents of the generations of the manifest, so a segment being
+ * written, or left behind by a crash, is never read. Updates of the manifest are serialized by a lock on the lock
+ * file, merges by a lock on merge.lock. File locks are held by the whole process, so the threads of the process take
+ * a lock of their own first.
+ */
+class IncrementalIndex {
+    public static final String SEGMENTS_DIRECTORY = "./segments";
+    public static final String DOCUMENTS_DIRECTORY = SEGMENTS_DIRECTORY + "/documents";
+    public static final String MANIFEST = "manifest";
+    public static final int MERGE_FACTOR = 4;
+
+    private static final ConcurrentHashMap<String, ReentrantLock> PROCESS_LOCKS = new ConcurrentHashMap();
+
+    private File segmentsDirectory;
+    private long heapBudget;
+    private int workers;
+    private Boolean positions;
+    private Boolean reorderDocIds;
+    private PostingCodec codec;
+    private ExecutorService mergeExecutor;
+    private Future<Boolean> scheduledMerge;
+    private AtomicBoolean scheduledMergeStarted;
+
+    IncrementalIndex(String segmentsDirectoryPath, long heapBudget, int workers) {
+        this.segmentsDirectory = new File(segmentsDirectoryPath);
+        this.segmentsDirectory.mkdirs();
+        this.heapBudget = heapBudget;
+        this.workers = workers;
+        this.positions = false;
+        this.reorderDocIds = false;
+        this.mergeExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "merge");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Encodes the postings of new and merged segments with codec. Without a codec new segments use
+     * PostingCodecs.DEFAULT and merged segments the codec of their first segment.
+     */
+    public void setCodec(PostingCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Writes the positions sidecar of the documents of new segments, see GeneratePostings.setPositions.
+     */
+    public void setPositions(Boolean positions) {
+        this.positions = positions;
+    }
+
+    /**
+     * Numbers the documents of new segments in URL order, see GeneratePostings.setReorderDocIds.
+     */
+    public void setReorderDocIds(Boolean reorderDocIds) {
+        this.reorderDocIds = reorderDocIds;
+    }
+
+    /**
+     * Returns the segments of the manifest, no segments when there is no manifest yet and null when it cannot be
+     * read.
+     */
+    public static List<Segment> readManifest(File segmentsDirectory) {
+        List<Segment> segments = new ArrayList();
+        File manifest = new File(segmentsDirectory, MANIFEST);
+        if (!manifest.exists()) {
+            return segments;
+        }
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(manifest),
+                StandardCharsets.UTF_8))) {
+            String currentLine = null;
+            while ((currentLine = br.readLine()) != null) {
+                String[] segmentValues = currentLine.split(" ");
+                segments.add(new Segment(segmentValues[0], Integer.parseInt(segmentValues[1]),
+                        Integer.parseInt(segmentValues[2]), Arrays.asList(segmentValues[3].split(","))));
+            }
+            return segments;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Unable to read " + manifest + ": " + e);
+        }
+        return null;
+    }
+
+    private void writeManifest(List<Segment> segments) throws IOException {
+        File manifest = new File(segmentsDirectory, MANIFEST);
+        File newManifest = new File(segmentsDirectory, MANIFEST + ".new");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(newManifest), StandardCharsets.UTF_8);
+        for (Segment segment : segments) {
+            writer.write(segment.getName() + " " + segment.getFirstDocId() + " " + segment.getTotalDocuments() + " "
+                    + String.join(",", segment.getDocumentGenerations()) + "\n");
+        }
+        writer.close();
+        Files.move(newManifest.toPath(), manifest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private ReentrantLock processLock(String lockFileName) {
+        String path = new File(segmentsDirectory, lockFileName).getAbsoluteFile().toPath().normalize().toString();
+        return PROCESS_LOCKS.computeIfAbsent(path, key -> new ReentrantLock());
+    }
+
+    private FileLock lock(String lockFileName) throws IOException {
+        ReentrantLock processLock = processLock(lockFileName);
+        processLock.lock();
+        FileChannel channel = null;
+        try {
+            channel = new RandomAccessFile(new File(segmentsDirectory, lockFileName), "rw").getChannel();
+            return channel.lock();
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            processLock.unlock();
+            throw e;
+        }
+    }
+
+    private void unlock(String lockFileName, FileLock lock) throws IOException {
+        try {
+            lock.release();
+            lock.channel().close();
+        } finally {
+            processLock(lockFileName).unlock();
+        }
+    }
+
+    /**
+     * Creates the directory of a new segment, named by the generation following every segment and document
+     * directory.
+     */
+    private File createSegmentDirectory() {
+        int generation = 0;
+        List<String> names = new ArrayList();
+        names.addAll(Arrays.asList(segmentsDirectory.list()));
+        String[] documentDirectories = new File(segmentsDirectory, "documents").list();
+        if (documentDirectories != null) {
+            names.addAll(Arrays.asList(documentDirectories));
+        }
+        for (String name : names) {
+            if (name.matches("[0-9]+")) {
+                generation = Math.max(generation, Integer.parseInt(name));
+            }
+        }
+        File segmentDirectory = new File(segmentsDirectory, String.valueOf(generation + 1));
+        while (!segmentDirectory.mkdir()) {
+            segmentDirectory = new File(segmentsDirectory, String.valueOf(++generation + 1));
+        }
+        return segmentDirectory;
+    }
+
+    private List<String> readWetFiles(Segment segment) throws IOException {
+        return Files.readAllLines(new File(new File(segmentsDirectory, segment.getName()), "wet_files").toPath(),
+                StandardCharsets.UTF_8);
+    }
+
+    private static void writeWetFiles(File segmentDirectory, List<String> wetFiles) throws IOException {
+        Files.write(new File(segmentDirectory, "wet_files").toPath(), wetFiles, StandardCharsets.UTF_8);
+    }
+
+    static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Indexes the WET files of wetFilesPath that no segment holds yet into a new segment, publishes it and schedules a
+     * merge. Returns false when the segment could not be built.
+     */
+    public Boolean addSegment(String wetFilesPath) {
+        try {
+            FileLock lock = lock("lock");
+            try {
+                List<Segment> segments = readManifest(segmentsDirectory);
+                if (segments == null) {
+                    return false;
+                }
+                Set<String> ingestedFiles = new HashSet();
+                for (Segment segment : segments) {
+                    ingestedFiles.addAll(readWetFiles(segment));
+                }
+                List<File> newFiles = new ArrayList();
+                File[] files = new File(wetFilesPath).listFiles();
+                if (files != null) {
+                    Arrays.sort(files);
+                    for (File file : files) {
+                        if (!ingestedFiles.contains(file.getName())) {
+                            newFiles.add(file);
+                        }
+                    }
+                }
+                if (newFiles.isEmpty()) {
+                    System.out.println("No new WET files in " + wetFilesPath);
+                    return true;
+                }
+
+                Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+                int firstDocId = (last == null) ? 1 : last.getFirstDocId() + last.getTotalDocuments();
+                File segmentDirectory = createSegmentDirectory();
+                File documentsDirectory = new File(new File(segmentsDirectory, "documents"),
+                        segmentDirectory.getName());
+                Boolean published = false;
+                try {
+                    Segment segment = createSegment(wetFilesPath, newFiles, segmentDirectory, documentsDirectory,
+                            firstDocId);
+                    if (segment == null) {
+                        return false;
+                    }
+                    segments.add(segment);
+                    writeManifest(segments);
+                    published = true;
+                    System.out.println("Added segment " + segment.getName() + " with " + segment.getTotalDocuments()
+                            + " documents from docID " + firstDocId);
+                } finally {
+                    if (!published) {
+                        deleteDirectory(segmentDirectory);
+                        deleteDirectory(documentsDirectory);
+                    }
+                }
+            } finally {
+                unlock("lock", lock);
+            }
+            scheduleMerge();
+            return true;
+        } catch (IOException e) {
+            System.out.println("Unable to add a segment to " + segmentsDirectory + ": " + e);
+        }
+        return false;
+    }
+
+    /**
+     * Indexes newFiles into segmentDirectory and their documents into documentsDirectory. Returns the segment, or null
+     * when it could not be built.
+     */
+    private Segment createSegment(String wetFilesPath, List<File> newFiles, File segmentDirectory,
+            File documentsDirectory, int firstDocId) throws IOException {
+        String runsPath = new File(segmentDirectory, "runs").getPath();
+        GeneratePostings gp = newGeneratePostings(wetFilesPath, runsPath, documentsDirectory.getPath(),
+                segmentDirectory.getPath());
+        if (!gp.ifDirectoryAndMappingDocumentCreated()) {
+            return null;
+        }
+        gp.setPositions(positions);
+        gp.setReorderDocIds(reorderDocIds);
+        if (!gp.createPostings(newFiles.toArray(new File[newFiles.size()]))) {
+            return null;
+        }
+        InvertedIndex index = new InvertedIndex(runsPath, segmentDirectory + "/document_table.bin",
+                segmentDirectory + "/lexicon.gz", segmentDirectory + "/lexicon.bin",
+                segmentDirectory + "/invertedIndex");
+        if (!index.ifLexiconAndInvertedIndexDocumentCreated()) {
+            return null;
+        }
+        if (codec != null) {
+            index.setCodec(codec);
+        }
+        index.createIndex();
+        deleteDirectory(new File(runsPath));
+        List<String> wetFiles = new ArrayList();
+        for (File file : newFiles) {
+            wetFiles.add(file.getName());
+        }
+        writeWetFiles(segmentDirectory, wetFiles);
+
+        int totalDocuments = new DocumentTable(segmentDirectory + "/document_table.bin").size();
+        return new Segment(segmentDirectory.getName(), firstDocId, totalDocuments,
+                Arrays.asList(documentsDirectory.getName()));
+    }
+
+    /**
+     * Ingestion of the WET files of a new segment, tests replace it to make the ingestion fail.
+     */
+    GeneratePostings newGeneratePostings(String wetFilesPath, String runsPath, String documentsPath,
+            String segmentPath) {
+        return new GeneratePostings(wetFilesPath, runsPath, documentsPath, segmentPath, heapBudget, workers);
+    }
+
+    private static int tier(Segment segment) {
+        int tier = 0;
+        for (long size = MERGE_FACTOR; size <= segment.getTotalDocuments(); size *= MERGE_FACTOR) {
+            tier++;
+        }
+        return tier;
+    }
+
+    /**
+     * Returns the index of the first of MERGE_FACTOR neighbouring segments of the same tier, or -1.
+     */
+    private static int findMerge(List<Segment> segments) {
+        for (int start = 0; start + MERGE_FACTOR <= segments.size(); start++) {
+            int tier = tier(segments.get(start));
+            int end = start + 1;
+            while (end < start + MERGE_FACTOR && tier(segments.get(end)) == tier) {
+                end++;
+            }
+            if (end == start + MERGE_FACTOR) {
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Runs merge on the background merge thread, unless a scheduled merge has not started yet, which reads the
+     * manifest when it starts and so sees the segments published meanwhile. Returns the Future of the merge.
+     */
+    public synchronized Future<Boolean> scheduleMerge() {
+        if (scheduledMerge != null && !scheduledMergeStarted.get()) {
+            return scheduledMerge;
+        }
+        AtomicBoolean started = new AtomicBoolean();
+        scheduledMergeStarted = started;
+        scheduledMerge = mergeExecutor.submit(() -> {
+            started.set(true);
+            return merge();
+        });
+        return scheduledMerge;
+    }
+
+    /**
+     * Waits for the scheduled merges and stops the merge thread.
+     */
+    public void close() {
+        mergeExecutor.shutdown();
+        try {
+            mergeExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Merges segments as long as the merge policy finds segments to merge. Only the publication of a merged segment
+     * takes the lock of the manifest, so segments can be added and searched while a merge runs.
+     */
+    public Boolean merge() {
+        try {
+            FileLock mergeLock = lock("merge.lock");
+            try {
+                return runMergePolicy();
+            } finally {
+                unlock("merge.lock", mergeLock);
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to merge the segments of " + segmentsDirectory + ": " + e);
+        }
+        return false;
+    }
+
+    private Boolean runMergePolicy() throws IOException {
+        while (true) {
+            List<Segment> segments = readManifest(segmentsDirectory);
+            if (segments == null) {
+                return false;
+            }
+            int start = findMerge(segments);
+            if (start < 0) {
+                return true;
+            }
+            List<Segment> mergedSegments = new ArrayList(segments.subList(start, start + MERGE_FACTOR));
+            File segmentDirectory = createSegmentDirectory();
+            Segment merged = null;
+            Boolean published = false;
+            try {
+                merged = mergeSegments(mergedSegments, segmentDirectory);
+                FileLock lock = lock("lock");
+                try {
+                    // segments added meanwhile come after the merged ones, which no one else merges
+                    segments = readManifest(segmentsDirectory);
+                    if (segments == null) {
+                        return false;
+                    }
+                    segments.subList(start, start + MERGE_FACTOR).clear();
+                    segments.add(start, merged);
+                    writeManifest(segments);
+                    published = true;
+                } finally {
+                    unlock("lock", lock);
+                }
+            } finally {
+                if (!published) {
+                    deleteDirectory(segmentDirectory);
+                }
+            }
+            for (Segment segment : mergedSegments) {
+                deleteDirectory(new File(segmentsDirectory, segment.getName()));
+            }
+            System.out.println("Merged " + MERGE_FACTOR + " segments into segment " + merged.getName() + " with "
+                    + merged.getTotalDocuments() + " documents");
+        }
+    }
+
+    /**
+     * Writes the segment holding the documents of the given neighbouring segments. The document tables are
+     * concatenated, which computes the norms with the average length of the merged documents, and the postings of
+     * every term are concatenated in segment order with the docIDs moved by the documents of the segments before.
+     */
+    private Segment mergeSegments(List<Segment> segments, File segmentDirectory) throws IOException {
+        String documentTablePath = segmentDirectory + "/document_table.bin";
+        DocumentTableWriter documentTableWriter = new DocumentTableWriter(documentTablePath);
+        int[] docIdBases = new int[segments.size()];
+        Lexicon[] lexicons = new Lexicon[segments.size()];
+        MappedFile[] invertedIndexes = new MappedFile[segments.size()];
+        PostingCodec[] codecs = new PostingCodec[segments.size()];
+        List<String> wetFiles = new ArrayList();
+        List<String> documentGenerations = new ArrayList();
+        int totalDocuments = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            File directory = new File(segmentsDirectory, segments.get(i).getName());
+            DocumentTable documentTable = new DocumentTable(directory + "/document_table.bin");
+            for (int docId = 1; docId <= documentTable.size(); docId++) {
+                documentTableWriter.add(documentTable.getUrl(docId), documentTable.getLength(docId),
+                        documentTable.getDocumentFileName(docId), documentTable.getOffset(docId),
+                        documentTable.getSize(docId));
+            }
+            docIdBases[i] = totalDocuments;
+            totalDocuments += documentTable.size();
+            lexicons[i] = new Lexicon(directory + "/lexicon.bin");
+            invertedIndexes[i] = new MappedFile(directory + "/invertedIndex");
+            codecs[i] = IndexFormat.readCodec(invertedIndexes[i].slice(0, (int) Math.min(IndexFormat.HEADER_SIZE,
+                    invertedIndexes[i].length())));
+            if (codecs[i] == null) {
+                throw new IOException("Unsupported inverted index format in segment " + segments.get(i).getName());
+            }
+            wetFiles.addAll(readWetFiles(segments.get(i)));
+            documentGenerations.addAll(segments.get(i).getDocumentGenerations());
+        }
+        documentTableWriter.finish();
+
+        DocumentTable documentTable = new DocumentTable(documentTablePath);
+        PostingsWriter postingsWriter = new PostingsWriter(segmentDirectory + "/invertedIndex",
+                segmentDirectory + "/lexicon.bin", documentTable);
+        postingsWriter.setCodec((codec != null) ? codec : codecs[0]);
+        int[] ordinals = new int[segments.size()];
+        byte[][] terms = new byte[segments.size()][];
+        for (int i = 0; i < segments.size(); i++) {
+            terms[i] = (lexicons[i].size() > 0) ? lexicons[i].getTerm(0) : null;
+        }
+        TermPostings postings = new TermPostings();
+        while (true) {
+            byte[] term = null;
+            for (byte[] segmentTerm : terms) {
+                if (segmentTerm != null && (term == null || Lexicon.compareTerms(segmentTerm, term) < 0)) {
+                    term = segmentTerm;
+                }
+            }
+            if (term == null) {
+                break;
+            }
+            postings.clear();
+            for (int i = 0; i < segments.size(); i++) {
+                if (terms[i] == null || Lexicon.compareTerms(terms[i], term) != 0) {
+                    continue;
+                }
+                Posting p = lexicons[i].getPosting(ordinals[i]);
+                CachedPostings segmentPostings = CachedPostings.decode(invertedIndexes[i].slice(p.getOffset(),
+                        p.getSize()), p.getCount(), codecs[i]);
+                for (int j = 0; j < p.getCount(); j++) {
+                    postings.add(docIdBases[i] + segmentPostings.getDocIds()[j], segmentPostings.getFrequencies()[j]);
+                }
+                ordinals[i]++;
+                terms[i] = (ordinals[i] < lexicons[i].size()) ? lexicons[i].getTerm(ordinals[i]) : null;
+            }
+            postingsWriter.add(new String(term, StandardCharsets.UTF_8), postings,
+                    BM25.idf(totalDocuments, postings.size()));
+        }
+        postingsWriter.finish();
+        writeWetFiles(segmentDirectory, wetFiles);
+        return new Segment(segmentDirectory.getName(), segments.get(0).getFirstDocId(), totalDocuments,
+                documentGenerations);
+    }
+
+    /**
+     * With add, the default, indexes the new WET files of ./wet_files into a segment and then merges in the
+     * background, with merge it only merges. Either way it exits once the merge is done. The optional arguments that
+     * follow are the heap budget in MB and the number of ingestion workers, --positions writes the positions sidecar
+     * of the new documents, --reorder-docids numbers the new documents in URL order and --codec name encodes the
+     * postings of new and merged segments with the named PostingCodec.
+     */
+    public static void main(String[] args) {
+        long startTime = System.currentTimeMillis();
+        List<String> arguments = new ArrayList(Arrays.asList(args));
+        Boolean mergeOnly = arguments.remove("merge");
+        arguments.remove("add");
+        Boolean positions = arguments.remove("--positions");
+        Boolean reorderDocIds = arguments.remove("--reorder-docids");
+        PostingCodec codec = null;
+        if (arguments.contains("--codec")) {
+            int codecIndex = arguments.indexOf("--codec");
+            codec = PostingCodecs.forName(arguments.get(codecIndex + 1));
+            arguments.subList(codecIndex, codecIndex + 2).clear();
+            if (codec == null) {
+                System.out.println("Unknown codec, expected one of " + PostingCodecs.names());
+                return;
+            }
+        }
+        long heapBudget = (arguments.size() > 0) ? Long.parseLong(arguments.get(0)) * 1024 * 1024
+                : GeneratePostings.defaultHeapBudget();
+        int workers = (arguments.size() > 1) ? Integer.parseInt(arguments.get(1)) : GeneratePostings.defaultWorkers();
+        IncrementalIndex index = new IncrementalIndex(SEGMENTS_DIRECTORY, heapBudget, workers);
+        index.setPositions(positions);
+        index.setReorderDocIds(reorderDocIds);
+        index.setCodec(codec);
+        if (mergeOnly) {
+            index.scheduleMerge();
+        } else {
+            index.addSegment("./wet_files");
+        }
+        index.close();
+        System.out.println("Total time =" + (System.currentTimeMillis() - startTime) / 60000.0);
+    }
+}
@@ -0,0 +1,71 @@
+package web_indexing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds the whole index in one JVM: GeneratePostings inverts the WET files into sorted runs and InvertedIndex merges
+ * them into the inverted index and the lexicon. The optional arguments are the heap budget for in memory postings in MB
+ * and the number of WET files ingested in parallel. With --impact-index the impact ordered index used by
+ * score-at-a-time queries is written too, with --tier-index the tier index of the best scoring postings that queries
+ * try first is written too, with --shards n the index is split into n shards of docID ranges in ./shards that
+ * ShardedQuery searches, with --positions the positions of the words of every document are written next to the
+ * documents for snippets, with --reorder-docids the documents are numbered in URL order so that the pages of a site get
+ * consecutive docIDs and with --codec name the postings are encoded with the named PostingCodec. The metrics of the
+ * build are written to ./index_metrics.json.
+ */
+class IndexBuilder {
+
+    public static void main(String[] args) {
+        long startTime = System.currentTimeMillis();
+        List<String> arguments = new ArrayList(Arrays.asList(args));
+        Boolean impactIndex = arguments.remove("--impact-index");
+        Boolean tierIndex = arguments.remove("--tier-index");
+        Boolean positions = arguments.remove("--positions");
+        Boolean reorderDocIds = arguments.remove("--reorder-docids");
+        int shards = 1;
+        if (arguments.contains("--shards")) {
+            int shardsIndex = arguments.indexOf("--shards");
+            shards = Integer.parseInt(arguments.get(shardsIndex + 1));
+            arguments.subList(shardsIndex, shardsIndex + 2).clear();
+        }
+        PostingCodec codec = PostingCodecs.DEFAULT;
+        if (arguments.contains("--codec")) {
+            int codecIndex = arguments.indexOf("--codec");
+            codec = PostingCodecs.forName(arguments.get(codecIndex + 1));
+            arguments.subList(codecIndex, codecIndex + 2).clear();
+            if (codec == null) {
+                System.out.println("Unknown codec, expected one of " + PostingCodecs.names());
+                return;
+            }
+        }
+        long heapBudget = (arguments.size() > 0) ? Long.parseLong(arguments.get(0)) * 1024 * 1024
+                : GeneratePostings.defaultHeapBudget();
+        int workers = (arguments.size() > 1) ? Integer.parseInt(arguments.get(1)) : GeneratePostings.defaultWorkers();
+        GeneratePostings gp = new GeneratePostings("./wet_files", "./runs", "./documents", heapBudget, workers);
+        if (!gp.ifDirectoryAndMappingDocumentCreated()) {
+            return;
+        }
+        Metrics metrics = new Metrics();
+        gp.setPositions(positions);
+        gp.setReorderDocIds(reorderDocIds);
+        gp.setMetrics(metrics);
+        if (!gp.createPostings()) {
+            return;
+        }
+        System.out.println("Postings time =" + (System.currentTimeMillis() - startTime) / 60000.0);
+        InvertedIndex index = (shards > 1) ? new InvertedIndex("./runs", "./document_table.bin", "./shards", shards)
+                : new InvertedIndex("./runs", "./document_table.bin", "./lexicon.gz", "./lexicon.bin",
+                        "./invertedIndex");
+        index.setCodec(codec);
+        index.setMetrics(metrics);
+        if (index.ifLexiconAndInvertedIndexDocumentCreated()
+                && (!impactIndex || index.setImpactIndex("./impactIndex", "./impactLexicon.bin"))
+                && (!tierIndex || index.setTierIndex("./tierIndex", "./tierLexicon.bin"))) {
+            index.createIndex();
+            metrics.writeJson("./index_metrics.json");
+        }
+        System.out.println("Total time =" + (System.currentTimeMillis() - startTime) / 60000.0);
+    }
+}
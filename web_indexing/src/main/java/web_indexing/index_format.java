@@ -0,0 +1,53 @@
+package web_indexing;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Header written at the start of the inverted index so that readers can reject files written in another format.
+ * Version 1 was the old ASCII '0'/'1' encoding which had no header at all, version 2 stored every list as all the
+ * docID gaps followed by all the frequencies.
+ *
+ * Since version 3 the postings of a term are split into blocks of BLOCK_SIZE docIDs. The term starts with one
+ * (last docID, block size in bytes, max impact) var-byte triple per block, followed by the blocks. The max impact is
+ * the largest BM25 tf normalization of the block quantized by BM25.quantize, version 3 did not have it. Each block
+ * holds its docID gaps followed by its frequencies, the first gap of a block is relative to the last docID of the
+ * previous block.
+ *
+ * Since version 5 the header ends with the id of the PostingCodec the docID gaps and the frequencies of every block
+ * are encoded with, version 4 indexes are read as VarByteCodec.
+ */
+class IndexFormat {
+    public static final int MAGIC = 0x57494458; // "WIDX"
+    public static final int VERSION = 5;
+    public static final int HEADER_SIZE = 12;
+    public static final int BLOCK_SIZE = 128;
+    private static final int VERSION_WITHOUT_CODEC = 4;
+
+    private IndexFormat() {
+    }
+
+    public static void writeHeader(OutputStream out, PostingCodec codec) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(codec.getId());
+        dos.flush();
+    }
+
+    /**
+     * Returns the codec of the inverted index starting with the header, or null when its format is not supported.
+     */
+    public static PostingCodec readCodec(ByteBuffer header) {
+        if (header.remaining() < 8 || header.getInt() != MAGIC) {
+            return null;
+        }
+        int version = header.getInt();
+        if (version == VERSION_WITHOUT_CODEC) {
+            return PostingCodecs.forId(0);
+        }
+        return (version == VERSION && header.remaining() >= 4) ? PostingCodecs.forId(header.getInt()) : null;
+    }
+}
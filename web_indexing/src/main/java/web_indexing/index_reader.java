@@ -0,0 +1,144 @@
+package web_indexing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Long lived reader over the inverted index and the document store. Every file is memory mapped once when the reader
+ * is created and the postings of a term or the content of a document are served as views on the mappings. Documents
+ * of compressed document stores are served from their decompressed blocks, which are cached. The shards and segments
+ * of a collection each have an inverted index of their own and share one reader of the documents, so the document
+ * files are mapped and their blocks cached once.
+ */
+class IndexReader {
+    private static final long BLOCK_CACHE_BYTES = 32L << 20;
+
+    private MappedFile invertedIndexFile;
+    private HashMap<String, MappedFile> documentFiles;
+    private HashMap<String, DocumentStore> documentStores;
+    private HashMap<String, Positions> positionsFiles;
+    private SegmentedLruCache<Long, byte[]> blockCache;
+
+    IndexReader(String invertedIndexPath, String documentsPath) throws IOException {
+        this(invertedIndexPath, new IndexReader(documentsPath));
+    }
+
+    /**
+     * Reader of the documents of documentsPath only, to be shared by the readers of the inverted indexes.
+     */
+    IndexReader(String documentsPath) {
+        this(documentsPath, (List<String>) null);
+    }
+
+    /**
+     * Reader of the documents of the given subdirectories of documentsPath only, or of all of documentsPath when
+     * subdirectories is null. An incremental index maps the directories of the segments of its manifest, and not the
+     * directory of a segment still being written or of one that failed.
+     */
+    IndexReader(String documentsPath, List<String> subdirectories) {
+        documentFiles = new HashMap();
+        documentStores = new HashMap();
+        positionsFiles = new HashMap();
+        blockCache = new SegmentedLruCache<Long, byte[]>(BLOCK_CACHE_BYTES, block -> block.length);
+        if (subdirectories == null) {
+            mapDocumentFiles(new File(documentsPath));
+        } else {
+            for (String subdirectory : subdirectories) {
+                mapDocumentFiles(new File(documentsPath, subdirectory));
+            }
+        }
+    }
+
+    /**
+     * Reader of the inverted index that serves the documents of the documents reader, which is not modified after it
+     * is created and can be shared by the readers of any number of threads.
+     */
+    IndexReader(String invertedIndexPath, IndexReader documents) throws IOException {
+        invertedIndexFile = new MappedFile(invertedIndexPath);
+        documentFiles = documents.documentFiles;
+        documentStores = documents.documentStores;
+        positionsFiles = documents.positionsFiles;
+        blockCache = documents.blockCache;
+    }
+
+    /**
+     * Maps the document files of the directory and of its subdirectories, an incremental index keeps the documents of
+     * every segment in a directory of its own. Positions sidecars are mapped as the positions of their document file.
+     * A file that cannot be mapped, such as a document store without its trailer, is skipped: its documents cannot be
+     * read but the others can.
+     */
+    private void mapDocumentFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    mapDocumentFiles(file);
+                    continue;
+                }
+                try {
+                    mapDocumentFile(file);
+                } catch (IOException e) {
+                    System.out.println("Skipping " + file + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void mapDocumentFile(File file) throws IOException {
+        String path = file.getPath();
+        if (path.endsWith(PositionsWriter.SUFFIX)) {
+            positionsFiles.put(normalize(path.substring(0, path.length() - PositionsWriter.SUFFIX.length())),
+                    new Positions(path));
+            return;
+        }
+        MappedFile documentFile = new MappedFile(path);
+        if (DocumentStore.isDocumentStore(documentFile)) {
+            documentStores.put(normalize(path), new DocumentStore(documentFile, documentStores.size(), blockCache));
+        } else {
+            documentFiles.put(normalize(path), documentFile);
+        }
+    }
+
+    private static String normalize(String fileName) {
+        return Paths.get(fileName).toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Codec of the postings, null when the inverted index has an unsupported format.
+     */
+    public PostingCodec getCodec() {
+        return IndexFormat.readCodec(invertedIndexFile.slice(0, Math.min(IndexFormat.HEADER_SIZE,
+                (int) invertedIndexFile.length())));
+    }
+
+    public ByteBuffer postings(long offset, int size) {
+        return invertedIndexFile.slice(offset, size);
+    }
+
+    public ByteBuffer document(String documentFileName, long offset, int size) {
+        DocumentStore documentStore = documentStores.get(normalize(documentFileName));
+        if (documentStore != null) {
+            return documentStore.read(offset, size);
+        }
+        MappedFile documentFile = documentFiles.get(normalize(documentFileName));
+        if (documentFile == null) {
+            throw new IllegalArgumentException("Unknown document file " + documentFileName);
+        }
+        return documentFile.slice(offset, size);
+    }
+
+    public SegmentedLruCache<Long, byte[]> getBlockCache() {
+        return blockCache;
+    }
+
+    /**
+     * Returns the positions of the documents of the document file, or null when it has no positions sidecar.
+     */
+    public Positions positions(String documentFileName) {
+        return positionsFiles.get(normalize(documentFileName));
+    }
+}
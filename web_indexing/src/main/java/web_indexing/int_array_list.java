@@ -0,0 +1,51 @@
+package web_indexing;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive ints.
+ */
+class IntArrayList {
+    private int[] values;
+    private int size;
+
+    IntArrayList() {
+        this(16);
+    }
+
+    IntArrayList(int capacity) {
+        values = new int[Math.max(capacity, 1)];
+        size = 0;
+    }
+
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    public int get(int index) {
+        return values[index];
+    }
+
+    public void set(int index, int value) {
+        values[index] = value;
+    }
+
+    public void increment(int index) {
+        values[index]++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -1,43 +1,129 @@
 package web_indexing;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.zip.GZIPInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.zip.GZIPOutputStream;
 
+/**
+ * Merges the sorted runs of GeneratePostings into the inverted index. The index is either written whole, with the text
+ * lexicon next to the binary one, or split into shards of consecutive docID ranges. A shard is a directory holding its
+ * own invertedIndex and lexicon.bin, and its impact and tier indexes when asked for, all shards share the document
+ * table of the collection. The score bounds of every shard are computed with the idf of the whole collection, which
+ * is what Query scores a shard with.
+ */
 class InvertedIndex {
     private GZIPOutputStream lexiconFile;
-    private FileOutputStream invertedIndexFile;
-    private GZIPInputStream sortedTermsFile;
+    private PostingsWriter[] shards;
+    private File[] shardDirectories;
+    private int[] shardFirstDocIds;
+    private TermPostings shardPostings;
+    private File runsDirectory;
+    private File[] runFiles;
+    private int[] runDocIdBases;
+    private int[] newDocIds;
+    private DocumentTable documentTable;
+    private Metrics metrics;
 
-    InvertedIndex(String sortedTermsFilePath, String lexiconFilePath, String invertedIndexPath) {
+    InvertedIndex(String runsDirectoryPath, String documentTablePath, String lexiconFilePath,
+            String binaryLexiconFilePath, String invertedIndexPath) {
+        this.metrics = new Metrics();
+        this.documentTable = openDocumentTable(documentTablePath);
         this.lexiconFile = createGzipFile(lexiconFilePath);
-        this.invertedIndexFile = createFile(invertedIndexPath);
-        this.sortedTermsFile = openTermsFile(sortedTermsFilePath);
+        this.shards = new PostingsWriter[] {createPostingsWriter(invertedIndexPath, binaryLexiconFilePath)};
+        this.shardFirstDocIds = new int[] {1, Integer.MAX_VALUE};
+        this.runsDirectory = new File(runsDirectoryPath);
+        readRunManifest();
     }
 
-    private FileOutputStream createFile(String fileName) {
+    /**
+     * Splits the index into the given number of shards, shard i is written to the directory i of shardsDirectoryPath.
+     */
+    InvertedIndex(String runsDirectoryPath, String documentTablePath, String shardsDirectoryPath, int shards) {
+        this.metrics = new Metrics();
+        this.documentTable = openDocumentTable(documentTablePath);
+        this.shards = new PostingsWriter[shards];
+        this.shardDirectories = new File[shards];
+        this.shardFirstDocIds = new int[shards + 1];
+        this.shardPostings = new TermPostings();
+        for (int i = 0; i < shards; i++) {
+            shardDirectories[i] = new File(shardsDirectoryPath, String.valueOf(i));
+            shardDirectories[i].mkdirs();
+            this.shards[i] = createPostingsWriter(new File(shardDirectories[i], "invertedIndex").getPath(),
+                    new File(shardDirectories[i], "lexicon.bin").getPath());
+            if (documentTable != null) {
+                shardFirstDocIds[i] = 1 + (int) ((long) i * documentTable.size() / shards);
+            }
+        }
+        this.shardFirstDocIds[shards] = Integer.MAX_VALUE;
+        this.runsDirectory = new File(runsDirectoryPath);
+        readRunManifest();
+    }
+
+    private PostingsWriter createPostingsWriter(String invertedIndexPath, String binaryLexiconFilePath) {
         try {
-            return new FileOutputStream(fileName);
-        } catch (FileNotFoundException e) {
-            System.out.println("Unable to read file");
+            return new PostingsWriter(invertedIndexPath, binaryLexiconFilePath, documentTable);
+        } catch (IOException e) {
+            System.out.println("Unable to create " + invertedIndexPath + " and " + binaryLexiconFilePath);
         }
         return null;
     }
 
-    private GZIPInputStream openTermsFile(String fileName) {
+    /**
+     * Reads the run files in docID order and the docID base of each one from the manifest written by
+     * GeneratePostings.
+     */
+    private void readRunManifest() {
         try {
-            return new GZIPInputStream(new FileInputStream(fileName));
+            BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(
+                    new File(runsDirectory, PostingsInverter.MANIFEST))));
+            ArrayList<File> files = new ArrayList();
+            IntArrayList docIdBases = new IntArrayList();
+            String currentLine = null;
+            while ((currentLine = br.readLine()) != null) {
+                String[] runValues = currentLine.split(" ");
+                files.add(new File(runsDirectory, runValues[0]));
+                docIdBases.add(Integer.parseInt(runValues[1]));
+            }
+            br.close();
+            runFiles = files.toArray(new File[files.size()]);
+            runDocIdBases = docIdBases.toArray();
         } catch (IOException e) {
-            System.out.println("Unable to create " + fileName);
+            System.out.println("Unable to read the run manifest in " + runsDirectory);
+            return;
+        }
+        File docIdOrder = new File(runsDirectory, GeneratePostings.DOC_ID_ORDER);
+        if (docIdOrder.exists()) {
+            readDocIdOrder(docIdOrder);
+        }
+    }
+
+    /**
+     * Reads the new docID of every document when GeneratePostings numbered them in URL order, newDocIds[d] is the new
+     * docID of the document d of the runs.
+     */
+    private void readDocIdOrder(File docIdOrder) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(docIdOrder)));
+            newDocIds = new int[in.readInt() + 1];
+            for (int d = 1; d < newDocIds.length; d++) {
+                newDocIds[d] = in.readInt();
+            }
+            in.close();
+        } catch (IOException e) {
+            System.out.println("Unable to read " + docIdOrder);
+            runFiles = null;
         }
-        return null;
     }
 
     private GZIPOutputStream createGzipFile(String fileName) {
@@ -49,89 +135,212 @@ class InvertedIndex {
         return null;
     }
 
-    public Boolean ifLexiconAndInvertedIndexDocumentCreated() {
-        return lexiconFile != null && invertedIndexFile != null && sortedTermsFile != null;
-    }
-
-    public String findVarByte(Integer number) {
-        String binaryValue = Integer.toBinaryString(number);
-        StringBuffer sb = new StringBuffer();
-        int counter = 7;
-        Boolean lastBit = false;
-        for (int i = binaryValue.length() - 1; i >= 0; i--) {
-            Character bit = binaryValue.charAt(i);
-            if (counter == 0) {
-                String lastBitValue = lastBit ? "0" : "1";
-                lastBit = true;
-                sb.append(lastBitValue + bit);
-                counter = 6;
-            } else {
-                sb.append(bit);
-                counter--;
+    /**
+     * Records the merge metrics in metrics, which may be shared with the other steps of an index build: the time to
+     * merge and write every term, the time of the whole merge, the terms and postings written and the size of the
+     * encoded postings.
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Encodes the postings of every shard with codec instead of PostingCodecs.DEFAULT.
+     */
+    public void setCodec(PostingCodec codec) {
+        for (PostingsWriter shard : shards) {
+            if (shard != null) {
+                shard.setCodec(codec);
+            }
+        }
+    }
+
+    /**
+     * Also writes the impact ordered index and its lexicon during createIndex, for score-at-a-time queries. The files
+     * of a sharded index get the names of the given paths in every shard directory.
+     */
+    public Boolean setImpactIndex(String impactIndexPath, String impactLexiconPath) {
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                if (shardDirectories == null) {
+                    shards[i].setImpactIndex(impactIndexPath, impactLexiconPath);
+                } else {
+                    shards[i].setImpactIndex(new File(shardDirectories[i], new File(impactIndexPath).getName())
+                            .getPath(), new File(shardDirectories[i], new File(impactLexiconPath).getName()).getPath());
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            System.out.println("Unable to create " + impactIndexPath);
+        }
+        return false;
+    }
+
+    /**
+     * Also writes the tier index of the best scoring postings of every term and its lexicon during createIndex, see
+     * TierIndex. The files of a sharded index get the names of the given paths in every shard directory.
+     */
+    public Boolean setTierIndex(String tierIndexPath, String tierLexiconPath) {
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                if (shardDirectories == null) {
+                    shards[i].setTierIndex(tierIndexPath, tierLexiconPath);
+                } else {
+                    shards[i].setTierIndex(new File(shardDirectories[i], new File(tierIndexPath).getName())
+                            .getPath(), new File(shardDirectories[i], new File(tierLexiconPath).getName()).getPath());
+                }
             }
+            return true;
+        } catch (IOException e) {
+            System.out.println("Unable to create " + tierIndexPath);
         }
-        while (counter > 0) {
-            sb.append("0");
-            counter--;
+        return false;
+    }
+
+    /**
+     * Opens the document norms and collection statistics that BM25 needs from the document table that Query reads,
+     * so that the score bounds written to the index hold at query time.
+     */
+    private DocumentTable openDocumentTable(String fileName) {
+        try {
+            return new DocumentTable(fileName);
+        } catch (IOException e) {
+            System.out.println("Unable to read " + fileName);
+        }
+        return null;
+    }
+
+    public Boolean ifLexiconAndInvertedIndexDocumentCreated() {
+        for (PostingsWriter shard : shards) {
+            if (shard == null) {
+                return false;
+            }
         }
-        if (number <= 127) {
-            sb.append("1");
-        } else {
-            sb.append("0");
+        return (lexiconFile != null || shardDirectories != null) && runFiles != null && documentTable != null;
+    }
+
+    /**
+     * Writes the postings of a term to the shards of their docIDs, shards without postings of the term get no entry.
+     * Returns the size of the postings written.
+     */
+    private long writeShardPostings(String term, TermPostings postings, double idf) throws IOException {
+        long size = 0;
+        int i = 0;
+        for (int shard = 0; shard < shards.length; shard++) {
+            shardPostings.clear();
+            while (i < postings.size() && postings.getDocId(i) < shardFirstDocIds[shard + 1]) {
+                shardPostings.add(postings.getDocId(i), postings.getFrequency(i));
+                i++;
+            }
+            if (shardPostings.size() > 0) {
+                size += shards[shard].add(term, shardPostings, idf).getSize();
+            }
         }
-        return sb.reverse().toString();
+        return size;
     }
 
+    /**
+     * Merges the sorted runs into the final index and lexicon. The runs of a term are concatenated in run order, which
+     * keeps its docIDs increasing. When the documents were numbered in URL order the postings of a term are then
+     * renumbered and sorted by their new docIDs.
+     */
     public void createIndex() {
+        long startTime = System.nanoTime();
+        LatencyHistogram termTime = metrics.histogram("merge.term");
+        LongAdder terms = metrics.counter("merge.terms");
+        LongAdder totalPostings = metrics.counter("merge.postings");
+        LongAdder postingsBytes = metrics.counter("merge.postingsBytes");
         try {
-            BufferedReader br = new BufferedReader(new InputStreamReader(sortedTermsFile));
-            String previousTerm = null, currentTerm = null;
-            TreeMap<Integer, Integer> docIdsToFreqMapping = new TreeMap();
-            Integer totalBytes = 0;
-            while ((currentTerm = br.readLine()) != null) {
-                String[] posting = currentTerm.split(" ");
-                if (posting[0].equals(previousTerm) || previousTerm == null) {
-                    docIdsToFreqMapping.put(Integer.parseInt(posting[1]), Integer.parseInt(posting[2]));
+            PriorityQueue<RunReader> runs = new PriorityQueue();
+            for (int i = 0; i < runFiles.length; i++) {
+                RunReader run = new RunReader(runFiles[i], i, runDocIdBases[i]);
+                if (run.next()) {
+                    runs.add(run);
                 } else {
-                    // StringBuffer index = new StringBuffer();
-                    StringBuffer docIdsVarByte = new StringBuffer();
-                    StringBuffer frequenciesVarByte = new StringBuffer();
-                    Integer lastDocId = null;
-                    for (Map.Entry<Integer, Integer> entry : docIdsToFreqMapping.entrySet()) {
-                        Integer currentDocId = entry.getKey();
-                        Integer nextDocId = (lastDocId != null) ? currentDocId - lastDocId : currentDocId;
-                        docIdsVarByte.append(findVarByte(nextDocId));
-                        frequenciesVarByte.append(findVarByte(entry.getValue()));
-                        lastDocId = currentDocId;
+                    run.close();
+                }
+            }
+            TermPostings postings = new TermPostings();
+            while (!runs.isEmpty()) {
+                long termStartTime = System.nanoTime();
+                String term = runs.peek().getTerm();
+                postings.clear();
+                while (!runs.isEmpty() && runs.peek().getTerm().equals(term)) {
+                    RunReader run = runs.poll();
+                    run.readPostings(postings);
+                    if (run.next()) {
+                        runs.add(run);
+                    } else {
+                        run.close();
                     }
-                    docIdsVarByte.append(frequenciesVarByte);
-                    // System.out.println("term =======" + posting[0]);
-                    byte[] bytesForTerm = docIdsVarByte.toString().getBytes();
-                    Integer totalBytesForTerm = bytesForTerm.length;
-                    invertedIndexFile.write(bytesForTerm);
-                    lexiconFile.write((previousTerm + " " + (totalBytes + 1) + " " + totalBytesForTerm + " "
-                            + docIdsToFreqMapping.size() + " \n").getBytes());
-                    docIdsToFreqMapping.clear();
-                    docIdsToFreqMapping.put(Integer.parseInt(posting[1]), Integer.parseInt(posting[2]));
-                    totalBytes += totalBytesForTerm;
                 }
-                previousTerm = posting[0];
+                if (newDocIds != null) {
+                    postings.renumber(newDocIds);
+                }
+                double idf = BM25.idf(documentTable.size(), postings.size());
+                if (shardDirectories != null) {
+                    postingsBytes.add(writeShardPostings(term, postings, idf));
+                } else {
+                    Posting p = shards[0].add(term, postings, idf);
+                    postingsBytes.add(p.getSize());
+                    lexiconFile.write((term + " " + (p.getOffset() + 1) + " " + p.getSize() + " " + p.getCount()
+                            + " " + p.getMaxScore() + " \n").getBytes());
+                }
+                terms.increment();
+                totalPostings.add(postings.size());
+                termTime.record(System.nanoTime() - termStartTime);
+            }
+            for (PostingsWriter shard : shards) {
+                shard.finish();
+            }
+            if (lexiconFile != null) {
+                lexiconFile.finish();
+                lexiconFile.close();
             }
-            sortedTermsFile.close();
-            invertedIndexFile.close();
-            lexiconFile.finish();
-            lexiconFile.close();
+            for (File runFile : runFiles) {
+                runFile.delete();
+            }
+            new File(runsDirectory, PostingsInverter.MANIFEST).delete();
+            new File(runsDirectory, GeneratePostings.DOC_ID_ORDER).delete();
         } catch (IOException e) {
             System.out.println("Error while reading the input" + e);
         }
+        metrics.histogram("merge.total").record(System.nanoTime() - startTime);
     }
 
+    /**
+     * With --shards n the index is split into n shards in ./shards, with --impact-index the impact ordered index is
+     * written too, with --tier-index the tier index of the best scoring postings too, with --codec name the postings
+     * are encoded with the named PostingCodec.
+     */
     public static void main(String[] args) {
         long startTime = System.currentTimeMillis();
-        InvertedIndex index = new InvertedIndex("./sorted.gz", "./lexicon.gz", "./invertedIndex");
-        if (index.ifLexiconAndInvertedIndexDocumentCreated())
+        List<String> arguments = Arrays.asList(args);
+        int shards = arguments.contains("--shards") ? Integer.parseInt(arguments.get(arguments.indexOf("--shards") + 1))
+                : 1;
+        InvertedIndex index = (shards > 1) ? new InvertedIndex("./runs", "./document_table.bin", "./shards", shards)
+                : new InvertedIndex("./runs", "./document_table.bin", "./lexicon.gz", "./lexicon.bin",
+                        "./invertedIndex");
+        Boolean impactIndex = arguments.contains("--impact-index");
+        Boolean tierIndex = arguments.contains("--tier-index");
+        PostingCodec codec = arguments.contains("--codec")
+                ? PostingCodecs.forName(arguments.get(arguments.indexOf("--codec") + 1)) : PostingCodecs.DEFAULT;
+        if (codec == null) {
+            System.out.println("Unknown codec, expected one of " + PostingCodecs.names());
+            return;
+        }
+        index.setCodec(codec);
+        if (index.ifLexiconAndInvertedIndexDocumentCreated()
+                && (!impactIndex || index.setImpactIndex("./impactIndex", "./impactLexicon.bin"))
+                && (!tierIndex || index.setTierIndex("./tierIndex", "./tierLexicon.bin"))) {
             index.createIndex();
+            index.getMetrics().writeJson("./merge_metrics.json");
+        }
         System.out.println("Total time =" + (System.currentTimeMillis() - startTime) / 60000.0);
     }
 
-}
\ No newline at end of file
+}
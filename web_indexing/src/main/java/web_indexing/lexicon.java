@@ -0,0 +1,282 @@
+package web_indexing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Binary lexicon written next to lexicon.gz so that Query can memory map it instead of parsing the text lexicon into
+ * a HashMap.
+ *
+ * The file starts with MAGIC, VERSION, the number of terms, the number of blocks, the position of the dictionary and
+ * the position of the block table. A fixed width entry of ENTRY_SIZE bytes per term follows, in term order, holding
+ * the postings offset, the postings size in bytes, the posting count and the max score. The dictionary holds the
+ * sorted terms front coded in blocks of TERMS_PER_BLOCK, every term is the var-byte length of the prefix it shares
+ * with the previous term of its block, the var-byte length of the rest and the rest of its UTF-8 bytes. The first term
+ * of a block shares nothing so that a block can be decoded on its own. The block table holds the position of every
+ * block as a long.
+ */
+class Lexicon {
+    public static final int MAGIC = 0x574C4558; // "WLEX"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int ENTRY_SIZE = 24;
+    public static final int TERMS_PER_BLOCK = 16;
+
+    private MappedFile lexiconFile;
+    private int totalTerms;
+    private int totalBlocks;
+    private long blockTablePosition;
+
+    Lexicon(String fileName) throws IOException {
+        lexiconFile = new MappedFile(fileName);
+        if (lexiconFile.length() < HEADER_SIZE) {
+            throw new IOException(fileName + " is not a lexicon");
+        }
+        ByteBuffer header = lexiconFile.slice(0, HEADER_SIZE);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Unsupported lexicon format in " + fileName);
+        }
+        totalTerms = header.getInt();
+        totalBlocks = header.getInt();
+        // the dictionary position is only needed by tools, the block table holds absolute positions
+        header.getLong();
+        blockTablePosition = header.getLong();
+    }
+
+    public int size() {
+        return totalTerms;
+    }
+
+    private ByteBuffer block(int block) {
+        long start = lexiconFile.slice(blockTablePosition + 8L * block, 8).getLong();
+        long end = (block + 1 < totalBlocks) ? lexiconFile.slice(blockTablePosition + 8L * (block + 1), 8).getLong()
+                : blockTablePosition;
+        return lexiconFile.slice(start, (int) (end - start));
+    }
+
+    /**
+     * Compares the first term of a block with key as unsigned bytes.
+     */
+    private static int compareFirstTerm(ByteBuffer block, byte[] key) {
+        VarByte.decode(block);
+        int length = VarByte.decode(block);
+        for (int i = 0; i < Math.min(length, key.length); i++) {
+            int order = (block.get() & 0xFF) - (key[i] & 0xFF);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return length - key.length;
+    }
+
+    /**
+     * Returns the ordinal of the term or -1 when it is not in the lexicon.
+     */
+    private int find(byte[] key) {
+        // last block whose first term is not greater than the key
+        int low = 0, high = totalBlocks - 1, found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int order = compareFirstTerm(block(middle), key);
+            if (order == 0) {
+                return middle * TERMS_PER_BLOCK;
+            } else if (order < 0) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (found < 0) {
+            return -1;
+        }
+        ByteBuffer block = block(found);
+        byte[] term = new byte[64];
+        int termsInBlock = Math.min(TERMS_PER_BLOCK, totalTerms - found * TERMS_PER_BLOCK);
+        for (int i = 0; i < termsInBlock; i++) {
+            int prefix = VarByte.decode(block);
+            int suffix = VarByte.decode(block);
+            if (prefix + suffix > term.length) {
+                term = Arrays.copyOf(term, Math.max(term.length * 2, prefix + suffix));
+            }
+            block.get(term, prefix, suffix);
+            if (prefix + suffix == key.length && equals(term, key)) {
+                return found * TERMS_PER_BLOCK + i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean equals(byte[] term, byte[] key) {
+        for (int i = 0; i < key.length; i++) {
+            if (term[i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the postings location of the term or null when it is not in the lexicon.
+     */
+    public Posting get(String term) {
+        int ordinal = find(term.getBytes(StandardCharsets.UTF_8));
+        if (ordinal < 0) {
+            return null;
+        }
+        return getPosting(ordinal);
+    }
+
+    /**
+     * Returns the postings location of the term with the given ordinal, terms are numbered from 0 in sorted order.
+     */
+    public Posting getPosting(int ordinal) {
+        ByteBuffer entry = lexiconFile.slice(HEADER_SIZE + (long) ENTRY_SIZE * ordinal, ENTRY_SIZE);
+        long offset = entry.getLong();
+        int size = entry.getInt();
+        int count = entry.getInt();
+        double maxScore = entry.getDouble();
+        return new Posting(offset, size, count, maxScore);
+    }
+
+    /**
+     * Returns the UTF-8 bytes of the term with the given ordinal, for walking the terms in order.
+     */
+    public byte[] getTerm(int ordinal) {
+        ByteBuffer block = block(ordinal / TERMS_PER_BLOCK);
+        byte[] term = new byte[64];
+        int length = 0;
+        for (int i = 0; i <= ordinal % TERMS_PER_BLOCK; i++) {
+            int prefix = VarByte.decode(block);
+            int suffix = VarByte.decode(block);
+            if (prefix + suffix > term.length) {
+                term = Arrays.copyOf(term, Math.max(term.length * 2, prefix + suffix));
+            }
+            block.get(term, prefix, suffix);
+            length = prefix + suffix;
+        }
+        return Arrays.copyOf(term, length);
+    }
+
+    /**
+     * Compares two terms as unsigned bytes, the order of the lexicon.
+     */
+    public static int compareTerms(byte[] a, byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int order = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return a.length - b.length;
+    }
+}
+
+/**
+ * Writes the binary lexicon described in Lexicon. Terms must be added in sorted order. The entries are written to the
+ * lexicon file as they come while the dictionary goes to a temporary file that is appended when the lexicon is
+ * finished.
+ */
+class LexiconWriter {
+    private String fileName;
+    private File dictionaryFile;
+    private OutputStream entries;
+    private DataOutputStream entry;
+    private OutputStream dictionary;
+    private long dictionarySize;
+    private ByteArrayOutputStream blockPositions;
+    private DataOutputStream blockTable;
+    private ByteArrayOutputStream termBytes;
+    private byte[] previousTerm;
+    private int totalTerms;
+
+    LexiconWriter(String fileName) throws IOException {
+        this.fileName = fileName;
+        this.dictionaryFile = new File(fileName + ".dictionary");
+        this.entries = new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16);
+        this.entry = new DataOutputStream(entries);
+        this.dictionary = new BufferedOutputStream(new FileOutputStream(dictionaryFile), 1 << 16);
+        this.dictionarySize = 0;
+        this.blockPositions = new ByteArrayOutputStream();
+        this.blockTable = new DataOutputStream(blockPositions);
+        this.termBytes = new ByteArrayOutputStream();
+        this.previousTerm = new byte[0];
+        this.totalTerms = 0;
+        entries.write(new byte[Lexicon.HEADER_SIZE]);
+    }
+
+    public void add(String term, long offset, int size, int count, double maxScore) throws IOException {
+        byte[] utf8 = term.getBytes(StandardCharsets.UTF_8);
+        int prefix = 0;
+        if (totalTerms % Lexicon.TERMS_PER_BLOCK == 0) {
+            blockTable.writeLong(dictionarySize);
+        } else {
+            int maxPrefix = Math.min(utf8.length, previousTerm.length);
+            while (prefix < maxPrefix && utf8[prefix] == previousTerm[prefix]) {
+                prefix++;
+            }
+        }
+        termBytes.reset();
+        VarByte.encode(prefix, termBytes);
+        VarByte.encode(utf8.length - prefix, termBytes);
+        termBytes.write(utf8, prefix, utf8.length - prefix);
+        termBytes.writeTo(dictionary);
+        dictionarySize += termBytes.size();
+        previousTerm = utf8;
+
+        entry.writeLong(offset);
+        entry.writeInt(size);
+        entry.writeInt(count);
+        entry.writeDouble(maxScore);
+        totalTerms++;
+    }
+
+    /**
+     * Appends the dictionary and the block table and writes the header.
+     */
+    public void finish() throws IOException {
+        dictionary.close();
+        long dictionaryPosition = Lexicon.HEADER_SIZE + (long) Lexicon.ENTRY_SIZE * totalTerms;
+        InputStream in = new BufferedInputStream(new FileInputStream(dictionaryFile), 1 << 16);
+        try {
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                entries.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        // the block table stores positions relative to the dictionary, make them absolute
+        ByteBuffer relativePositions = ByteBuffer.wrap(blockPositions.toByteArray());
+        while (relativePositions.hasRemaining()) {
+            entry.writeLong(dictionaryPosition + relativePositions.getLong());
+        }
+        entry.close();
+        dictionaryFile.delete();
+
+        RandomAccessFile lexiconFile = new RandomAccessFile(fileName, "rw");
+        try {
+            lexiconFile.writeInt(Lexicon.MAGIC);
+            lexiconFile.writeInt(Lexicon.VERSION);
+            lexiconFile.writeInt(totalTerms);
+            lexiconFile.writeInt((totalTerms + Lexicon.TERMS_PER_BLOCK - 1) / Lexicon.TERMS_PER_BLOCK);
+            lexiconFile.writeLong(dictionaryPosition);
+            lexiconFile.writeLong(dictionaryPosition + dictionarySize);
+        } finally {
+            lexiconFile.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package web_indexing;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only memory mapping of a whole file. A single MappedByteBuffer cannot be larger than 2 GB so bigger files are
+ * mapped as several segments.
+ */
+class MappedFile {
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private MappedByteBuffer[] segments;
+    private long length;
+
+    MappedFile(String fileName) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            length = channel.size();
+            segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Returns a view of size bytes starting at offset. The view shares the mapped memory unless it crosses a segment
+     * boundary, in which case the bytes are copied.
+     */
+    public ByteBuffer slice(long offset, int size) {
+        if (offset < 0 || size < 0 || offset + size > length) {
+            throw new IndexOutOfBoundsException("offset " + offset + " size " + size + " length " + length);
+        }
+        if (size == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        int segment = (int) (offset / SEGMENT_SIZE);
+        int position = (int) (offset % SEGMENT_SIZE);
+        if (position + size <= segments[segment].capacity()) {
+            ByteBuffer view = segments[segment].duplicate();
+            view.position(position);
+            view.limit(position + size);
+            return view.slice();
+        }
+        ByteBuffer copy = ByteBuffer.allocate(size);
+        while (copy.hasRemaining()) {
+            ByteBuffer view = segments[segment].duplicate();
+            view.position(position);
+            view.limit(Math.min(view.capacity(), position + copy.remaining()));
+            copy.put(view);
+            segment++;
+            position = 0;
+        }
+        copy.flip();
+        return copy;
+    }
+
+    /**
+     * Reads the big endian int at offset without creating a view, reads that cross a segment boundary go through
+     * slice.
+     */
+    public int getInt(long offset) {
+        int segment = (int) (offset / SEGMENT_SIZE);
+        int position = (int) (offset % SEGMENT_SIZE);
+        if (offset >= 0 && segment < segments.length && position + 4 <= segments[segment].capacity()) {
+            return segments[segment].getInt(position);
+        }
+        return slice(offset, 4).getInt();
+    }
+
+    /**
+     * Reads the big endian long at offset, like getInt.
+     */
+    public long getLong(long offset) {
+        int segment = (int) (offset / SEGMENT_SIZE);
+        int position = (int) (offset % SEGMENT_SIZE);
+        if (offset >= 0 && segment < segments.length && position + 8 <= segments[segment].capacity()) {
+            return segments[segment].getLong(position);
+        }
+        return slice(offset, 8).getLong();
+    }
+}
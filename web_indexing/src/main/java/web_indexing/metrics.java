@@ -0,0 +1,155 @@
+package web_indexing;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds with the buckets of HdrHistogram: values are grouped by their highest bit and
+ * every power of 2 is split into SUB_BUCKETS linear buckets, so a percentile is off by less than 1 / SUB_BUCKETS of its
+ * value whatever its magnitude, in a fixed array of counts. Recording is an atomic increment without locks or
+ * allocation, so many threads can record at once. Percentiles read while values are recorded are approximate.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private AtomicLongArray counts;
+    private LongAdder count;
+    private LongAdder sum;
+    private LongAccumulator max;
+
+    LatencyHistogram() {
+        counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+        count = new LongAdder();
+        sum = new LongAdder();
+        max = new LongAccumulator(Math::max, 0);
+    }
+
+    private static int bucket(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Highest value of the bucket.
+     */
+    private static long bucketValue(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return ((long) (bucket - shift * SUB_BUCKETS + 1) << shift) - 1;
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return (n > 0) ? (double) sum.sum() / n : 0;
+    }
+
+    /**
+     * Value below which percentile percent of the recorded values fall, 0 when nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long n = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            n += counts.get(i);
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketValue(i), getMax());
+            }
+        }
+        return 0;
+    }
+
+    public String toJson() {
+        return String.format(Locale.ROOT, "{\"count\":%d,\"meanMicros\":%.3f,\"p50Micros\":%.3f,\"p99Micros\":%.3f,"
+                + "\"p999Micros\":%.3f,\"maxMicros\":%.3f}", getCount(), getMean() / 1000,
+                getPercentile(50) / 1000.0, getPercentile(99) / 1000.0, getPercentile(99.9) / 1000.0,
+                getMax() / 1000.0);
+    }
+}
+
+/**
+ * Latency histograms of the stages and counters of a query engine or of an index build, by name. They are created on
+ * first use, a component looks its histograms and counters up once and keeps them so that recording costs no lookup.
+ */
+class Metrics {
+    private ConcurrentHashMap<String, LatencyHistogram> histograms;
+    private ConcurrentHashMap<String, LongAdder> counters;
+
+    Metrics() {
+        histograms = new ConcurrentHashMap();
+        counters = new ConcurrentHashMap();
+    }
+
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        return (histogram != null) ? histogram : histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    public LongAdder counter(String name) {
+        LongAdder counter = counters.get(name);
+        return (counter != null) ? counter : counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Returns the histograms and the counters sorted by name, as {"histograms":{name:{...}},"counters":{name:n}}.
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{\"histograms\":{");
+        String separator = "";
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(histograms)
+                .entrySet()) {
+            sb.append(separator).append('"').append(entry.getKey()).append("\":").append(entry.getValue().toJson());
+            separator = ",";
+        }
+        sb.append("},\"counters\":{");
+        separator = "";
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<String, LongAdder>(counters).entrySet()) {
+            sb.append(separator).append('"').append(entry.getKey()).append("\":").append(entry.getValue().sum());
+            separator = ",";
+        }
+        return sb.append("}}").toString();
+    }
+
+    public Boolean writeJson(String fileName) {
+        try {
+            OutputStream out = new FileOutputStream(fileName);
+            out.write(toJson().getBytes(StandardCharsets.UTF_8));
+            out.close();
+            return true;
+        } catch (IOException e) {
+            System.out.println("Unable to write " + fileName + ": " + e.getMessage());
+        }
+        return false;
+    }
+}
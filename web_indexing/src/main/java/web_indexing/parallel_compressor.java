@@ -0,0 +1,201 @@
+package web_indexing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the chunks of a stream on the threads of an executor, the way pigz does, and hands them to a writer in
+ * the order they were added. Every chunk is compressed on its own so the chunks can be compressed at once, at most
+ * maxPending of them are in flight and adding one more waits for the oldest and writes it. Without an executor the
+ * chunks are compressed and written on the calling thread.
+ */
+class ParallelCompressor {
+    interface ChunkCompressor {
+        byte[] compress(byte[] data, int length);
+    }
+
+    interface ChunkWriter {
+        void write(byte[] compressed) throws IOException;
+    }
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    private static final ThreadLocal<Deflater> FAST_DEFLATER = ThreadLocal.withInitial(
+            () -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Deflater> RAW_DEFLATER = ThreadLocal.withInitial(
+            () -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+    private ExecutorService executor;
+    private int maxPending;
+    private ChunkCompressor compressor;
+    private ChunkWriter writer;
+    private ArrayDeque<Future<byte[]>> pending;
+
+    ParallelCompressor(ExecutorService executor, int maxPending, ChunkCompressor compressor, ChunkWriter writer) {
+        this.executor = executor;
+        this.maxPending = Math.max(1, maxPending);
+        this.compressor = compressor;
+        this.writer = writer;
+        this.pending = new ArrayDeque();
+    }
+
+    /**
+     * Compresses the first length bytes of data, which must not be changed until the chunk is written.
+     */
+    public void add(final byte[] data, final int length) throws IOException {
+        if (executor == null) {
+            writer.write(compressor.compress(data, length));
+            return;
+        }
+        pending.add(executor.submit(() -> compressor.compress(data, length)));
+        while (pending.size() > maxPending) {
+            writeOldest();
+        }
+    }
+
+    private void writeOldest() throws IOException {
+        Future<byte[]> chunk = pending.poll();
+        try {
+            writer.write(chunk.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to compress chunk", e.getCause());
+        }
+    }
+
+    /**
+     * Waits for the chunks in flight and writes them.
+     */
+    public void finish() throws IOException {
+        while (!pending.isEmpty()) {
+            writeOldest();
+        }
+    }
+
+    /**
+     * Drops the chunks in flight without writing them, after the stream failed.
+     */
+    public void cancel() {
+        for (Future<byte[]> chunk : pending) {
+            chunk.cancel(false);
+        }
+        pending.clear();
+    }
+
+    /**
+     * zlib stream of the chunk at the fastest level, as the blocks of a document store.
+     */
+    static byte[] deflate(byte[] data, int length) {
+        return deflate(FAST_DEFLATER.get(), data, length, 0, 0);
+    }
+
+    /**
+     * Complete gzip member holding the chunk, gzip readers read concatenated members as one stream.
+     */
+    static byte[] gzipMember(byte[] data, int length) {
+        byte[] member = deflate(RAW_DEFLATER.get(), data, length, GZIP_HEADER.length, GZIP_TRAILER_SIZE);
+        System.arraycopy(GZIP_HEADER, 0, member, 0, GZIP_HEADER.length);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        writeIntLE(member, member.length - 8, (int) crc.getValue());
+        writeIntLE(member, member.length - 4, length);
+        return member;
+    }
+
+    private static void writeIntLE(byte[] b, int offset, int value) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >>> 8);
+        b[offset + 2] = (byte) (value >>> 16);
+        b[offset + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * Returns the compressed bytes with room for header bytes before them and trailer bytes after them.
+     */
+    private static byte[] deflate(Deflater deflater, byte[] data, int length, int header, int trailer) {
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        byte[] out = new byte[header + length + length / 1000 + 64 + trailer];
+        int size = header;
+        while (!deflater.finished()) {
+            if (size == out.length - trailer) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            size += deflater.deflate(out, size, out.length - trailer - size);
+        }
+        return Arrays.copyOf(out, size + trailer);
+    }
+}
+
+/**
+ * Gzip output stream cut into chunks of CHUNK_SIZE bytes that are compressed in parallel as independent gzip members,
+ * so the file is read back by GZIPInputStream, gunzip or zcat like one written by GZIPOutputStream.
+ */
+class ParallelGzipOutputStream extends OutputStream {
+    public static final int CHUNK_SIZE = 1 << 17;
+
+    private OutputStream out;
+    private ParallelCompressor compressor;
+    private byte[] chunk;
+    private int chunkSize;
+    private Boolean empty;
+
+    ParallelGzipOutputStream(OutputStream out, ExecutorService executor, int maxPending) {
+        this.out = out;
+        this.compressor = new ParallelCompressor(executor, maxPending, ParallelCompressor::gzipMember, out::write);
+        this.chunk = new byte[CHUNK_SIZE];
+        this.empty = true;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        chunk[chunkSize++] = (byte) b;
+        if (chunkSize == CHUNK_SIZE) {
+            flushChunk();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int offset, int length) throws IOException {
+        while (length > 0) {
+            int size = Math.min(length, CHUNK_SIZE - chunkSize);
+            System.arraycopy(b, offset, chunk, chunkSize, size);
+            chunkSize += size;
+            offset += size;
+            length -= size;
+            if (chunkSize == CHUNK_SIZE) {
+                flushChunk();
+            }
+        }
+    }
+
+    private void flushChunk() throws IOException {
+        compressor.add(chunk, chunkSize);
+        chunk = new byte[CHUNK_SIZE];
+        chunkSize = 0;
+        empty = false;
+    }
+
+    /**
+     * Writes the last chunk, an empty stream is written as one empty member.
+     */
+    @Override
+    public void close() throws IOException {
+        if (chunkSize > 0 || empty) {
+            flushChunk();
+        }
+        compressor.finish();
+        out.close();
+    }
+}
@@ -0,0 +1,189 @@
+package web_indexing;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Writes the positions sidecar of a document file, stored next to it as the document file name followed by SUFFIX.
+ * For every document the byte offsets of its valid tokens within the document are grouped by term. A document block
+ * starts with the number of distinct terms, followed by the String.hashCode of every term in ascending order as ints,
+ * the end of the positions of every term in the block data as ints, and the block data: the var-byte deltas of the
+ * positions of every term. The file ends with the offset of every document in its document file and the offset of its
+ * block as pairs of longs in document order, the number of documents and MAGIC.
+ */
+class PositionsWriter {
+    public static final String SUFFIX = ".pos";
+    public static final int MAGIC = 0x57504F53; // "WPOS"
+
+    private String positionsFileName;
+    private DataOutputStream positionsFile;
+    private ByteArrayOutputStream directory;
+    private DataOutputStream directoryOut;
+    private ByteArrayOutputStream blockData;
+    private long totalBytes;
+    private int totalDocuments;
+
+    PositionsWriter(String documentFileName) throws IOException {
+        this.positionsFileName = documentFileName + SUFFIX;
+        this.positionsFile = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(positionsFileName)));
+        this.directory = new ByteArrayOutputStream();
+        this.directoryOut = new DataOutputStream(directory);
+        this.blockData = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Adds the document stored at documentOffset of the document file. words and wordsCount are the distinct words of
+     * the document and their counts, tokenWordIds and tokenPositions the word id and the byte offset of every valid
+     * token in document order.
+     */
+    public void add(long documentOffset, BytesIntMap words, IntArrayList wordsCount, IntArrayList tokenWordIds,
+            IntArrayList tokenPositions) throws IOException {
+        int distinct = words.size();
+        long[] keys = new long[distinct];
+        int[] starts = new int[distinct + 1];
+        for (int w = 0; w < distinct; w++) {
+            keys[w] = ((long) words.keyHashCode(w) << 32) | w;
+            starts[w + 1] = starts[w] + wordsCount.get(w);
+        }
+        Arrays.sort(keys);
+        int[] cursors = Arrays.copyOf(starts, distinct);
+        int[] positions = new int[tokenWordIds.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[cursors[tokenWordIds.get(i)]++] = tokenPositions.get(i);
+        }
+
+        blockData.reset();
+        int[] ends = new int[distinct];
+        for (int k = 0; k < distinct; k++) {
+            int w = (int) keys[k];
+            int lastPosition = 0;
+            for (int i = starts[w]; i < starts[w + 1]; i++) {
+                VarByte.encode(positions[i] - lastPosition, blockData);
+                lastPosition = positions[i];
+            }
+            ends[k] = blockData.size();
+        }
+        positionsFile.writeInt(distinct);
+        for (int k = 0; k < distinct; k++) {
+            positionsFile.writeInt((int) (keys[k] >> 32));
+        }
+        for (int k = 0; k < distinct; k++) {
+            positionsFile.writeInt(ends[k]);
+        }
+        blockData.writeTo(positionsFile);
+
+        directoryOut.writeLong(documentOffset);
+        directoryOut.writeLong(totalBytes);
+        totalBytes += 4 + 8L * distinct + blockData.size();
+        totalDocuments++;
+    }
+
+    public void finish() throws IOException {
+        directory.writeTo(positionsFile);
+        positionsFile.writeInt(totalDocuments);
+        positionsFile.writeInt(MAGIC);
+        positionsFile.close();
+    }
+
+    /**
+     * Closes the positions file without its directory and deletes it, see DocumentStoreWriter.abort.
+     */
+    public void abort() {
+        try {
+            positionsFile.close();
+        } catch (IOException e) {
+            // the file is deleted anyway
+        }
+        new File(positionsFileName).delete();
+    }
+}
+
+/**
+ * Memory mapped positions sidecar of a document file, see PositionsWriter.
+ */
+class Positions {
+    private MappedFile positionsFile;
+    private long directoryStart;
+    private int totalDocuments;
+
+    Positions(String fileName) throws IOException {
+        positionsFile = new MappedFile(fileName);
+        long length = positionsFile.length();
+        if (length < 8 || positionsFile.getInt(length - 4) != PositionsWriter.MAGIC) {
+            throw new IOException(fileName + " is not a positions file");
+        }
+        totalDocuments = positionsFile.getInt(length - 8);
+        directoryStart = length - 8 - 16L * totalDocuments;
+    }
+
+    /**
+     * Returns the block of the document stored at documentOffset of the document file, or -1 when the document has
+     * no positions.
+     */
+    private long findBlock(long documentOffset) {
+        int low = 0, high = totalDocuments - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long offset = positionsFile.getLong(directoryStart + 16L * middle);
+            if (offset < documentOffset) {
+                low = middle + 1;
+            } else if (offset > documentOffset) {
+                high = middle - 1;
+            } else {
+                return positionsFile.getLong(directoryStart + 16L * middle + 8);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the sorted byte offsets of every word in the document stored at documentOffset, null when the document
+     * has no positions. A word whose hash collides with another term of the document gets the positions of both, which
+     * only moves a snippet.
+     */
+    public int[][] find(long documentOffset, String[] words) {
+        long block = findBlock(documentOffset);
+        if (block < 0) {
+            return null;
+        }
+        int distinct = positionsFile.getInt(block);
+        long hashes = block + 4;
+        long ends = hashes + 4L * distinct;
+        long data = ends + 4L * distinct;
+        int[][] wordPositions = new int[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            int hash = words[i].hashCode();
+            int low = 0, high = distinct;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (positionsFile.getInt(hashes + 4L * middle) < hash) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            IntArrayList positions = new IntArrayList();
+            for (int k = low; k < distinct && positionsFile.getInt(hashes + 4L * k) == hash; k++) {
+                int start = (k > 0) ? positionsFile.getInt(ends + 4L * (k - 1)) : 0;
+                int end = positionsFile.getInt(ends + 4L * k);
+                ByteBuffer buffer = positionsFile.slice(data + start, end - start);
+                int position = 0;
+                while (buffer.hasRemaining()) {
+                    position += VarByte.decode(buffer);
+                    positions.add(position);
+                }
+            }
+            wordPositions[i] = positions.toArray();
+            if (low + 1 < distinct && positionsFile.getInt(hashes + 4L * (low + 1)) == hash) {
+                Arrays.sort(wordPositions[i]);
+            }
+        }
+        return wordPositions;
+    }
+}
@@ -0,0 +1,329 @@
+package web_indexing;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Codec of the docID gaps and the frequencies of a block of postings, at most IndexFormat.BLOCK_SIZE non negative
+ * ints at a time. An index is written with a single codec, its id is stored in the header of the inverted index.
+ * Codecs hold no state and are shared by every thread.
+ */
+interface PostingCodec {
+
+    int getId();
+
+    String getName();
+
+    /**
+     * Appends values[0, count) to out.
+     */
+    void encode(int[] values, int count, ByteArrayOutputStream out);
+
+    /**
+     * Decodes count values from the position of in into values[0, count) and moves the position past them.
+     */
+    void decode(ByteBuffer in, int[] values, int count);
+}
+
+/**
+ * The codecs an index can be written with, looked up by the id stored in the index or by the name given on the
+ * command line.
+ */
+class PostingCodecs {
+    public static final PostingCodec DEFAULT = new VarByteCodec();
+    private static final PostingCodec[] CODECS = {DEFAULT, new StreamVByteCodec(), new Simple8bCodec(),
+            new PForDeltaCodec()};
+
+    private PostingCodecs() {
+    }
+
+    /**
+     * Returns the codec with the id, or null when there is none.
+     */
+    public static PostingCodec forId(int id) {
+        return (id >= 0 && id < CODECS.length) ? CODECS[id] : null;
+    }
+
+    /**
+     * Returns the codec with the name, or null when there is none.
+     */
+    public static PostingCodec forName(String name) {
+        for (PostingCodec codec : CODECS) {
+            if (codec.getName().equals(name)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    public static String names() {
+        StringBuilder names = new StringBuilder();
+        for (PostingCodec codec : CODECS) {
+            names.append((names.length() > 0) ? ", " : "").append(codec.getName());
+        }
+        return names.toString();
+    }
+}
+
+/**
+ * One VarByte number after another, the format of indexes written before codecs existed.
+ */
+class VarByteCodec implements PostingCodec {
+
+    public int getId() {
+        return 0;
+    }
+
+    public String getName() {
+        return "varbyte";
+    }
+
+    public void encode(int[] values, int count, ByteArrayOutputStream out) {
+        for (int i = 0; i < count; i++) {
+            VarByte.encode(values[i], out);
+        }
+    }
+
+    public void decode(ByteBuffer in, int[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            values[i] = VarByte.decode(in);
+        }
+    }
+}
+
+/**
+ * Stream VByte: the 2 bit byte lengths of all the values come first, four to a control byte starting with the low
+ * bits, followed by the values in 1 to 4 little endian bytes. Separating the lengths from the data removes the branch
+ * on every byte of VarByte, a value costs one int read and a mask.
+ */
+class StreamVByteCodec implements PostingCodec {
+    private static final int[] MASKS = {0xFF, 0xFFFF, 0xFFFFFF, 0xFFFFFFFF};
+
+    public int getId() {
+        return 1;
+    }
+
+    public String getName() {
+        return "streamvbyte";
+    }
+
+    public void encode(int[] values, int count, ByteArrayOutputStream out) {
+        byte[] control = new byte[(count + 3) >>> 2];
+        byte[] data = new byte[4 * count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int value = values[i];
+            int code = (value >>> 8 == 0) ? 0 : (value >>> 16 == 0) ? 1 : (value >>> 24 == 0) ? 2 : 3;
+            control[i >>> 2] |= code << ((i & 3) << 1);
+            for (int b = 0; b <= code; b++) {
+                data[size++] = (byte) (value >>> (b << 3));
+            }
+        }
+        out.write(control, 0, control.length);
+        out.write(data, 0, size);
+    }
+
+    public void decode(ByteBuffer in, int[] values, int count) {
+        int control = in.position();
+        int position = control + ((count + 3) >>> 2);
+        // whole ints are read while 4 bytes remain, the length of the value masks the bytes of the next ones
+        int lastIntPosition = in.limit() - 4;
+        for (int i = 0; i < count; i++) {
+            int code = (in.get(control + (i >>> 2)) >>> ((i & 3) << 1)) & 3;
+            if (position <= lastIntPosition) {
+                values[i] = Integer.reverseBytes(in.getInt(position)) & MASKS[code];
+            } else {
+                int value = 0;
+                for (int b = code; b >= 0; b--) {
+                    value = (value << 8) | (in.get(position + b) & 0xFF);
+                }
+                values[i] = value;
+            }
+            position += code + 1;
+        }
+        in.position(position);
+    }
+}
+
+/**
+ * Simple-8b: every 64 bit word holds a 4 bit selector and as many values of the same bit width as fit in the other 60
+ * bits, starting with the low bits. Selectors 0 and 1 hold runs of 240 and 120 values equal to 1, the most common
+ * docID gap and frequency, without any payload bits. The last word of a block may hold fewer values than its
+ * selector, the decoder stops at the count.
+ */
+class Simple8bCodec implements PostingCodec {
+    private static final int[] COUNTS = {240, 120, 60, 30, 20, 15, 12, 10, 8, 7, 6, 5, 4, 3, 2, 1};
+    private static final int[] BITS = {0, 0, 1, 2, 3, 4, 5, 6, 7, 8, 10, 12, 15, 20, 30, 60};
+
+    public int getId() {
+        return 2;
+    }
+
+    public String getName() {
+        return "simple8b";
+    }
+
+    private static boolean fits(int[] values, int from, int n, int bits) {
+        for (int i = from; i < from + n; i++) {
+            if ((bits == 0) ? values[i] != 1 : (values[i] & 0xFFFFFFFFL) >>> bits != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void encode(int[] values, int count, ByteArrayOutputStream out) {
+        int i = 0;
+        while (i < count) {
+            int selector = 0;
+            int n = Math.min(COUNTS[0], count - i);
+            while (!fits(values, i, n, BITS[selector])) {
+                selector++;
+                n = Math.min(COUNTS[selector], count - i);
+            }
+            long word = (long) selector << 60;
+            if (BITS[selector] > 0) {
+                for (int j = 0; j < n; j++) {
+                    word |= (values[i + j] & 0xFFFFFFFFL) << (BITS[selector] * j);
+                }
+            }
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (word >>> shift));
+            }
+            i += n;
+        }
+    }
+
+    public void decode(ByteBuffer in, int[] values, int count) {
+        int i = 0;
+        while (i < count) {
+            long word = in.getLong();
+            int selector = (int) (word >>> 60);
+            int bits = BITS[selector];
+            int n = Math.min(COUNTS[selector], count - i);
+            if (bits == 0) {
+                Arrays.fill(values, i, i + n, 1);
+            } else {
+                long mask = (1L << bits) - 1;
+                for (int j = 0; j < n; j++) {
+                    values[i + j] = (int) ((word >>> (bits * j)) & mask);
+                }
+            }
+            i += n;
+        }
+    }
+}
+
+/**
+ * Patched frame of reference: all the values of a block are packed with the same bit width b, chosen to minimize the
+ * size of the block, and the values that need more bits are exceptions patched in after unpacking. A block starts with
+ * b and the number of exceptions as bytes, followed by the packed values as big endian ints, the position of every
+ * exception as a byte and the high bits of every exception as a VarByte. The frame is 0, the deltas are taken by the
+ * posting list before encoding.
+ */
+class PForDeltaCodec implements PostingCodec {
+
+    public int getId() {
+        return 3;
+    }
+
+    public String getName() {
+        return "pfordelta";
+    }
+
+    private static int bitWidth(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Bit width with the smallest block, exceptions are counted as their position byte and their VarByte high bits.
+     */
+    private static int findBitWidth(int[] values, int count) {
+        int[] widths = new int[33];
+        for (int i = 0; i < count; i++) {
+            widths[bitWidth(values[i])]++;
+        }
+        int bestWidth = 32;
+        long bestSize = Long.MAX_VALUE;
+        for (int b = 32; b >= 0; b--) {
+            long size = ((long) count * b + 31) / 32 * 4;
+            for (int w = b + 1; w <= 32; w++) {
+                size += widths[w] * (1 + (w - b + 6) / 7);
+            }
+            if (size < bestSize) {
+                bestSize = size;
+                bestWidth = b;
+            }
+        }
+        return bestWidth;
+    }
+
+    public void encode(int[] values, int count, ByteArrayOutputStream out) {
+        int b = findBitWidth(values, count);
+        int exceptions = 0;
+        for (int i = 0; i < count; i++) {
+            if (bitWidth(values[i]) > b) {
+                exceptions++;
+            }
+        }
+        out.write(b);
+        out.write(exceptions);
+        long mask = (1L << b) - 1;
+        long buffer = 0;
+        int bitsInBuffer = 0;
+        for (int i = 0; i < count; i++) {
+            buffer = (buffer << b) | (values[i] & mask);
+            bitsInBuffer += b;
+            if (bitsInBuffer >= 32) {
+                writeInt((int) (buffer >>> (bitsInBuffer - 32)), out);
+                bitsInBuffer -= 32;
+            }
+        }
+        if (bitsInBuffer > 0) {
+            writeInt((int) (buffer << (32 - bitsInBuffer)), out);
+        }
+        for (int i = 0; i < count; i++) {
+            if (bitWidth(values[i]) > b) {
+                out.write(i);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (bitWidth(values[i]) > b) {
+                VarByte.encode(values[i] >>> b, out);
+            }
+        }
+    }
+
+    private static void writeInt(int value, ByteArrayOutputStream out) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    public void decode(ByteBuffer in, int[] values, int count) {
+        int b = in.get() & 0xFF;
+        int exceptions = in.get() & 0xFF;
+        if (b == 0) {
+            Arrays.fill(values, 0, count, 0);
+        } else {
+            long mask = (1L << b) - 1;
+            long buffer = 0;
+            int bitsInBuffer = 0;
+            for (int i = 0; i < count; i++) {
+                if (bitsInBuffer < b) {
+                    buffer = (buffer << 32) | (in.getInt() & 0xFFFFFFFFL);
+                    bitsInBuffer += 32;
+                }
+                bitsInBuffer -= b;
+                values[i] = (int) ((buffer >>> bitsInBuffer) & mask);
+            }
+        }
+        int positions = in.position();
+        in.position(positions + exceptions);
+        for (int e = 0; e < exceptions; e++) {
+            values[in.get(positions + e) & 0xFF] |= VarByte.decode(in) << b;
+        }
+    }
+}
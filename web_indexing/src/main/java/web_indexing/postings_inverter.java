@@ -0,0 +1,197 @@
+package web_indexing;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Growable docID and frequency arrays holding the postings of one term.
+ */
+class TermPostings {
+    private int[] docIds;
+    private int[] frequencies;
+    private int size;
+
+    TermPostings() {
+        docIds = new int[4];
+        frequencies = new int[4];
+        size = 0;
+    }
+
+    public void add(int docId, int frequency) {
+        if (size == docIds.length) {
+            docIds = Arrays.copyOf(docIds, size * 2);
+            frequencies = Arrays.copyOf(frequencies, size * 2);
+        }
+        docIds[size] = docId;
+        frequencies[size] = frequency;
+        size++;
+    }
+
+    public void setFrequency(int index, int frequency) {
+        frequencies[index] = frequency;
+    }
+
+    public int getDocId(int index) {
+        return docIds[index];
+    }
+
+    public int getFrequency(int index) {
+        return frequencies[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Replaces every docID d by newDocIds[d] and sorts the postings by their new docIDs.
+     */
+    public void renumber(int[] newDocIds) {
+        long[] postings = new long[size];
+        for (int i = 0; i < size; i++) {
+            postings[i] = ((long) newDocIds[docIds[i]] << 32) | frequencies[i];
+        }
+        Arrays.sort(postings);
+        for (int i = 0; i < size; i++) {
+            docIds[i] = (int) (postings[i] >>> 32);
+            frequencies[i] = (int) postings[i];
+        }
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
+
+/**
+ * Inverts postings in memory and spills them as sorted binary run files whenever the estimated size of the in memory
+ * postings reaches its share of the heap budget. Runs are sorted and written on background threads while ingestion
+ * goes on, at most one buffer per spill thread is waiting to be written.
+ *
+ * A run holds its terms in sorted order. Every term is written as the var-byte length of its UTF-8 bytes, the bytes,
+ * the var-byte posting count, the docID gaps and the frequencies. Postings must be added in increasing docID order so
+ * that the runs of a term can be merged by concatenating them in run order.
+ */
+class PostingsInverter {
+    public static final String MANIFEST = "manifest";
+
+    // rough heap cost of a term's slot, id arrays and TermPostings, and of one posting
+    private static final int TERM_OVERHEAD = 128;
+    private static final int POSTING_SIZE = 8;
+
+    private File runsDirectory;
+    private String runPrefix;
+    private long bufferBudget;
+    private int spillThreads;
+    private ExecutorService spillExecutor;
+    private List<Future<File>> runs;
+    private BytesIntMap terms;
+    private List<TermPostings> postings;
+    private long estimatedSize;
+
+    PostingsInverter(File runsDirectory, String runPrefix, long heapBudget, int spillThreads) {
+        this.runsDirectory = runsDirectory;
+        this.runPrefix = runPrefix;
+        this.bufferBudget = heapBudget / (spillThreads + 1);
+        this.spillThreads = spillThreads;
+        this.spillExecutor = Executors.newFixedThreadPool(spillThreads);
+        this.runs = new ArrayList();
+        this.terms = new BytesIntMap();
+        this.postings = new ArrayList();
+        this.estimatedSize = 0;
+    }
+
+    /**
+     * Adds a posting of the document to every term of documentTerms, with the frequency of the term's id.
+     */
+    public void addPostings(BytesIntMap documentTerms, IntArrayList frequencies, int docId) throws IOException {
+        for (int i = 0; i < documentTerms.size(); i++) {
+            int termId = terms.addKey(documentTerms, i);
+            if (termId == postings.size()) {
+                postings.add(new TermPostings());
+                estimatedSize += TERM_OVERHEAD + terms.keyLength(termId);
+            }
+            postings.get(termId).add(docId, frequencies.get(i));
+            estimatedSize += POSTING_SIZE;
+            if (estimatedSize >= bufferBudget) {
+                spill();
+            }
+        }
+    }
+
+    private void spill() throws IOException {
+        if (runs.size() >= spillThreads) {
+            waitFor(runs.get(runs.size() - spillThreads));
+        }
+        final BytesIntMap spilledTerms = terms;
+        final List<TermPostings> spilledPostings = postings;
+        final File runFile = new File(runsDirectory, runPrefix + runs.size() + ".run");
+        runs.add(spillExecutor.submit(() -> writeRun(spilledTerms, spilledPostings, runFile)));
+        terms = new BytesIntMap();
+        postings = new ArrayList();
+        estimatedSize = 0;
+    }
+
+    private static File waitFor(Future<File> run) throws IOException {
+        try {
+            return run.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing run", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to write run", e.getCause());
+        }
+    }
+
+    private static File writeRun(BytesIntMap terms, List<TermPostings> postings, File runFile) throws IOException {
+        ByteArrayOutputStream termBytes = new ByteArrayOutputStream();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(runFile), 1 << 16);
+        try {
+            for (int termId : terms.sortedIds()) {
+                TermPostings termPostings = postings.get(termId);
+                termBytes.reset();
+                VarByte.encode(terms.keyLength(termId), termBytes);
+                terms.writeKey(termId, termBytes);
+                VarByte.encode(termPostings.size(), termBytes);
+                int lastDocId = 0;
+                for (int i = 0; i < termPostings.size(); i++) {
+                    VarByte.encode(termPostings.getDocId(i) - lastDocId, termBytes);
+                    lastDocId = termPostings.getDocId(i);
+                }
+                for (int i = 0; i < termPostings.size(); i++) {
+                    VarByte.encode(termPostings.getFrequency(i), termBytes);
+                }
+                termBytes.writeTo(out);
+            }
+        } finally {
+            out.close();
+        }
+        return runFile;
+    }
+
+    /**
+     * Spills what is left in memory and waits for every run to be written. Returns the run files in docID order.
+     */
+    public List<File> finish() throws IOException {
+        if (!postings.isEmpty()) {
+            spill();
+        }
+        spillExecutor.shutdown();
+        List<File> runFiles = new ArrayList();
+        for (Future<File> run : runs) {
+            runFiles.add(waitFor(run));
+        }
+        return runFiles;
+    }
+}
@@ -0,0 +1,143 @@
+package web_indexing;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the postings of one index, an inverted index in the block format of IndexFormat with its binary lexicon and
+ * optionally its impact ordered index and its tier index. Terms must be added in sorted order. The score bounds are
+ * computed with the idf given for every term and the norms of the document table, so an index holding part of a
+ * collection still gets the bounds of the whole collection. The blocks are encoded with PostingCodecs.DEFAULT unless
+ * another codec is set before the first term, the header of the inverted index is written with the first term.
+ */
+class PostingsWriter {
+    private OutputStream invertedIndexFile;
+    private LexiconWriter binaryLexiconFile;
+    private ImpactIndexWriter impactIndexFile;
+    private TierIndexWriter tierIndexFile;
+    private DocumentTable documentTable;
+    private PostingCodec codec;
+    private int[] docIdGaps;
+    private int[] frequencies;
+    private ByteArrayOutputStream blockHeaders;
+    private ByteArrayOutputStream blocks;
+    private long totalBytes;
+
+    PostingsWriter(String invertedIndexPath, String binaryLexiconFilePath, DocumentTable documentTable)
+            throws IOException {
+        this.documentTable = documentTable;
+        this.invertedIndexFile = new BufferedOutputStream(new FileOutputStream(invertedIndexPath));
+        this.binaryLexiconFile = new LexiconWriter(binaryLexiconFilePath);
+        this.codec = PostingCodecs.DEFAULT;
+        this.docIdGaps = new int[IndexFormat.BLOCK_SIZE];
+        this.frequencies = new int[IndexFormat.BLOCK_SIZE];
+        this.blockHeaders = new ByteArrayOutputStream();
+        this.blocks = new ByteArrayOutputStream();
+        this.totalBytes = 0;
+    }
+
+    public void setCodec(PostingCodec codec) {
+        if (totalBytes > 0) {
+            throw new IllegalStateException("The codec must be set before the first term");
+        }
+        this.codec = codec;
+        if (tierIndexFile != null) {
+            tierIndexFile.setCodec(codec);
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        if (totalBytes == 0) {
+            IndexFormat.writeHeader(invertedIndexFile, codec);
+            totalBytes = IndexFormat.HEADER_SIZE;
+        }
+    }
+
+    public void setImpactIndex(String impactIndexPath, String impactLexiconPath) throws IOException {
+        impactIndexFile = new ImpactIndexWriter(impactIndexPath, impactLexiconPath, documentTable.size());
+    }
+
+    public void setTierIndex(String tierIndexPath, String tierLexiconPath) throws IOException {
+        tierIndexFile = new TierIndexWriter(tierIndexPath, tierLexiconPath, documentTable);
+        tierIndexFile.setCodec(codec);
+    }
+
+    /**
+     * Writes the postings of a term and returns its lexicon entry.
+     */
+    public Posting add(String term, TermPostings postings, double idf) throws IOException {
+        Posting p = add(term, postings, idf, null);
+        if (impactIndexFile != null) {
+            impactIndexFile.add(term, postings, idf, documentTable);
+        }
+        if (tierIndexFile != null) {
+            tierIndexFile.add(term, postings, idf);
+        }
+        return p;
+    }
+
+    /**
+     * Writes the postings of a term alone, with lexiconScore in the binary lexicon in place of their max score when it
+     * is not null.
+     */
+    public Posting add(String term, TermPostings postings, double idf, Double lexiconScore) throws IOException {
+        writeHeader();
+        blockHeaders.reset();
+        blocks.reset();
+        int lastDocId = 0, docIdsInBlock = 0;
+        double blockMaxTf = 0, maxTf = 0, minTf = Double.MAX_VALUE;
+        for (int i = 0; i < postings.size(); i++) {
+            int currentDocId = postings.getDocId(i);
+            int frequency = postings.getFrequency(i);
+            docIdGaps[docIdsInBlock] = currentDocId - lastDocId;
+            frequencies[docIdsInBlock] = frequency;
+            double tf = BM25.tfNormalization(frequency, documentTable.getNorm(currentDocId));
+            blockMaxTf = Math.max(blockMaxTf, tf);
+            maxTf = Math.max(maxTf, tf);
+            minTf = Math.min(minTf, tf);
+            lastDocId = currentDocId;
+            if (++docIdsInBlock == IndexFormat.BLOCK_SIZE) {
+                flushBlock(docIdsInBlock, lastDocId, blockMaxTf);
+                docIdsInBlock = 0;
+                blockMaxTf = 0;
+            }
+        }
+        if (docIdsInBlock > 0) {
+            flushBlock(docIdsInBlock, lastDocId, blockMaxTf);
+        }
+        int totalBytesForTerm = blockHeaders.size() + blocks.size();
+        blockHeaders.writeTo(invertedIndexFile);
+        blocks.writeTo(invertedIndexFile);
+        // a negative idf makes the least frequent posting the best scoring one
+        double maxScore = idf * ((idf > 0) ? maxTf : minTf);
+        Posting p = new Posting(totalBytes, totalBytesForTerm, postings.size(), maxScore);
+        binaryLexiconFile.add(term, totalBytes, totalBytesForTerm, postings.size(),
+                (lexiconScore != null) ? lexiconScore : maxScore);
+        totalBytes += totalBytesForTerm;
+        return p;
+    }
+
+    private void flushBlock(int count, int lastDocId, double blockMaxTf) {
+        int start = blocks.size();
+        codec.encode(docIdGaps, count, blocks);
+        codec.encode(frequencies, count, blocks);
+        VarByte.encode(lastDocId, blockHeaders);
+        VarByte.encode(blocks.size() - start, blockHeaders);
+        VarByte.encode(BM25.quantize(blockMaxTf), blockHeaders);
+    }
+
+    public void finish() throws IOException {
+        writeHeader();
+        invertedIndexFile.close();
+        binaryLexiconFile.finish();
+        if (impactIndexFile != null) {
+            impactIndexFile.finish();
+        }
+        if (tierIndexFile != null) {
+            tierIndexFile.finish();
+        }
+    }
+}
@@ -1,30 +1,37 @@
 package web_indexing;
 
 import java.io.IOException;
-import java.io.FileInputStream;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.List;
 import java.util.PriorityQueue;
-import java.util.zip.GZIPInputStream;
 import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
 class Posting {
-    private Integer offset;
+    private Long offset;
     private Integer size;
     private Integer count;
+    private Double maxScore;
 
-    Posting(Integer offset, Integer size, Integer count) {
+    Posting(Long offset, Integer size, Integer count, Double maxScore) {
         this.offset = offset;
         this.size = size;
         this.count = count;
+        this.maxScore = maxScore;
     }
 
-    Integer getOffset() {
+    Long getOffset() {
         return offset;
     }
 
@@ -36,88 +43,220 @@ class Posting {
         return count;
     }
 
+    Double getMaxScore() {
+        return maxScore;
+    }
+
 }
 
+/**
+ * Cursor over the postings of one term. Only the block headers are parsed when the list is opened, a block is decoded
+ * when the cursor enters it, so the decoded state is bounded by the block size. A cursor over CachedPostings copies
+ * the block out of the cached arrays instead of decoding it.
+ */
 class PostingList {
-    private List<Integer> docIds;
-    private List<Integer> frequencies;
-    private Integer index;
+    public static final int END = Integer.MAX_VALUE;
+
+    private ByteBuffer postings;
+    private PostingCodec codec;
+    private CachedPostings cached;
+    private Integer count;
+    private int[] blockLastDocIds;
+    private int[] blockOffsets;
+    private int[] blockMaxImpacts;
+    private int[] docIds;
+    private int[] frequencies;
+    private int currentBlock;
+    private int blockLength;
+    private int frequenciesOffset;
+    private Boolean frequenciesDecoded;
+    private int index;
+    private int shallowBlock;
+    private int decodedPostings;
+    private double idf;
+    private double maxScore;
+    private double blockBoundScale;
 
     PostingList() {
-        docIds = new ArrayList();
-        frequencies = new ArrayList();
-        index = -1;
+        docIds = new int[IndexFormat.BLOCK_SIZE];
+        frequencies = new int[IndexFormat.BLOCK_SIZE];
+        blockLastDocIds = new int[0];
+        count = 0;
+        index = 0;
+        currentBlock = -1;
+        blockBoundScale = 1;
     }
 
-    public String[] decodeVarByteCompression(String varByteEncoding) {
-        String[] decodings = new String[varByteEncoding.length() / 8];
-        int j = 0;
-        for (int i = 0; i < decodings.length; i++) {
-            decodings[i] = varByteEncoding.substring(j, j + 8);
-            j += 8;
+    private void decodeBlock(int block) {
+        blockLength = Math.min(IndexFormat.BLOCK_SIZE, count - block * IndexFormat.BLOCK_SIZE);
+        currentBlock = block;
+        index = 0;
+        if (cached != null) {
+            System.arraycopy(cached.getDocIds(), block * IndexFormat.BLOCK_SIZE, docIds, 0, blockLength);
+            System.arraycopy(cached.getFrequencies(), block * IndexFormat.BLOCK_SIZE, frequencies, 0, blockLength);
+            frequenciesDecoded = true;
+            return;
         }
-        return decodings;
+        postings.position(blockOffsets[block]);
+        codec.decode(postings, docIds, blockLength);
+        decodedPostings += blockLength;
+        int docId = (block > 0) ? blockLastDocIds[block - 1] : 0;
+        for (int i = 0; i < blockLength; i++) {
+            docId += docIds[i];
+            docIds[i] = docId;
+        }
+        frequenciesOffset = postings.position();
+        frequenciesDecoded = false;
     }
 
-    public Integer nextGEQ(Integer k) {
-        if (index > -1 && k != null) {
-            for (int i = index; i < docIds.size(); i++) {
-                if (docIds.get(i) >= k)
-                    return docIds.get(i);
-            }
+    private int findBlock(int k) {
+        int block = Math.max(currentBlock, 0);
+        while (block < blockLastDocIds.length && blockLastDocIds[block] < k) {
+            block++;
         }
-        return null;
+        return block;
+    }
+
+    private int finish() {
+        currentBlock = blockLastDocIds.length;
+        return END;
+    }
+
+    public int docId() {
+        return (currentBlock >= 0 && currentBlock < blockLastDocIds.length) ? docIds[index] : END;
+    }
+
+    public int next() {
+        if (currentBlock >= blockLastDocIds.length) {
+            return END;
+        }
+        if (++index < blockLength) {
+            return docIds[index];
+        }
+        if (currentBlock + 1 == blockLastDocIds.length) {
+            return finish();
+        }
+        decodeBlock(currentBlock + 1);
+        return docIds[index];
+    }
+
+    public int nextGEQ(int k) {
+        if (currentBlock >= blockLastDocIds.length) {
+            return END;
+        }
+        int block = findBlock(k);
+        if (block == blockLastDocIds.length) {
+            return finish();
+        }
+        if (block != currentBlock) {
+            decodeBlock(block);
+        }
+        while (docIds[index] < k) {
+            index++;
+        }
+        return docIds[index];
+    }
+
+    /**
+     * Moves the block bounds to the block that would contain k without decoding it, see getBlockLastDocId and
+     * getBlockMaxScore.
+     */
+    public void shallowNextGEQ(int k) {
+        shallowBlock = findBlock(k);
+    }
+
+    public int getBlockLastDocId() {
+        return (shallowBlock < blockLastDocIds.length) ? blockLastDocIds[shallowBlock] : END;
+    }
+
+    public double getBlockMaxScore() {
+        if (shallowBlock >= blockLastDocIds.length || idf <= 0) {
+            return 0;
+        }
+        return Math.min(maxScore, idf * BM25.dequantize(blockMaxImpacts[shallowBlock]) * blockBoundScale);
+    }
+
+    /**
+     * Upper bound of the score this term adds to any document. Terms with a negative idf only lower a score, so their
+     * bound is 0.
+     */
+    public double getMaxScore() {
+        return Math.max(maxScore, 0);
+    }
+
+    public double getIdf() {
+        return idf;
+    }
+
+    public void setScoreBounds(double idf, double maxScore) {
+        this.idf = idf;
+        this.maxScore = maxScore;
+    }
+
+    /**
+     * Also multiplies the block bounds by blockBoundScale, for postings whose block bounds were computed with other
+     * document norms than the ones they are scored with.
+     */
+    public void setScoreBounds(double idf, double maxScore, double blockBoundScale) {
+        setScoreBounds(idf, maxScore);
+        this.blockBoundScale = blockBoundScale;
     }
 
     public Integer getDocIdsSize() {
-        return docIds.size();
+        return count;
     }
 
-    public Integer getFreq() {
-        return (index > -1) ? frequencies.get(index) : null;
+    /**
+     * Number of docIDs this cursor decoded so far, blocks copied from cached postings are not counted.
+     */
+    public int getDecodedPostings() {
+        return decodedPostings;
     }
 
-    public void setIndex(Integer index) {
-        this.index = index;
+    public int freq() {
+        if (!frequenciesDecoded) {
+            postings.position(frequenciesOffset);
+            codec.decode(postings, frequencies, blockLength);
+            frequenciesDecoded = true;
+        }
+        return frequencies[index];
     }
 
-    public void createPostings(String fileName, Integer offset, Integer size) {
-        try {
-            RandomAccessFile invertedIndexFile = new RandomAccessFile(fileName, "r");
-            invertedIndexFile.seek(offset);
-            byte[] byteArray = new byte[size];
-            invertedIndexFile.read(byteArray);
-            String varByteEncoding = new String(byteArray);
-            // System.out.println("Byte accessed =" + varByteEncoding);
-            String[] bytes = decodeVarByteCompression(varByteEncoding);
-            StringBuffer sb = new StringBuffer();
-            ArrayList<Integer> varByteDecodingList = new ArrayList();
-            for (String byteString : bytes) {
-                sb.append(byteString.substring(1));
-                if (byteString.charAt(0) == '1') {
-                    varByteDecodingList.add(Integer.parseInt(sb.toString(), 2));
-                    sb = new StringBuffer();
-                }
-            }
-            int i = 0;
-            Integer docIdsCount = 0;
-            for (Integer no : varByteDecodingList) {
-                i++;
-                if (i <= varByteDecodingList.size() / 2) {
-                    docIdsCount += no;
-                    docIds.add(docIdsCount);
-                } else {
-                    frequencies.add(no);
-                }
-            }
-            if (docIds.size() > 0) {
-                index++;
-            }
-            invertedIndexFile.close();
-            // System.out.println("docIds ====" + docIds);
-            // System.out.println("frequencies ====" + frequencies);
-        } catch (IOException e) {
-            System.out.println("Unable to read content from file");
+    public void createPostings(ByteBuffer postings, Integer count, PostingCodec codec) {
+        this.postings = postings;
+        this.codec = codec;
+        this.count = count;
+        int blocks = (count + IndexFormat.BLOCK_SIZE - 1) / IndexFormat.BLOCK_SIZE;
+        blockLastDocIds = new int[blocks];
+        blockOffsets = new int[blocks];
+        blockMaxImpacts = new int[blocks];
+        int[] blockSizes = new int[blocks];
+        for (int i = 0; i < blocks; i++) {
+            blockLastDocIds[i] = VarByte.decode(postings);
+            blockSizes[i] = VarByte.decode(postings);
+            blockMaxImpacts[i] = VarByte.decode(postings);
+        }
+        int blockOffset = postings.position();
+        for (int i = 0; i < blocks; i++) {
+            blockOffsets[i] = blockOffset;
+            blockOffset += blockSizes[i];
+        }
+        if (blocks == 0) {
+            finish();
+        } else {
+            decodeBlock(0);
+        }
+    }
+
+    public void createPostings(CachedPostings cached, Integer count) {
+        this.cached = cached;
+        this.count = count;
+        blockLastDocIds = cached.getBlockLastDocIds();
+        blockMaxImpacts = cached.getBlockMaxImpacts();
+        if (blockLastDocIds.length == 0) {
+            finish();
+        } else {
+            decodeBlock(0);
         }
     }
 }
@@ -157,10 +296,18 @@ class SearchResult implements Comparable<SearchResult> {
         return wordsFrequenciesList;
     }
 
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
     public void setSnippet(String snippet) {
         this.snippet = snippet;
     }
 
+    public void setDocumentId(Integer documentId) {
+        this.documentId = documentId;
+    }
+
     public void setWordsFrequenciesList(List<Integer> wordsFrequenciesList) {
         this.wordsFrequenciesList = wordsFrequenciesList;
     }
@@ -176,124 +323,513 @@ class SearchResult implements Comparable<SearchResult> {
     }
 }
 
-class URLMapping {
-    private String url;
-    private Integer totalTermsCount;
-    private String documentFileName;
-    private Integer offset;
-    private Integer size;
+/**
+ * Accumulators reused by the queries of one thread, so that concurrent queries neither share nor reallocate them.
+ * Every getter clears what it returns.
+ */
+class QueryScratch {
+    private IntIntMap accumulators;
+    private IntArrayList docIds;
+    private IntArrayList frequencies;
+    private TopAccumulators topAccumulators;
 
-    URLMapping(String url, Integer totalTermsCount, String documentFileName, Integer offset, Integer size) {
-        this.url = url;
-        this.totalTermsCount = totalTermsCount;
-        this.documentFileName = documentFileName;
-        this.offset = offset;
-        this.size = size;
+    QueryScratch() {
+        accumulators = new IntIntMap();
+        docIds = new IntArrayList();
+        frequencies = new IntArrayList();
+        topAccumulators = new TopAccumulators();
     }
 
-    public String getUrl() {
-        return url;
+    public IntIntMap getAccumulators() {
+        accumulators.clear();
+        return accumulators;
     }
 
-    public Integer getTotalTermsCount() {
-        return totalTermsCount;
+    public IntArrayList getDocIds() {
+        docIds.clear();
+        return docIds;
     }
 
-    public String getDocumentFileName() {
-        return documentFileName;
+    public IntArrayList getFrequencies() {
+        frequencies.clear();
+        return frequencies;
     }
 
-    public Integer getOffset() {
-        return offset;
+    public TopAccumulators getTopAccumulators(int capacity) {
+        topAccumulators.clear(capacity);
+        return topAccumulators;
     }
+}
 
-    public Integer getSize() {
-        return size;
+/**
+ * Min-heap of the capacity highest accumulators of a score-at-a-time evaluation, kept up to date as accumulators
+ * grow so the k-th highest accumulator is known after every posting. Accumulators only grow, so a document outside
+ * the heap never has a higher accumulator than the lowest in the heap.
+ */
+class TopAccumulators {
+    private int[] docIds;
+    private int[] scores;
+    private int size;
+    // heap index of every document that entered the heap, -1 once it is evicted
+    private IntIntMap positions;
+
+    TopAccumulators() {
+        docIds = new int[0];
+        scores = new int[0];
+        positions = new IntIntMap();
+    }
+
+    public void clear(int capacity) {
+        if (docIds.length != capacity) {
+            docIds = new int[capacity];
+            scores = new int[capacity];
+        }
+        size = 0;
+        positions.clear();
+    }
+
+    public Boolean isFull() {
+        return size == docIds.length;
+    }
+
+    /**
+     * Lowest accumulator in the heap, the k-th highest of all once the heap is full.
+     */
+    public int getThreshold() {
+        return (size > 0) ? scores[0] : 0;
+    }
+
+    /**
+     * Records that the accumulator of docId grew to score.
+     */
+    public void update(int docId, int score) {
+        // a document in the heap had at least the threshold before it grew
+        if (size == docIds.length && (size == 0 || score <= scores[0])) {
+            return;
+        }
+        int i = positions.get(docId, -1);
+        if (i < 0) {
+            if (size < docIds.length) {
+                i = size++;
+            } else {
+                positions.put(docIds[0], -1);
+                i = 0;
+            }
+            docIds[i] = docId;
+            scores[i] = score;
+            siftUp(i);
+        } else {
+            scores[i] = score;
+        }
+        siftDown(positions.get(docId, -1));
+    }
+
+    private void siftUp(int i) {
+        while (i > 0 && scores[(i - 1) / 2] > scores[i]) {
+            swap(i, (i - 1) / 2);
+            i = (i - 1) / 2;
+        }
+        positions.put(docIds[i], i);
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && scores[child + 1] < scores[child]) {
+                child++;
+            }
+            if (scores[i] <= scores[child]) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+        positions.put(docIds[i], i);
+    }
+
+    private void swap(int i, int j) {
+        int docId = docIds[i];
+        int score = scores[i];
+        docIds[i] = docIds[j];
+        scores[i] = scores[j];
+        docIds[j] = docId;
+        scores[j] = score;
+        positions.put(docIds[i], i);
+    }
+}
+
+/**
+ * Heap of the capacity best results of one query, it also counts the documents scored and the results evicted by
+ * better ones.
+ */
+class ResultHeap extends PriorityQueue<SearchResult> {
+    private int capacity;
+    private int documentsScored;
+    private int evictions;
+
+    ResultHeap(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void addDocumentScored() {
+        documentsScored++;
+    }
+
+    public void addEviction() {
+        evictions++;
+    }
+
+    public int getDocumentsScored() {
+        return documentsScored;
+    }
+
+    public int getEvictions() {
+        return evictions;
+    }
+}
+
+/**
+ * The latency histograms and counters of the stages of a Query, looked up once in its Metrics. The stages of
+ * findTopResults are the lexicon lookups, opening the posting lists and the evaluation, completeResults is the snippets
+ * stage and a whole getSearchResults is the total.
+ */
+class QueryMetrics {
+    private Metrics metrics;
+    private LatencyHistogram lexiconTime;
+    private LatencyHistogram postingsTime;
+    private LatencyHistogram evaluationTime;
+    private LatencyHistogram snippetsTime;
+    private LatencyHistogram totalTime;
+    private LongAdder postingsDecoded;
+    private LongAdder postingsBytesRead;
+    private LongAdder documentsScored;
+    private LongAdder heapEvictions;
+    private LongAdder documentBytesRead;
+    private LongAdder tierHits;
+    private LongAdder tierFallbacks;
+
+    QueryMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        this.lexiconTime = metrics.histogram("query.lexicon");
+        this.postingsTime = metrics.histogram("query.postings");
+        this.evaluationTime = metrics.histogram("query.evaluation");
+        this.snippetsTime = metrics.histogram("query.snippets");
+        this.totalTime = metrics.histogram("query.total");
+        this.postingsDecoded = metrics.counter("query.postingsDecoded");
+        this.postingsBytesRead = metrics.counter("query.postingsBytesRead");
+        this.documentsScored = metrics.counter("query.documentsScored");
+        this.heapEvictions = metrics.counter("query.heapEvictions");
+        this.documentBytesRead = metrics.counter("query.documentBytesRead");
+        this.tierHits = metrics.counter("query.tierHits");
+        this.tierFallbacks = metrics.counter("query.tierFallbacks");
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void recordTopResults(long lexiconNanos, long postingsNanos, long evaluationNanos,
+            List<PostingList> postingLists, ResultHeap result) {
+        lexiconTime.record(lexiconNanos);
+        postingsTime.record(postingsNanos);
+        evaluationTime.record(evaluationNanos);
+        long decoded = 0;
+        for (PostingList pl : postingLists) {
+            decoded += (pl != null) ? pl.getDecodedPostings() : 0;
+        }
+        postingsDecoded.add(decoded);
+        documentsScored.add(result.getDocumentsScored());
+        heapEvictions.add(result.getEvictions());
+    }
+
+    /**
+     * Counts the postings of a term read from the index, count of them decoded at once into the postings cache.
+     */
+    public void addPostingsRead(int bytes, int count) {
+        postingsBytesRead.add(bytes);
+        postingsDecoded.add(count);
+    }
+
+    public void addDocumentBytesRead(int bytes) {
+        documentBytesRead.add(bytes);
+    }
+
+    /**
+     * Counts a query answered by the tier index, or one that had to be evaluated on the full index.
+     */
+    public void recordTier(Boolean hit) {
+        if (hit) {
+            tierHits.increment();
+        } else {
+            tierFallbacks.increment();
+        }
+    }
+
+    public void recordSnippets(long nanos) {
+        snippetsTime.record(nanos);
+    }
+
+    public void recordQuery(long nanos) {
+        totalTime.record(nanos);
     }
 }
 
+/**
+ * Query engine over the memory mapped index files. Once the files are opened and the evaluation options are set, a
+ * Query holds no per query state and getSearchResults can be called from many threads at once.
+ */
 class Query {
-    private HashMap<String, Posting> lexiconMap;
-    private HashMap<Integer, URLMapping> docIdToUrlMap;
+    private Lexicon lexicon;
+    private DocumentTable documentTable;
     private Integer totalResults;
-    private String invertedIndexPath;
-    private Integer totalDocumentsTerms;
+    private static final double SCORE_EPSILON = 1e-9;
+    // relative widening of the bounds of a segment that absorbs the float rounding of the norms
+    private static final double NORM_BOUND_SLACK = 1e-6;
+
+    private static final int SCORE_AT_A_TIME_MAX_TERMS = 2;
+    // candidates kept from the tier index per result, more candidates lower the bound the results must beat
+    private static final int TIER_CANDIDATES = 4;
+    private static final int RESULT_CACHE_ENTRIES = 10000;
+    private static final long POSTINGS_CACHE_BYTES = 64L << 20;
+    // a term whose decoded postings take more than this share of the cache is never cached
+    private static final int POSTINGS_CACHE_MAX_SHARE = 16;
+    // counters per row of the sketch that admits terms to the posting list cache on their second miss
+    private static final int POSTINGS_ADMISSION_WIDTH = 1 << 16;
+    private static final int SNIPPET_LENGTH = 497;
+    // the passage with the most query words within this many bytes is the snippet
+    private static final int PASSAGE_BYTES = 300;
+    // bytes read before the passage to find the start of its sentence
+    private static final int SENTENCE_BYTES = 200;
+    // bytes read from the start of the passage, enough for SNIPPET_LENGTH characters of any UTF-8 text
+    private static final int SNIPPET_BYTES = 4 * SNIPPET_LENGTH;
+    private static ExecutorService sharedSnippetExecutor;
+
+    private IndexReader indexReader;
+    private PostingCodec codec;
+    private Boolean dynamicPruning;
+    private ImpactIndex impactIndex;
+    private Boolean scoreAtATime;
+    private long impactPostingsBudget;
+    private TierIndex tierIndex;
+    private ThreadLocal<QueryScratch> scratch;
+    private SegmentedLruCache<String, List<SearchResult>> resultCache;
+    private SegmentedLruCache<String, CachedPostings> postingsCache;
+    private Double averageLength;
+    private double normBoundScale;
+    private ExecutorService snippetExecutor;
+    private QueryMetrics metrics;
 
-    Query(Integer totalResults, String invertedIndexPath) {
-        lexiconMap = new HashMap();
-        docIdToUrlMap = new HashMap();
+    Query(Integer totalResults, String invertedIndexPath, String documentsPath) {
+        this(totalResults, invertedIndexPath, openDocuments(documentsPath));
+    }
+
+    /**
+     * Query over the inverted index of a shard or segment that reads the documents of the collection with documents,
+     * which is shared by the other shards or segments.
+     */
+    Query(Integer totalResults, String invertedIndexPath, IndexReader documents) {
         this.totalResults = totalResults;
-        this.invertedIndexPath = invertedIndexPath;
-        this.totalDocumentsTerms = 0;
+        this.indexReader = openIndexReader(invertedIndexPath, documents);
+        this.codec = (indexReader != null) ? indexReader.getCodec() : null;
+        this.dynamicPruning = true;
+        this.scoreAtATime = false;
+        this.impactPostingsBudget = Long.MAX_VALUE;
+        this.scratch = ThreadLocal.withInitial(QueryScratch::new);
+        this.metrics = new QueryMetrics(new Metrics());
     }
 
-    public void buildLexicon(String fileName) {
+    private IndexReader openIndexReader(String invertedIndexPath, IndexReader documents) {
         try {
-            GZIPInputStream lexiconFile = new GZIPInputStream(new FileInputStream(fileName));
-            BufferedReader br = new BufferedReader(new InputStreamReader(lexiconFile));
-            String currentTerm = null;
-            while ((currentTerm = br.readLine()) != null) {
-                String[] lexiconValues = currentTerm.split(" ");
-                if (lexiconValues.length == 4) {
-                    String term = lexiconValues[0];
-                    Integer offset = Integer.parseInt(lexiconValues[1]) - 1;
-                    Integer size = Integer.parseInt(lexiconValues[2]);
-                    Integer count = Integer.parseInt(lexiconValues[3]);
-                    lexiconMap.put(term, new Posting(offset, size, count));
-                }
-            }
-            System.out.println("lexiconMapSize =====" + lexiconMap.size());
-            lexiconFile.close();
+            return new IndexReader(invertedIndexPath, documents);
+        } catch (IOException e) {
+            System.out.println("Unable to open " + invertedIndexPath);
+        }
+        return null;
+    }
+
+    public Boolean isIndexFormatSupported() {
+        return codec != null;
+    }
+
+    /**
+     * Enables Block-Max WAND for conjunctive queries, when disabled every document of every list is scored.
+     */
+    public void setDynamicPruning(Boolean dynamicPruning) {
+        this.dynamicPruning = dynamicPruning;
+    }
+
+    /**
+     * Uses score-at-a-time evaluation on the impact index for conjunctive queries of at most
+     * SCORE_AT_A_TIME_MAX_TERMS terms, when the impact index is open.
+     */
+    public void setScoreAtATime(Boolean scoreAtATime) {
+        this.scoreAtATime = scoreAtATime;
+    }
+
+    /**
+     * Generates the snippets of the results of a query in parallel on a pool shared by every Query.
+     */
+    public void setParallelSnippets(Boolean parallelSnippets) {
+        snippetExecutor = parallelSnippets ? sharedSnippetExecutor() : null;
+    }
+
+    private static synchronized ExecutorService sharedSnippetExecutor() {
+        if (sharedSnippetExecutor == null) {
+            sharedSnippetExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                Thread thread = new Thread(r, "snippets");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sharedSnippetExecutor;
+    }
+
+    /**
+     * Caps the number of postings a score-at-a-time query processes, which bounds its latency at the cost of exact
+     * results.
+     */
+    public void setImpactPostingsBudget(long impactPostingsBudget) {
+        this.impactPostingsBudget = impactPostingsBudget;
+    }
+
+    /**
+     * Caches the results of up to resultCacheEntries queries and the decoded postings of terms in up to
+     * postingsCacheBytes bytes, 0 disables a cache. A term is decoded into the cache on its second recent miss, so
+     * terms queried once keep the lazy block decoding of the index. Cached results depend on the evaluation options,
+     * so the caches are set after them.
+     */
+    public void setCaches(int resultCacheEntries, long postingsCacheBytes) {
+        resultCache = (resultCacheEntries > 0) ? new SegmentedLruCache<String, List<SearchResult>>(resultCacheEntries,
+                results -> 1) : null;
+        postingsCache = (postingsCacheBytes > 0) ? new SegmentedLruCache<String, CachedPostings>(postingsCacheBytes,
+                CachedPostings::weight) : null;
+        if (postingsCache != null) {
+            postingsCache.setAdmission(POSTINGS_ADMISSION_WIDTH);
+        }
+    }
+
+    /**
+     * Scores this index as a segment of a larger collection whose average document length is averageLength. The
+     * norms stored in the document table were computed with the average length of the segment, so the norms are
+     * computed from the document lengths instead. The score bounds of the index were computed with the norms and idfs
+     * of the segment, they are converted back to bounds on the term frequency part of the score and widened by the
+     * ratio of the two average lengths, which keeps them upper bounds. Score-at-a-time evaluation is not used as the
+     * impacts are quantized with the scores of the segment.
+     */
+    public void setAverageLength(double averageLength) {
+        this.averageLength = averageLength;
+        this.normBoundScale = Math.max(1, averageLength / documentTable.getAverageLength()) * (1 + NORM_BOUND_SLACK);
+    }
+
+    /**
+     * Records the latencies of the stages and the counters of every query in metrics, which may be shared with other
+     * Query objects, null stops recording.
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = (metrics != null) ? new QueryMetrics(metrics) : null;
+    }
+
+    public Metrics getMetrics() {
+        return (metrics != null) ? metrics.getMetrics() : null;
+    }
+
+    public SegmentedLruCache<String, List<SearchResult>> getResultCache() {
+        return resultCache;
+    }
+
+    public SegmentedLruCache<String, CachedPostings> getPostingsCache() {
+        return postingsCache;
+    }
+
+    public SegmentedLruCache<Long, byte[]> getDocumentBlockCache() {
+        return indexReader.getBlockCache();
+    }
+
+    public Boolean openImpactIndex(String impactIndexPath, String impactLexiconPath) {
+        try {
+            impactIndex = new ImpactIndex(impactIndexPath, impactLexiconPath);
+            return true;
         } catch (IOException e) {
-            System.out.println("Unable to read content from file");
+            System.out.println("Unable to open " + impactIndexPath + ": " + e.getMessage());
         }
+        return false;
     }
 
-    public void buildDocIdsToUrlMapping(String fileName) {
+    /**
+     * Opens the tier index that queries are evaluated on first, see findTierResults.
+     */
+    public Boolean openTierIndex(String tierIndexPath, String tierLexiconPath) {
         try {
-            GZIPInputStream lexiconFile = new GZIPInputStream(new FileInputStream(fileName));
-            BufferedReader br = new BufferedReader(new InputStreamReader(lexiconFile));
-            String currentTerm = null;
-            while ((currentTerm = br.readLine()) != null) {
-                String[] docIdsToUrlMappingValues = currentTerm.split(" ");
-                if (docIdsToUrlMappingValues.length == 6) {
-                    Integer docId = Integer.parseInt(docIdsToUrlMappingValues[0]);
-                    String url = docIdsToUrlMappingValues[1];
-                    Integer totalTermsCount = Integer.parseInt(docIdsToUrlMappingValues[2]);
-                    String documentFileName = docIdsToUrlMappingValues[3];
-                    try {
-                        Integer offset = Integer.parseInt(docIdsToUrlMappingValues[4]) - 1;
-                        Integer size = Integer.parseInt(docIdsToUrlMappingValues[5]);
-                        totalDocumentsTerms += totalTermsCount;
-                        docIdToUrlMap.put(docId, new URLMapping(url, totalTermsCount, documentFileName, offset, size));
-                    } catch (Exception e) {
-                        System.out.println("Exception caught" + e);
-                    }
+            tierIndex = new TierIndex(tierIndexPath, tierLexiconPath);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Unable to open " + tierIndexPath + ": " + e.getMessage());
+        }
+        return false;
+    }
 
-                }
-            }
-            System.out.println("buildDocIdsToUrlMappingSize =====" + docIdToUrlMap.size());
-            lexiconFile.close();
+    /**
+     * Memory maps the binary lexicon written by InvertedIndex, terms are looked up in place.
+     */
+    public Boolean openLexicon(String fileName) {
+        try {
+            lexicon = new Lexicon(fileName);
+            System.out.println("lexiconSize =====" + lexicon.size());
+            return true;
         } catch (IOException e) {
-            System.out.println("Unable to read content from file");
+            System.out.println("Unable to open " + fileName + ": " + e.getMessage());
         }
+        return false;
+    }
 
+    /**
+     * Memory maps the document table written by GeneratePostings, documents are looked up by docID in place.
+     */
+    public Boolean openDocumentTable(String fileName) {
+        try {
+            documentTable = new DocumentTable(fileName);
+            System.out.println("documentTableSize =====" + documentTable.size());
+            return true;
+        } catch (IOException e) {
+            System.out.println("Unable to open " + fileName + ": " + e.getMessage());
+        }
+        return false;
     }
 
-    public Double calculateBM25(ArrayList<Integer> ft, ArrayList<Integer> fdt, Integer modd) {
-        Double score = 0.0;
-        Integer N = docIdToUrlMap.size();
-        Double moddavg = (double) totalDocumentsTerms / N;
-        double k1 = 1.2, b = 0.75;
-        for (int i = 0; i < ft.size(); i++) {
-            Double logarithmicTerm = (N - ft.get(i) + 0.5) / (ft.get(i) + 0.5);
-            Double K = k1 * ((1 - b) + b * modd / moddavg);
-            Double secondTerm = (k1 + 1) * fdt.get(i) / (K + fdt.get(i));
-            score += Math.log(logarithmicTerm) * secondTerm;
+    /**
+     * BM25 score of a document, idfs[i] is the idf of the query term whose frequency in the document is fdt[i].
+     */
+    public double calculateBM25(double[] idfs, int[] fdt, int docId) {
+        float norm = (averageLength != null) ? BM25.documentNorm(documentTable.getLength(docId), averageLength)
+                : documentTable.getNorm(docId);
+        double score = 0;
+        for (int i = 0; i < idfs.length; i++) {
+            if (fdt[i] > 0) {
+                score += idfs[i] * BM25.tfNormalization(fdt[i], norm);
+            }
         }
         return score;
     }
 
+    /**
+     * Computes the idf of every query term once per query, terms missing from the lexicon get 0.
+     */
+    private double[] termIdfs(List<PostingList> postingLists) {
+        double[] idfs = new double[postingLists.size()];
+        for (int i = 0; i < idfs.length; i++) {
+            PostingList pl = postingLists.get(i);
+            idfs[i] = (pl != null) ? pl.getIdf() : 0;
+        }
+        return idfs;
+    }
+
     public int lastCapitalIndex(String content) {
         int index = 0;
         for (int i = content.length() - 1; i >= 0; i--) {
@@ -346,173 +882,779 @@ class Query {
                 maxIndices = queue.size();
             }
         }
+        return createSnippet(content.substring(0, startIndex), content.substring(startIndex));
+    }
+
+    /**
+     * Snippet of the passage, started at the beginning of its sentence in the content before it.
+     */
+    private String createSnippet(String beforePassage, String passage) {
         String start = "";
-        String preIndex = content.substring(0, startIndex);
         int preIndexValue = -1;
-        if ((preIndexValue = preIndex.lastIndexOf(".")) > 0) {
-            start = content.substring(preIndexValue + 1, startIndex);
+        if ((preIndexValue = beforePassage.lastIndexOf(".")) > 0) {
+            start = beforePassage.substring(preIndexValue + 1);
         } else {
-            start = content.substring(lastCapitalIndex(content.substring(0, startIndex)), startIndex);
+            start = beforePassage.substring(lastCapitalIndex(beforePassage));
         }
 
-        String snippetContent = start + content.substring(startIndex);
+        String snippetContent = start + passage;
+
+        return snippetContent.substring(0, Math.min(SNIPPET_LENGTH, snippetContent.length())) + "...";
+    }
+
+    /**
+     * Returns the start of the passage of at most PASSAGE_BYTES bytes holding the most distinct query words, ties go
+     * to the passage with the most occurrences and then to the first one. wordPositions holds the sorted byte offsets
+     * of every query word.
+     */
+    private static int findPassage(int[][] wordPositions) {
+        int total = 0;
+        for (int[] positions : wordPositions) {
+            total += positions.length;
+        }
+        long[] occurrences = new long[total];
+        int n = 0;
+        for (int i = 0; i < wordPositions.length; i++) {
+            for (int position : wordPositions[i]) {
+                occurrences[n++] = ((long) position << 32) | i;
+            }
+        }
+        Arrays.sort(occurrences);
+        int[] counts = new int[wordPositions.length];
+        int distinct = 0, bestDistinct = 0, bestOccurrences = 0, bestStart = 0;
+        for (int first = 0, last = 0; last < total; last++) {
+            if (counts[(int) occurrences[last]]++ == 0) {
+                distinct++;
+            }
+            while ((occurrences[last] >>> 32) - (occurrences[first] >>> 32) > PASSAGE_BYTES) {
+                if (--counts[(int) occurrences[first++]] == 0) {
+                    distinct--;
+                }
+            }
+            if (distinct > bestDistinct || (distinct == bestDistinct && last - first + 1 > bestOccurrences)) {
+                bestDistinct = distinct;
+                bestOccurrences = last - first + 1;
+                bestStart = (int) (occurrences[first] >>> 32);
+            }
+        }
+        return bestStart;
+    }
 
-        return snippetContent.substring(0, Math.min(497, snippetContent.length())) + "...";
+    private static String decode(ByteBuffer bytes, int from, int to) {
+        // a window may start inside a UTF-8 character, its continuation bytes are skipped
+        while (from < to && (bytes.get(from) & 0xC0) == 0x80) {
+            from++;
+        }
+        byte[] byteArray = new byte[to - from];
+        ByteBuffer view = bytes.duplicate();
+        view.position(from);
+        view.get(byteArray);
+        return new String(byteArray, StandardCharsets.UTF_8);
     }
 
+    /**
+     * Sets the snippet of the result. When the document file has a positions sidecar only a window of bytes around
+     * the best passage of the query words is read, otherwise the whole document is searched for the words.
+     */
     public void generateSnippet(SearchResult sr, String[] words) {
-        URLMapping um = docIdToUrlMap.get(sr.getDocumentId());
-        try {
-            RandomAccessFile invertedIndexFile = new RandomAccessFile(um.getDocumentFileName(), "r");
-            invertedIndexFile.seek(um.getOffset());
-            byte[] byteArray = new byte[um.getSize()];
-            invertedIndexFile.read(byteArray);
-            String content = new String(byteArray);
-            String snippet = createSnippet(content, words);
-            sr.setSnippet(snippet);
-            invertedIndexFile.close();
-        } catch (IOException e) {
-            System.out.println("Unable to read file");
+        int docId = sr.getDocumentId();
+        String documentFileName = documentTable.getDocumentFileName(docId);
+        long offset = documentTable.getOffset(docId);
+        int size = documentTable.getSize(docId);
+        Positions positions = indexReader.positions(documentFileName);
+        int[][] wordPositions = (positions != null) ? positions.find(offset, words) : null;
+        if (wordPositions != null) {
+            int passageStart = findPassage(wordPositions);
+            int windowStart = Math.max(0, passageStart - SENTENCE_BYTES);
+            int windowEnd = (int) Math.min(size, (long) passageStart + SNIPPET_BYTES);
+            ByteBuffer window = indexReader.document(documentFileName, offset + windowStart, windowEnd - windowStart);
+            if (metrics != null) {
+                metrics.addDocumentBytesRead(window.remaining());
+            }
+            int passage = passageStart - windowStart;
+            sr.setSnippet(createSnippet(decode(window, 0, passage), decode(window, passage, window.limit())));
+            return;
+        }
+        ByteBuffer document = indexReader.document(documentFileName, offset, size);
+        if (metrics != null) {
+            metrics.addDocumentBytesRead(document.remaining());
+        }
+        byte[] byteArray = new byte[document.remaining()];
+        document.get(byteArray);
+        String content = new String(byteArray, StandardCharsets.UTF_8);
+        String snippet = createSnippet(content, words);
+        sr.setSnippet(snippet);
+    }
+
+    /**
+     * Adds the document to the result heap if it scores higher than the worst result. The SearchResult and the copy
+     * of the frequencies are only created for documents that enter the heap.
+     */
+    private void addResult(ResultHeap result, int docId, double score, int[] fdt) {
+        result.addDocumentScored();
+        if (result.size() == result.getCapacity()) {
+            if (result.peek().getScore() >= score) {
+                return;
+            }
+            result.poll();
+            result.addEviction();
+        }
+        List<Integer> frequencies = new ArrayList(fdt.length);
+        for (int frequency : fdt) {
+            frequencies.add(frequency);
         }
+        SearchResult sr = new SearchResult(null, docId, score, "snippet");
+        sr.setWordsFrequenciesList(frequencies);
+        result.add(sr);
+    }
+
+    private double scoreThreshold(ResultHeap result) {
+        return (result.size() == result.getCapacity()) ? result.peek().getScore() : Double.NEGATIVE_INFINITY;
+    }
+
+    private void sortByDocId(PostingList[] cursors) {
+        for (int i = 1; i < cursors.length; i++) {
+            PostingList cursor = cursors[i];
+            int j = i - 1;
+            while (j >= 0 && cursors[j].docId() > cursor.docId()) {
+                cursors[j + 1] = cursors[j];
+                j--;
+            }
+            cursors[j + 1] = cursor;
+        }
+    }
 
+    /**
+     * Block-Max WAND evaluation of a conjunctive query. Returns the same documents as findConjunctiveResults but
+     * skips every document whose term or block score bounds show that it cannot enter the result heap.
+     */
+    public void findConjunctiveResultsWithPruning(List<PostingList> postingLists, ResultHeap result) {
+        double[] idfs = termIdfs(postingLists);
+        int[] fdt = new int[postingLists.size()];
+        List<PostingList> nonEmptyLists = new ArrayList();
+        for (PostingList pl : postingLists) {
+            if (pl != null && pl.docId() != PostingList.END) {
+                nonEmptyLists.add(pl);
+            }
+        }
+        PostingList[] cursors = nonEmptyLists.toArray(new PostingList[nonEmptyLists.size()]);
+        while (true) {
+            sortByDocId(cursors);
+            double threshold = scoreThreshold(result);
+            double bound = 0;
+            int pivot = -1;
+            for (int i = 0; i < cursors.length && cursors[i].docId() != PostingList.END; i++) {
+                bound += cursors[i].getMaxScore();
+                if (bound + SCORE_EPSILON > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) {
+                break;
+            }
+            int pivotDoc = cursors[pivot].docId();
+            while (pivot + 1 < cursors.length && cursors[pivot + 1].docId() == pivotDoc) {
+                pivot++;
+            }
+            double blockBound = 0;
+            int blocksEnd = PostingList.END;
+            for (int i = 0; i <= pivot; i++) {
+                cursors[i].shallowNextGEQ(pivotDoc);
+                blockBound += cursors[i].getBlockMaxScore();
+                blocksEnd = Math.min(blocksEnd, cursors[i].getBlockLastDocId());
+            }
+            if (blockBound + SCORE_EPSILON > threshold) {
+                if (cursors[0].docId() == pivotDoc) {
+                    for (int i = 0; i < fdt.length; i++) {
+                        PostingList pl = postingLists.get(i);
+                        fdt[i] = (pl != null && pl.docId() == pivotDoc) ? pl.freq() : 0;
+                    }
+                    addResult(result, pivotDoc, calculateBM25(idfs, fdt, pivotDoc), fdt);
+                    for (int i = 0; i <= pivot; i++) {
+                        cursors[i].next();
+                    }
+                } else {
+                    for (int i = 0; cursors[i].docId() < pivotDoc; i++) {
+                        cursors[i].nextGEQ(pivotDoc);
+                    }
+                }
+            } else {
+                // no document up to the end of the shortest current block can beat the threshold
+                int nextDoc = (blocksEnd == PostingList.END) ? PostingList.END : blocksEnd + 1;
+                if (pivot + 1 < cursors.length) {
+                    nextDoc = Math.min(nextDoc, cursors[pivot + 1].docId());
+                }
+                for (int i = 0; i <= pivot; i++) {
+                    cursors[i].nextGEQ(nextDoc);
+                }
+            }
+        }
     }
 
-    public void findConjunctiveResults(List<PostingList> postingLists, PriorityQueue<SearchResult> result) {
-        HashMap<Integer, Integer[]> distinctDocIdsFreqMap = new HashMap();
-        ArrayList<Integer> ft = new ArrayList();
-        for (int i = 0; i < postingLists.size(); i++) {
+    public void findConjunctiveResults(List<PostingList> postingLists, ResultHeap result) {
+        // every distinct docID gets a row of postingLists.size() frequencies in docIdsFreqs
+        int terms = postingLists.size();
+        QueryScratch queryScratch = scratch.get();
+        IntIntMap docIdRows = queryScratch.getAccumulators();
+        IntArrayList rowDocIds = queryScratch.getDocIds();
+        IntArrayList docIdsFreqs = queryScratch.getFrequencies();
+        for (int i = 0; i < terms; i++) {
             PostingList pl = postingLists.get(i);
-            ft.add(pl.getDocIdsSize());
-            Integer d = new Integer(0);
-            while ((d = pl.nextGEQ(d)) != null) {
-                if (!distinctDocIdsFreqMap.containsKey(d)) {
-                    Integer[] intArray = new Integer[postingLists.size()];
-                    for (int j = 0; j < intArray.length; j++) {
-                        intArray[j] = 0;
+            if (pl == null) {
+                continue;
+            }
+            for (int d = pl.docId(); d != PostingList.END; d = pl.next()) {
+                int row = docIdRows.get(d, -1);
+                if (row < 0) {
+                    row = rowDocIds.size();
+                    docIdRows.put(d, row);
+                    rowDocIds.add(d);
+                    for (int j = 0; j < terms; j++) {
+                        docIdsFreqs.add(0);
                     }
-                    distinctDocIdsFreqMap.put(d, intArray);
                 }
-                Integer[] postingFreqs = distinctDocIdsFreqMap.get(d);
-                postingFreqs[i] = pl.getFreq();
-                d++;
+                docIdsFreqs.set(row * terms + i, pl.freq());
+            }
+        }
+
+        double[] idfs = termIdfs(postingLists);
+        int[] fdt = new int[terms];
+        for (int row = 0; row < rowDocIds.size(); row++) {
+            int did = rowDocIds.get(row);
+            for (int i = 0; i < terms; i++) {
+                fdt[i] = docIdsFreqs.get(row * terms + i);
             }
+            addResult(result, did, calculateBM25(idfs, fdt, did), fdt);
         }
+    }
 
-        for (Integer did : distinctDocIdsFreqMap.keySet()) {
-            ArrayList<Integer> fdt = new ArrayList();
-            for (Integer freq : distinctDocIdsFreqMap.get(did)) {
-                fdt.add(freq);
+    /**
+     * Score-at-a-time evaluation of a conjunctive query on the impact index. The segments of all the terms are
+     * processed from the highest impact down, adding their impact to the accumulator of every document. Impacts are
+     * rounded up, so the exact score of a document lies between its final accumulator minus one level per term and
+     * its final accumulator. Processing stops once the impacts left cannot lift an unseen document to the lower bound
+     * of the current top totalResults, which TopAccumulators keeps as the accumulators grow, or when the postings
+     * budget is spent. Every document whose accumulator could
+     * still reach that bound is then scored exactly on the docID ordered postingLists.
+     */
+    public void findConjunctiveResultsScoreAtATime(List<String> terms, List<PostingList> postingLists,
+            ResultHeap result) {
+        List<ImpactList> impactLists = new ArrayList();
+        int totalSegments = 0, roundingSlack = 0;
+        for (String term : terms) {
+            ImpactList il = impactIndex.get(term);
+            impactLists.add(il);
+            if (il != null) {
+                totalSegments += il.getSegments();
+                roundingSlack++;
             }
-            URLMapping um = docIdToUrlMap.get(did);
-            SearchResult sr = new SearchResult(um.getUrl(), did, calculateBM25(ft, fdt, um.getTotalTermsCount()),
-                    "snippet");
-            sr.setWordsFrequenciesList(fdt);
+        }
+        // impact, term and segment of every segment, sorted so that the highest impacts come last
+        long[] segments = new long[totalSegments];
+        int[] remainingImpacts = new int[terms.size()];
+        int remainingImpact = 0;
+        for (int t = 0, n = 0; t < impactLists.size(); t++) {
+            ImpactList il = impactLists.get(t);
+            for (int s = 0; il != null && s < il.getSegments(); s++) {
+                segments[n++] = ((long) il.getImpact(s) << 40) | ((long) t << 16) | s;
+            }
+            remainingImpacts[t] = (il != null && il.getSegments() > 0) ? il.getImpact(0) : 0;
+            remainingImpact += remainingImpacts[t];
+        }
+        Arrays.sort(segments);
 
-            if (result.size() == totalResults) {
-                if (result.peek().getScore() < sr.getScore()) {
-                    result.poll();
-                    result.add(sr);
+        QueryScratch queryScratch = scratch.get();
+        IntIntMap accumulators = queryScratch.getAccumulators();
+        IntArrayList candidates = queryScratch.getDocIds();
+        TopAccumulators topAccumulators = queryScratch.getTopAccumulators(totalResults);
+        int[] docIds = new int[IndexFormat.BLOCK_SIZE];
+        long processedPostings = 0;
+        for (int n = segments.length - 1; n >= 0 && processedPostings < impactPostingsBudget; n--) {
+            int t = (int) ((segments[n] >>> 16) & 0xFFFFFF);
+            int s = (int) (segments[n] & 0xFFFF);
+            ImpactList il = impactLists.get(t);
+            int impact = il.getImpact(s);
+            int count = il.getCount(s);
+            if (docIds.length < count) {
+                docIds = new int[count];
+            }
+            il.decodeSegment(s, docIds);
+            for (int i = 0; i < count; i++) {
+                int accumulator = accumulators.increment(docIds[i], impact);
+                if (accumulator == impact) {
+                    candidates.add(docIds[i]);
                 }
-            } else {
-                result.add(sr);
+                topAccumulators.update(docIds[i], accumulator);
+            }
+            processedPostings += count;
+            remainingImpact -= remainingImpacts[t];
+            remainingImpacts[t] = (s + 1 < il.getSegments()) ? il.getImpact(s + 1) : 0;
+            remainingImpact += remainingImpacts[t];
+            if (topAccumulators.isFull() && remainingImpact <= topAccumulators.getThreshold() - roundingSlack) {
+                break;
+            }
+        }
+
+        int lowerBound = topAccumulators.isFull() ? topAccumulators.getThreshold() - roundingSlack : 0;
+        IntArrayList rescored = new IntArrayList();
+        for (int c = 0; c < candidates.size(); c++) {
+            if (accumulators.get(candidates.get(c), 0) + remainingImpact >= lowerBound) {
+                rescored.add(candidates.get(c));
+            }
+        }
+        int[] rescoredDocIds = rescored.toArray();
+        Arrays.sort(rescoredDocIds);
+        double[] idfs = termIdfs(postingLists);
+        int[] fdt = new int[postingLists.size()];
+        for (int docId : rescoredDocIds) {
+            for (int i = 0; i < fdt.length; i++) {
+                PostingList pl = postingLists.get(i);
+                fdt[i] = (pl != null && pl.nextGEQ(docId) == docId) ? pl.freq() : 0;
+            }
+            addResult(result, docId, calculateBM25(idfs, fdt, docId), fdt);
+        }
+    }
+
+    /**
+     * Terms with a negative idf are left out of the impact index, queries holding one are evaluated on the docID
+     * ordered index.
+     */
+    private Boolean canScoreAtATime(List<String> terms, List<PostingList> postingLists) {
+        if (!scoreAtATime || impactIndex == null || averageLength != null
+                || terms.size() > SCORE_AT_A_TIME_MAX_TERMS) {
+            return false;
+        }
+        for (PostingList pl : postingLists) {
+            if (pl != null && pl.getIdf() <= 0) {
+                return false;
             }
         }
+        return true;
     }
 
-    public void findDisjunctiveResults(List<PostingList> postingLists, PriorityQueue<SearchResult> result) {
-        Integer did = new Integer(0), d = new Integer(-1);
-        ArrayList<Integer> ft = new ArrayList();
+    public void findDisjunctiveResults(List<PostingList> postingLists, ResultHeap result) {
         for (PostingList currentPL : postingLists) {
-            ft.add(currentPL.getDocIdsSize());
+            if (currentPL == null) {
+                return;
+            }
         }
-        while (did != null && postingLists.size() > 0) {
-            did = postingLists.get(0).nextGEQ(did);
-            for (int i = 1; i < postingLists.size(); i++) {
-                if (postingLists.get(i) == null) {
-                    return;
-                }
+        if (postingLists.isEmpty()) {
+            return;
+        }
+        double[] idfs = termIdfs(postingLists);
+        int[] fdt = new int[postingLists.size()];
+        PostingList first = postingLists.get(0);
+        int did = first.docId();
+        while (did != PostingList.END) {
+            int d = did;
+            for (int i = 1; i < postingLists.size() && d == did; i++) {
                 d = postingLists.get(i).nextGEQ(did);
-                if (d != null && d.equals(did)) {
-                    continue;
-                } else {
-                    break;
-                }
             }
-            ;
-            if (d == null || did == null)
+            if (d == PostingList.END) {
                 break;
-            if (d > did)
-                did = d;
-            else {
-                // get frequencies and calcuate BM25
-                ArrayList<Integer> fdt = new ArrayList();
-                for (int i = 0; i < postingLists.size(); i++) {
-                    fdt.add(postingLists.get(i).getFreq());
-                }
-                URLMapping um = docIdToUrlMap.get(did);
-                SearchResult sr = new SearchResult(um.getUrl(), did, calculateBM25(ft, fdt, um.getTotalTermsCount()),
-                        "snippet");
-                sr.setWordsFrequenciesList(fdt);
-                if (result.size() == totalResults) {
-                    if (result.peek().getScore() < sr.getScore()) {
-                        result.poll();
-                        result.add(sr);
-                    }
-                } else {
-                    result.add(sr);
-                }
-                did++;
             }
+            if (d > did) {
+                did = first.nextGEQ(d);
+                continue;
+            }
+            // get frequencies and calcuate BM25
+            for (int i = 0; i < fdt.length; i++) {
+                fdt[i] = postingLists.get(i).freq();
+            }
+            addResult(result, did, calculateBM25(idfs, fdt, did), fdt);
+            did = first.next();
         }
+    }
 
+    /**
+     * Opens a cursor over the postings of a term, from the posting list cache when the term is in it. Terms that miss
+     * are decoded into the cache once the cache admits them, unless their postings are too large for it, the other
+     * ones are read block by block from the index.
+     */
+    private PostingList openPostingList(String term, Posting p, double idf) {
+        PostingList pl = new PostingList();
+        CachedPostings cached = (postingsCache != null) ? postingsCache.get(term) : null;
+        if (cached == null && postingsCache != null && CachedPostings.weight(p.getCount())
+                <= postingsCache.getCapacity() / POSTINGS_CACHE_MAX_SHARE && postingsCache.admit(term)) {
+            cached = CachedPostings.decode(indexReader.postings(p.getOffset(), p.getSize()), p.getCount(), codec);
+            postingsCache.put(term, cached);
+            if (metrics != null) {
+                metrics.addPostingsRead(p.getSize(), p.getCount());
+            }
+        }
+        if (cached != null) {
+            pl.createPostings(cached, p.getCount());
+        } else {
+            pl.createPostings(indexReader.postings(p.getOffset(), p.getSize()), p.getCount(), codec);
+            if (metrics != null) {
+                metrics.addPostingsRead(p.getSize(), 0);
+            }
+        }
+        if (averageLength != null) {
+            double segmentIdf = BM25.idf(documentTable.size(), p.getCount());
+            double maxTf = (segmentIdf > 0) ? p.getMaxScore() / segmentIdf : BM25.K1 + 1;
+            maxTf = Math.min(BM25.K1 + 1, maxTf * normBoundScale);
+            pl.setScoreBounds(idf, (idf > 0) ? idf * maxTf : 0, normBoundScale);
+        } else {
+            pl.setScoreBounds(idf, p.getMaxScore());
+        }
+        return pl;
     }
 
-    public List<SearchResult> getSearchResults(String keyword, String queryType) {
-        PriorityQueue<SearchResult> result = new PriorityQueue();
-        String[] words = keyword.split(" ");
-        List<PostingList> postingLists = new ArrayList();
-        for (String word : words) {
-            if (word.length() == 0) {
+    /**
+     * Number of documents of this index that contain the term.
+     */
+    public int getDocumentFrequency(String term) {
+        Posting p = lexicon.get(term);
+        return (p != null) ? p.getCount() : 0;
+    }
+
+    private void findResults(List<PostingList> postingLists, String queryType, ResultHeap result) {
+        switch (queryType) {
+        case "conjunctive":
+            if (dynamicPruning) {
+                findConjunctiveResultsWithPruning(postingLists, result);
+            } else {
+                findConjunctiveResults(postingLists, result);
+            }
+            break;
+        case "disjunctive":
+            findDisjunctiveResults(postingLists, result);
+        }
+    }
+
+    /**
+     * Evaluates the query on the tier index and returns its top results when they are the top results of the full
+     * index, null when the query has to be evaluated on the full index. The posting lists opened are added to
+     * postingLists. A term whose tier list is truncated has no posting left out scoring more than its left out bound,
+     * idf times the best tf normalization left out.
+     *
+     * The documents the tier finds for a disjunctive query have all their postings in the tier, so their scores are
+     * exact, and any other document misses at least one truncated list: the results hold when the last one scores more
+     * than the best such document can, its left out bound plus the max scores of the other terms.
+     *
+     * For a conjunctive query the tier keeps TIER_CANDIDATES times more candidates, scored on the tier postings only,
+     * and the candidates are rescored exactly with the full lists of the truncated terms. A document that is not a
+     * candidate scores at most the last candidate's tier score, or 0 when the candidates are all the documents of the
+     * tier, plus the left out bounds of the truncated terms, the results hold when the last one scores more.
+     */
+    private ResultHeap findTierResults(List<String> terms, Posting[] postings, double[] idfs, String queryType,
+            List<PostingList> postingLists) {
+        List<PostingList> tierLists = new ArrayList();
+        double[] leftOutBounds = new double[terms.size()];
+        int truncatedTerms = 0;
+        for (int i = 0; i < terms.size(); i++) {
+            Posting p = postings[i];
+            if (p == null && queryType.equals("disjunctive")) {
+                return new ResultHeap(totalResults);
+            }
+            if (p == null) {
+                tierLists.add(null);
                 continue;
             }
-            PostingList pl = null;
-            Posting p = lexiconMap.get(word);
-            if (p != null) {
-                Integer offset = p.getOffset();
-                Integer size = p.getSize();
-                pl = new PostingList();
-                pl.createPostings(invertedIndexPath, offset, size);
+            Posting tp = tierIndex.get(terms.get(i));
+            if (tp == null || idfs[i] <= 0) {
+                return null;
+            }
+            PostingList pl = new PostingList();
+            pl.createPostings(tierIndex.postings(tp.getOffset(), tp.getSize()), tp.getCount(), tierIndex.getCodec());
+            pl.setScoreBounds(idfs[i], p.getMaxScore());
+            if (metrics != null) {
+                metrics.addPostingsRead(tp.getSize(), 0);
             }
+            tierLists.add(pl);
             postingLists.add(pl);
+            if (tp.getCount() < p.getCount()) {
+                leftOutBounds[i] = idfs[i] * tp.getMaxScore();
+                truncatedTerms++;
+            }
+        }
+        if (truncatedTerms == 0) {
+            ResultHeap result = new ResultHeap(totalResults);
+            findResults(tierLists, queryType, result);
+            return result;
         }
         switch (queryType) {
         case "conjunctive":
-            findConjunctiveResults(postingLists, result);
-            break;
+            return findTierConjunctiveResults(terms, postings, idfs, tierLists, leftOutBounds, postingLists);
         case "disjunctive":
-            findDisjunctiveResults(postingLists, result);
+            ResultHeap result = new ResultHeap(totalResults);
+            findDisjunctiveResults(tierLists, result);
+            double maxScores = 0;
+            for (PostingList pl : tierLists) {
+                maxScores += (pl != null) ? pl.getMaxScore() : 0;
+            }
+            double missedBound = 0;
+            for (int i = 0; i < terms.size(); i++) {
+                if (leftOutBounds[i] > 0) {
+                    missedBound = Math.max(missedBound, maxScores - tierLists.get(i).getMaxScore() + leftOutBounds[i]);
+                }
+            }
+            return (scoreThreshold(result) > missedBound + SCORE_EPSILON) ? result : null;
+        default:
+            return new ResultHeap(totalResults);
+        }
+    }
+
+    private ResultHeap findTierConjunctiveResults(List<String> terms, Posting[] postings, double[] idfs,
+            List<PostingList> tierLists, double[] leftOutBounds, List<PostingList> postingLists) {
+        ResultHeap candidates = new ResultHeap(totalResults * TIER_CANDIDATES);
+        findResults(tierLists, "conjunctive", candidates);
+        double bound = (candidates.size() == candidates.getCapacity()) ? candidates.peek().getScore() : 0;
+        List<PostingList> fullLists = new ArrayList();
+        for (int i = 0; i < terms.size(); i++) {
+            bound += leftOutBounds[i];
+            PostingList pl = (leftOutBounds[i] > 0) ? openPostingList(terms.get(i), postings[i], idfs[i]) : null;
+            fullLists.add(pl);
+            if (pl != null) {
+                postingLists.add(pl);
+            }
+        }
+        SearchResult[] sorted = candidates.toArray(new SearchResult[candidates.size()]);
+        Arrays.sort(sorted, Comparator.comparing(SearchResult::getDocumentId));
+        ResultHeap result = new ResultHeap(totalResults);
+        int[] fdt = new int[terms.size()];
+        for (SearchResult sr : sorted) {
+            int docId = sr.getDocumentId();
+            List<Integer> tierFrequencies = sr.getWordsFrequenciesList();
+            for (int i = 0; i < fdt.length; i++) {
+                PostingList pl = fullLists.get(i);
+                fdt[i] = tierFrequencies.get(i);
+                if (fdt[i] == 0 && pl != null && pl.nextGEQ(docId) == docId) {
+                    fdt[i] = pl.freq();
+                }
+            }
+            addResult(result, docId, calculateBM25(idfs, fdt, docId), fdt);
+        }
+        return (scoreThreshold(result) > bound + SCORE_EPSILON) ? result : null;
+    }
+
+    /**
+     * Returns the top results of the terms by decreasing score, without their URLs and snippets. idfs holds the idf
+     * of every term when it comes from statistics over more than this index, such as those of a ShardedQuery, when it
+     * is null the idfs of this index are used.
+     */
+    public List<SearchResult> findTopResults(List<String> terms, double[] idfs, String queryType) {
+        long startTime = System.nanoTime();
+        Posting[] postings = new Posting[terms.size()];
+        double[] termIdfs = new double[terms.size()];
+        for (int i = 0; i < terms.size(); i++) {
+            postings[i] = lexicon.get(terms.get(i));
+            if (postings[i] != null) {
+                termIdfs[i] = (idfs != null) ? idfs[i] : BM25.idf(documentTable.size(), postings[i].getCount());
+            }
         }
-        List<SearchResult> finalListOfUrls = new ArrayList();
+        long lexiconTime = System.nanoTime();
+        List<PostingList> postingLists = new ArrayList();
+        ResultHeap result = null;
+        if (tierIndex != null && averageLength == null) {
+            result = findTierResults(terms, postings, termIdfs, queryType, postingLists);
+            if (metrics != null) {
+                metrics.recordTier(result != null);
+            }
+        }
+        long tierTime = System.nanoTime();
+        long postingsTime = tierTime;
+        if (result == null) {
+            result = new ResultHeap(totalResults);
+            List<PostingList> fullPostingLists = new ArrayList();
+            for (int i = 0; i < terms.size(); i++) {
+                Posting p = postings[i];
+                fullPostingLists.add((p != null) ? openPostingList(terms.get(i), p, termIdfs[i]) : null);
+            }
+            postingsTime = System.nanoTime();
+            if (queryType.equals("conjunctive") && canScoreAtATime(terms, fullPostingLists)) {
+                findConjunctiveResultsScoreAtATime(terms, fullPostingLists, result);
+            } else {
+                findResults(fullPostingLists, queryType, result);
+            }
+            postingLists.addAll(fullPostingLists);
+        }
+        if (metrics != null) {
+            long evaluationTime = System.nanoTime();
+            metrics.recordTopResults(lexiconTime - startTime, postingsTime - tierTime,
+                    evaluationTime - postingsTime + tierTime - lexiconTime, postingLists, result);
+        }
+        List<SearchResult> topResults = new ArrayList();
         while (result.size() > 0) {
-            SearchResult sr = result.poll();
-            generateSnippet(sr, words);
-            finalListOfUrls.add(sr);
+            topResults.add(result.poll());
+        }
+        Collections.sort(topResults, Collections.reverseOrder());
+        return topResults;
+    }
+
+    /**
+     * Sets the URL and the snippet of the results, which are only read for the final results of a query. With
+     * parallel snippets the results are completed on the snippet pool.
+     */
+    public void completeResults(List<SearchResult> results, String[] words) {
+        long startTime = System.nanoTime();
+        if (snippetExecutor == null || results.size() < 2) {
+            for (SearchResult sr : results) {
+                completeResult(sr, words);
+            }
+        } else {
+            completeResultsInParallel(results, words);
+        }
+        if (metrics != null) {
+            metrics.recordSnippets(System.nanoTime() - startTime);
+        }
+    }
+
+    private void completeResultsInParallel(List<SearchResult> results, String[] words) {
+        List<Future<?>> snippets = new ArrayList();
+        for (SearchResult sr : results) {
+            snippets.add(snippetExecutor.submit(() -> completeResult(sr, words)));
+        }
+        try {
+            for (Future<?> snippet : snippets) {
+                snippet.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating snippets");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Snippet generation failed", e.getCause());
+        }
+    }
+
+    private void completeResult(SearchResult sr, String[] words) {
+        sr.setUrl(documentTable.getUrl(sr.getDocumentId()));
+        generateSnippet(sr, words);
+    }
+
+    public Integer getTotalResults() {
+        return totalResults;
+    }
+
+    public int getTotalDocuments() {
+        return documentTable.size();
+    }
+
+    public long getTotalDocumentsTerms() {
+        return documentTable.getTotalDocumentsTerms();
+    }
+
+    /**
+     * Returns the top results of the query. Queries are cached by their type, the number of results and their terms
+     * separated by single spaces, the results of a cached query are shared and must not be modified.
+     */
+    public List<SearchResult> getSearchResults(String keyword, String queryType) {
+        long startTime = System.nanoTime();
+        List<SearchResult> results = findSearchResults(keyword, queryType);
+        if (metrics != null) {
+            metrics.recordQuery(System.nanoTime() - startTime);
+        }
+        return results;
+    }
+
+    private List<SearchResult> findSearchResults(String keyword, String queryType) {
+        String[] words = keyword.split(" ");
+        List<String> terms = new ArrayList();
+        for (String word : words) {
+            if (word.length() > 0) {
+                terms.add(word);
+            }
+        }
+        String cacheKey = queryType + " " + totalResults + " " + String.join(" ", terms);
+        if (resultCache != null) {
+            List<SearchResult> cachedResults = resultCache.get(cacheKey);
+            if (cachedResults != null) {
+                return new ArrayList(cachedResults);
+            }
+        }
+        List<SearchResult> finalListOfUrls = findTopResults(terms, null, queryType);
+        completeResults(finalListOfUrls, words);
+        if (resultCache != null) {
+            resultCache.put(cacheKey, finalListOfUrls);
+            return new ArrayList(finalListOfUrls);
         }
-        Collections.sort(finalListOfUrls, Collections.reverseOrder());
 
         return finalListOfUrls;
     }
 
+    /**
+     * Opens the index files of the current directory with the evaluation options of the command line, --exhaustive,
+     * --score-at-a-time, --tier-index, --no-cache, --sequential-snippets and --no-metrics. Returns null when the index
+     * cannot be opened.
+     */
+    public static Query open(List<String> arguments) {
+        return open(".", "./document_table.bin", "./documents", arguments);
+    }
+
+    /**
+     * Maps the documents of documentsPath for the Query objects of the shards or segments of a collection, see
+     * open(String, String, IndexReader, List). Document files that cannot be read are skipped.
+     */
+    public static IndexReader openDocuments(String documentsPath) {
+        return new IndexReader(documentsPath);
+    }
+
+    /**
+     * Maps the documents of the given subdirectories of documentsPath only, see openDocuments(String).
+     */
+    public static IndexReader openDocuments(String documentsPath, List<String> subdirectories) {
+        return new IndexReader(documentsPath, subdirectories);
+    }
+
+    /**
+     * Opens the inverted index, lexicon, impact index and tier index of indexDirectory, which is the current
+     * directory, a shard or a segment directory, with the given document table and documents.
+     */
+    public static Query open(String indexDirectory, String documentTablePath, String documentsPath,
+            List<String> arguments) {
+        return open(indexDirectory, documentTablePath, openDocuments(documentsPath), arguments);
+    }
+
+    /**
+     * Opens the index of indexDirectory with documents read by the shared documents reader of openDocuments.
+     */
+    public static Query open(String indexDirectory, String documentTablePath, IndexReader documents,
+            List<String> arguments) {
+        Query query = new Query(10, indexDirectory + "/invertedIndex", documents);
+        query.setDynamicPruning(!arguments.contains("--exhaustive"));
+        query.setParallelSnippets(!arguments.contains("--sequential-snippets"));
+        if (!query.isIndexFormatSupported()) {
+            System.out.println("Unsupported inverted index format, rebuild it with InvertedIndex");
+            return null;
+        }
+        if (!query.openLexicon(indexDirectory + "/lexicon.bin")) {
+            return null;
+        }
+        if (!query.openDocumentTable(documentTablePath)) {
+            return null;
+        }
+        if (arguments.contains("--score-at-a-time")) {
+            query.setScoreAtATime(query.openImpactIndex(indexDirectory + "/impactIndex",
+                    indexDirectory + "/impactLexicon.bin"));
+        }
+        if (arguments.contains("--tier-index")) {
+            query.openTierIndex(indexDirectory + "/tierIndex", indexDirectory + "/tierLexicon.bin");
+        }
+        if (!arguments.contains("--no-cache")) {
+            query.setCaches(RESULT_CACHE_ENTRIES, POSTINGS_CACHE_BYTES);
+        }
+        if (arguments.contains("--no-metrics")) {
+            query.setMetrics(null);
+        }
+        return query;
+    }
+
     public static void main(String[] args) throws IOException {
-        Query query = new Query(10, "./invertedIndex");
-        query.buildLexicon("./lexicon.gz");
-        query.buildDocIdsToUrlMapping("./url_doc_mapping.gz");
+        Query query = open(Arrays.asList(args));
+        if (query == null) {
+            return;
+        }
 
         while (true) {
             BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
             System.out.print("Enter query or enter exit to quit : ");
             String input = br.readLine();
             if (input.equals("exit")) {
+                if (query.getMetrics() != null) {
+                    System.out.println("Metrics =" + query.getMetrics().toJson());
+                }
                 break;
             }
             System.out.print("Enter type of query(conjunctive or disjunctive) : ");
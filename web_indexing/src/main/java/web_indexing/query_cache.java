@@ -0,0 +1,290 @@
+package web_indexing;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Segmented LRU cache bounded by the total weight of its values. New entries go to the probation segment and move to
+ * the protected segment on their second hit, the least recently used protected entries are demoted back to probation
+ * when the protected segment is full. Eviction takes the least recently used probation entry first, so a burst of one
+ * time keys cannot push the frequently used ones out. With setAdmission a key is admitted on its second miss only, as
+ * in TinyLFU, so keys that are used once are never loaded into the cache.
+ *
+ * All methods are synchronized. Values are loaded by the caller outside of the lock, two threads missing on the same
+ * key both load it and the last put wins.
+ */
+class SegmentedLruCache<K, V> {
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private LinkedHashMap<K, V> probation;
+    private LinkedHashMap<K, V> protectedEntries;
+    private ToLongFunction<V> weigher;
+    private long capacity;
+    private long protectedCapacity;
+    private long probationWeight;
+    private long protectedWeight;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private FrequencySketch admissionSketch;
+
+    SegmentedLruCache(long capacity, ToLongFunction<V> weigher) {
+        this.probation = new LinkedHashMap(16, 0.75f, true);
+        this.protectedEntries = new LinkedHashMap(16, 0.75f, true);
+        this.weigher = weigher;
+        this.capacity = capacity;
+        this.protectedCapacity = (long) (capacity * PROTECTED_RATIO);
+    }
+
+    public synchronized V get(K key) {
+        V value = protectedEntries.get(key);
+        if (value != null) {
+            hits++;
+            return value;
+        }
+        value = probation.remove(key);
+        if (value == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        long weight = weigher.applyAsLong(value);
+        probationWeight -= weight;
+        protectedEntries.put(key, value);
+        protectedWeight += weight;
+        while (protectedWeight > protectedCapacity) {
+            Map.Entry<K, V> eldest = removeEldest(protectedEntries);
+            long eldestWeight = weigher.applyAsLong(eldest.getValue());
+            protectedWeight -= eldestWeight;
+            probation.put(eldest.getKey(), eldest.getValue());
+            probationWeight += eldestWeight;
+        }
+        return value;
+    }
+
+    /**
+     * Counts the misses of every key in a frequency sketch of sketchWidth counters per row, see admit.
+     */
+    public synchronized void setAdmission(int sketchWidth) {
+        admissionSketch = new FrequencySketch(sketchWidth);
+    }
+
+    /**
+     * Records a miss on the key and returns whether its value should be loaded and put, which is on the second recent
+     * miss of the key when admission is set and always otherwise.
+     */
+    public synchronized Boolean admit(K key) {
+        return admissionSketch == null || admissionSketch.increment(key) >= 2;
+    }
+
+    /**
+     * Adds the value to the probation segment, values heavier than the whole cache are not kept.
+     */
+    public synchronized void put(K key, V value) {
+        long weight = weigher.applyAsLong(value);
+        if (weight > capacity) {
+            return;
+        }
+        V previous = protectedEntries.remove(key);
+        if (previous != null) {
+            protectedWeight -= weigher.applyAsLong(previous);
+        }
+        previous = probation.put(key, value);
+        if (previous != null) {
+            probationWeight -= weigher.applyAsLong(previous);
+        }
+        probationWeight += weight;
+        evict();
+    }
+
+    private void evict() {
+        while (probationWeight + protectedWeight > capacity) {
+            LinkedHashMap<K, V> segment = probation.isEmpty() ? protectedEntries : probation;
+            long weight = weigher.applyAsLong(removeEldest(segment).getValue());
+            if (segment == probation) {
+                probationWeight -= weight;
+            } else {
+                protectedWeight -= weight;
+            }
+            evictions++;
+        }
+    }
+
+    private static <K, V> Map.Entry<K, V> removeEldest(LinkedHashMap<K, V> segment) {
+        Iterator<Map.Entry<K, V>> iterator = segment.entrySet().iterator();
+        Map.Entry<K, V> eldest = iterator.next();
+        iterator.remove();
+        return eldest;
+    }
+
+    public synchronized void clear() {
+        probation.clear();
+        protectedEntries.clear();
+        probationWeight = 0;
+        protectedWeight = 0;
+    }
+
+    public synchronized int size() {
+        return probation.size() + protectedEntries.size();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getWeight() {
+        return probationWeight + protectedWeight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "entries=" + size() + " weight=" + getWeight() + " hits=" + hits + " misses=" + misses
+                + " evictions=" + evictions;
+    }
+}
+
+/**
+ * Count-min sketch of recent key frequencies with counters capped at 15, the admission filter of TinyLFU. Every counter
+ * is halved after ten times as many increments as a row has counters, so the sketch forgets keys no longer used.
+ */
+class FrequencySketch {
+    private static final int ROWS = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private byte[][] counters;
+    private int mask;
+    private int increments;
+    private int sampleSize;
+
+    FrequencySketch(int width) {
+        width = Integer.highestOneBit(Math.max(width, 16) * 2 - 1);
+        counters = new byte[ROWS][width];
+        mask = width - 1;
+        sampleSize = 10 * width;
+    }
+
+    private int slot(int hash, int row) {
+        int h = hash * SEEDS[row];
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Counts one more occurrence of the key and returns its estimated count.
+     */
+    public int increment(Object key) {
+        int hash = key.hashCode();
+        int count = MAX_COUNT;
+        for (int row = 0; row < ROWS; row++) {
+            count = Math.min(count, counters[row][slot(hash, row)]);
+        }
+        if (count < MAX_COUNT) {
+            count++;
+            // conservative update, only the counters at the minimum grow
+            for (int row = 0; row < ROWS; row++) {
+                int slot = slot(hash, row);
+                if (counters[row][slot] < count) {
+                    counters[row][slot] = (byte) count;
+                }
+            }
+        }
+        if (++increments == sampleSize) {
+            for (byte[] row : counters) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+            increments = 0;
+        }
+        return count;
+    }
+}
+
+/**
+ * Fully decoded postings of one term, kept in the posting list cache of Query and shared read only by the PostingList
+ * cursors of concurrent queries. The docIDs and frequencies of block b start at b * IndexFormat.BLOCK_SIZE.
+ */
+class CachedPostings {
+    private static final int OVERHEAD = 64;
+
+    private int[] docIds;
+    private int[] frequencies;
+    private int[] blockLastDocIds;
+    private int[] blockMaxImpacts;
+
+    private CachedPostings(int count, int blocks) {
+        docIds = new int[count];
+        frequencies = new int[count];
+        blockLastDocIds = new int[blocks];
+        blockMaxImpacts = new int[blocks];
+    }
+
+    /**
+     * Decodes the count postings of a term in the block format of IndexFormat, encoded with codec.
+     */
+    public static CachedPostings decode(ByteBuffer postings, int count, PostingCodec codec) {
+        int blocks = (count + IndexFormat.BLOCK_SIZE - 1) / IndexFormat.BLOCK_SIZE;
+        CachedPostings cached = new CachedPostings(count, blocks);
+        for (int i = 0; i < blocks; i++) {
+            cached.blockLastDocIds[i] = VarByte.decode(postings);
+            VarByte.decode(postings);
+            cached.blockMaxImpacts[i] = VarByte.decode(postings);
+        }
+        int[] values = new int[IndexFormat.BLOCK_SIZE];
+        int docId = 0;
+        for (int start = 0; start < count; start += IndexFormat.BLOCK_SIZE) {
+            int length = Math.min(IndexFormat.BLOCK_SIZE, count - start);
+            codec.decode(postings, values, length);
+            for (int i = 0; i < length; i++) {
+                docId += values[i];
+                cached.docIds[start + i] = docId;
+            }
+            codec.decode(postings, values, length);
+            System.arraycopy(values, 0, cached.frequencies, start, length);
+        }
+        return cached;
+    }
+
+    /**
+     * Bytes the decoded postings of count documents take in memory.
+     */
+    public static long weight(int count) {
+        int blocks = (count + IndexFormat.BLOCK_SIZE - 1) / IndexFormat.BLOCK_SIZE;
+        return OVERHEAD + 8L * count + 8L * blocks;
+    }
+
+    public long weight() {
+        return weight(docIds.length);
+    }
+
+    public int[] getDocIds() {
+        return docIds;
+    }
+
+    public int[] getFrequencies() {
+        return frequencies;
+    }
+
+    public int[] getBlockLastDocIds() {
+        return blockLastDocIds;
+    }
+
+    public int[] getBlockMaxImpacts() {
+        return blockMaxImpacts;
+    }
+}
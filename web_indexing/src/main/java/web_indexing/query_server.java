@@ -0,0 +1,199 @@
+package web_indexing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP front end that serves concurrent queries from one shared Query. GET /search?q=words&type=conjunctive returns
+ * the results as JSON, type defaults to conjunctive, and GET /stats returns the counters of the query caches, of
+ * the document block cache and the latency histograms and counters of the query stages. Requests run on a fixed pool
+ * of threads behind a bounded queue, when the queue is full the accepting thread runs the request itself, which slows
+ * down accepting new connections instead of queueing without bound.
+ */
+class QueryServer {
+    private Query query;
+    private HttpServer server;
+    private ThreadPoolExecutor executor;
+
+    QueryServer(Query query, int port, int threads, int queueCapacity) throws IOException {
+        this.query = query;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadPoolExecutor.CallerRunsPolicy());
+        this.server = HttpServer.create(new InetSocketAddress(port), queueCapacity);
+        this.server.createContext("/search", this::handleSearch);
+        this.server.createContext("/stats", this::handleStats);
+        this.server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private static Map<String, String> parseParameters(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static String json(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String toJson(String keyword, String queryType, List<SearchResult> results, long micros) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"query\":").append(json(keyword));
+        sb.append(",\"type\":").append(json(queryType));
+        sb.append(",\"timeMicros\":").append(micros);
+        sb.append(",\"results\":[");
+        for (int i = 0; i < results.size(); i++) {
+            SearchResult sr = results.get(i);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"docId\":").append(sr.getDocumentId());
+            sb.append(",\"url\":").append(json(sr.getUrl()));
+            sb.append(",\"score\":").append(sr.getScore());
+            sb.append(",\"frequencies\":").append(sr.getWordsFrequenciesList());
+            sb.append(",\"snippet\":").append(json(sr.getSnippet()));
+            sb.append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static String toJson(SegmentedLruCache<?, ?> cache) {
+        if (cache == null) {
+            return "null";
+        }
+        return "{\"entries\":" + cache.size() + ",\"weight\":" + cache.getWeight() + ",\"capacity\":"
+                + cache.getCapacity() + ",\"hits\":" + cache.getHits() + ",\"misses\":" + cache.getMisses()
+                + ",\"evictions\":" + cache.getEvictions() + "}";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                respond(exchange, 405, "{\"error\":\"only GET is supported\"}");
+                return;
+            }
+            Map<String, String> parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+            String keyword = parameters.get("q");
+            String queryType = parameters.getOrDefault("type", "conjunctive");
+            if (keyword == null || keyword.trim().isEmpty()
+                    || !(queryType.equals("conjunctive") || queryType.equals("disjunctive"))) {
+                respond(exchange, 400, "{\"error\":\"expected words in q and a type of conjunctive or disjunctive\"}");
+                return;
+            }
+            long startTime = System.nanoTime();
+            List<SearchResult> results = query.getSearchResults(keyword, queryType);
+            long micros = (System.nanoTime() - startTime) / 1000;
+            respond(exchange, 200, toJson(keyword, queryType, results, micros));
+        } catch (RuntimeException e) {
+            System.out.println("Unable to serve " + exchange.getRequestURI() + ": " + e);
+            respond(exchange, 500, "{\"error\":" + json(e.toString()) + "}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try {
+            respond(exchange, 200, "{\"resultCache\":" + toJson(query.getResultCache()) + ",\"postingsCache\":"
+                    + toJson(query.getPostingsCache()) + ",\"documentBlockCache\":"
+                    + toJson(query.getDocumentBlockCache()) + ",\"metrics\":"
+                    + ((query.getMetrics() != null) ? query.getMetrics().toJson() : "null") + "}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Arguments are the optional port and number of query threads, plus the evaluation options of Query.
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> arguments = new ArrayList(Arrays.asList(args));
+        Query query = Query.open(arguments);
+        if (query == null) {
+            return;
+        }
+        arguments.removeIf(argument -> argument.startsWith("--"));
+        int port = (arguments.size() > 0) ? Integer.parseInt(arguments.get(0)) : 8080;
+        int threads = (arguments.size() > 1) ? Integer.parseInt(arguments.get(1))
+                : Runtime.getRuntime().availableProcessors();
+        QueryServer server = new QueryServer(query, port, threads, 4 * threads);
+        server.start();
+        System.out.println("Serving queries on port " + server.getPort() + " with " + threads + " threads");
+    }
+}
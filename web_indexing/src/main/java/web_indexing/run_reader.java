@@ -0,0 +1,69 @@
+package web_indexing;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Sequential reader over a run file written by PostingsInverter. The docIDs of a run are local to its WET file and
+ * are shifted by the docID base of the file. Readers are ordered by their current term and then by run number, which
+ * is docID order, so that a priority queue of readers merges runs.
+ */
+class RunReader implements Comparable<RunReader> {
+    private DataInputStream runFile;
+    private int run;
+    private int docIdBase;
+    private String term;
+    private int count;
+
+    RunReader(File file, int run, int docIdBase) throws IOException {
+        this.runFile = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        this.run = run;
+        this.docIdBase = docIdBase;
+    }
+
+    /**
+     * Moves to the next term, the postings of the current term must have been read.
+     */
+    public Boolean next() throws IOException {
+        runFile.mark(1);
+        if (runFile.read() < 0) {
+            term = null;
+            return false;
+        }
+        runFile.reset();
+        byte[] utf8 = new byte[VarByte.decode(runFile)];
+        runFile.readFully(utf8);
+        term = new String(utf8, "UTF-8");
+        count = VarByte.decode(runFile);
+        return true;
+    }
+
+    public String getTerm() {
+        return term;
+    }
+
+    public void readPostings(TermPostings postings) throws IOException {
+        int start = postings.size();
+        int docId = docIdBase;
+        for (int i = 0; i < count; i++) {
+            docId += VarByte.decode(runFile);
+            postings.add(docId, 0);
+        }
+        for (int i = 0; i < count; i++) {
+            postings.setFrequency(start + i, VarByte.decode(runFile));
+        }
+    }
+
+    public void close() throws IOException {
+        runFile.close();
+    }
+
+    @Override
+    public int compareTo(RunReader rr) {
+        int order = term.compareTo(rr.term);
+        return (order != 0) ? order : Integer.compare(run, rr.run);
+    }
+}
@@ -0,0 +1,387 @@
+package web_indexing;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Shards or segments searched together, with the docID base of every one and the number of documents of all of them.
+ * A ShardedQuery replaces its ShardSet as a whole, so a query sees one set of segments from start to end.
+ */
+class ShardSet {
+    private List<Query> shards;
+    private int[] docIdBases;
+    private int totalDocuments;
+
+    ShardSet(List<Query> shards, int[] docIdBases, int totalDocuments) {
+        this.shards = shards;
+        this.docIdBases = docIdBases;
+        this.totalDocuments = totalDocuments;
+    }
+
+    /**
+     * Segments scored with the average document length of all of them, segment i holds the documents following
+     * docIdBases[i].
+     */
+    static ShardSet segments(List<Query> segments, int[] docIdBases) {
+        int totalDocuments = 0;
+        long totalDocumentsTerms = 0;
+        for (Query segment : segments) {
+            totalDocuments += segment.getTotalDocuments();
+            totalDocumentsTerms += segment.getTotalDocumentsTerms();
+        }
+        for (Query segment : segments) {
+            segment.setAverageLength((double) totalDocumentsTerms / totalDocuments);
+        }
+        return new ShardSet(segments, docIdBases, totalDocuments);
+    }
+
+    List<Query> getShards() {
+        return shards;
+    }
+
+    int[] getDocIdBases() {
+        return docIdBases;
+    }
+
+    int getTotalDocuments() {
+        return totalDocuments;
+    }
+}
+
+/**
+ * Scatter-gather front end over the shards written by InvertedIndex with --shards or the segments of an
+ * IncrementalIndex. The idf of every query term is computed once from its document frequency summed over all shards
+ * and the number of documents of the collection, then every shard finds its top results with these idfs in parallel
+ * and the results are merged into the top results of the query.
+ *
+ * Shards share the document table of the collection, so its norms already hold. Segments have document tables of their
+ * own and local docIDs, they are scored with the average document length of all segments and their docIDs are moved
+ * by the docID base of their segment. Either way a document gets the score it would get in a single index.
+ *
+ * The segments of an incremental index change as segments are added and merged. Queries over segments check the
+ * manifest at most every REFRESH_MILLIS and open the new segments when it was replaced, queries running meanwhile
+ * finish on the old ones.
+ */
+class ShardedQuery {
+    public static final long REFRESH_MILLIS = 1000;
+
+    private volatile ShardSet shardSet;
+    private ExecutorService executor;
+    private Metrics metrics;
+    private LatencyHistogram totalTime;
+    private File segmentsDirectory;
+    private List<String> arguments;
+    private String manifestVersion;
+    private volatile long lastRefresh;
+
+    ShardedQuery(List<Query> shards) {
+        this.shardSet = new ShardSet(shards, new int[shards.size()], shards.get(0).getTotalDocuments());
+        this.executor = Executors.newFixedThreadPool(shards.size());
+        this.metrics = shards.get(0).getMetrics();
+        shareMetrics(shardSet);
+    }
+
+    /**
+     * Searches segments, segment i holds the documents following docIdBases[i].
+     */
+    ShardedQuery(List<Query> segments, int[] docIdBases) {
+        this.shardSet = ShardSet.segments(segments, docIdBases);
+        // the number of segments changes as segments are added and merged
+        this.executor = Executors.newCachedThreadPool();
+        this.metrics = segments.get(0).getMetrics();
+        shareMetrics(shardSet);
+    }
+
+    /**
+     * Makes every shard record into the metrics of the first shard, or none when it has none. The stages of a shard
+     * are recorded once per shard and query, the total time once per query.
+     */
+    private void shareMetrics(ShardSet shards) {
+        for (Query shard : shards.getShards()) {
+            shard.setMetrics(metrics);
+        }
+        totalTime = (metrics != null) ? metrics.histogram("query.total") : null;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public ShardSet getShardSet() {
+        return shardSet;
+    }
+
+    /**
+     * Version of the manifest of the segments, which changes every time the manifest is replaced.
+     */
+    private static String manifestVersion(File segmentsDirectory) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(new File(segmentsDirectory,
+                    IncrementalIndex.MANIFEST).toPath(), BasicFileAttributes.class);
+            return attributes.fileKey() + " " + attributes.lastModifiedTime().toMillis() + " " + attributes.size();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Opens the segments of the manifest again when it was replaced since they were opened and swaps them in. Returns
+     * false when the new segments cannot be opened, the old ones are still searched then and the next refresh tries
+     * again.
+     */
+    public synchronized Boolean refresh() {
+        lastRefresh = System.currentTimeMillis();
+        if (segmentsDirectory == null) {
+            return true;
+        }
+        String version = manifestVersion(segmentsDirectory);
+        if (version == null || version.equals(manifestVersion)) {
+            return true;
+        }
+        ShardSet segments = openSegmentSet(segmentsDirectory, arguments);
+        if (segments == null) {
+            return false;
+        }
+        shareMetrics(segments);
+        shardSet = segments;
+        manifestVersion = version;
+        return true;
+    }
+
+    private static List<SearchResult> waitFor(Future<List<SearchResult>> shardResults) {
+        try {
+            return shardResults.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a shard");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Shard query failed", e.getCause());
+        }
+    }
+
+    public List<SearchResult> getSearchResults(String keyword, String queryType) {
+        long startTime = System.nanoTime();
+        if (segmentsDirectory != null && System.currentTimeMillis() - lastRefresh >= REFRESH_MILLIS) {
+            refresh();
+        }
+        ShardSet shardSet = this.shardSet;
+        List<Query> shards = shardSet.getShards();
+        int[] docIdBases = shardSet.getDocIdBases();
+        String[] words = keyword.split(" ");
+        List<String> terms = new ArrayList();
+        for (String word : words) {
+            if (word.length() > 0) {
+                terms.add(word);
+            }
+        }
+        double[] idfs = new double[terms.size()];
+        for (int i = 0; i < idfs.length; i++) {
+            int documentFrequency = 0;
+            for (Query shard : shards) {
+                documentFrequency += shard.getDocumentFrequency(terms.get(i));
+            }
+            idfs[i] = BM25.idf(shardSet.getTotalDocuments(), documentFrequency);
+        }
+
+        List<Future<List<SearchResult>>> shardResults = new ArrayList();
+        for (Query shard : shards) {
+            shardResults.add(executor.submit(() -> shard.findTopResults(terms, idfs, queryType)));
+        }
+        int totalResults = shards.get(0).getTotalResults();
+        PriorityQueue<SearchResult> result = new PriorityQueue();
+        IdentityHashMap<SearchResult, Integer> resultShards = new IdentityHashMap();
+        for (int i = 0; i < shardResults.size(); i++) {
+            for (SearchResult sr : waitFor(shardResults.get(i))) {
+                if (result.size() == totalResults) {
+                    if (result.peek().getScore() >= sr.getScore()) {
+                        continue;
+                    }
+                    resultShards.remove(result.poll());
+                }
+                result.add(sr);
+                resultShards.put(sr, i);
+            }
+        }
+        List<SearchResult> finalListOfUrls = new ArrayList();
+        while (result.size() > 0) {
+            finalListOfUrls.add(result.poll());
+        }
+        Collections.sort(finalListOfUrls, Collections.reverseOrder());
+        List<List<SearchResult>> shardFinalResults = new ArrayList();
+        for (int i = 0; i < shards.size(); i++) {
+            shardFinalResults.add(new ArrayList());
+        }
+        for (SearchResult sr : finalListOfUrls) {
+            shardFinalResults.get(resultShards.get(sr)).add(sr);
+        }
+        // the shards complete their results at the same time, every shard generates its snippets in parallel too
+        List<Future<List<SearchResult>>> completedResults = new ArrayList();
+        for (int i = 0; i < shards.size(); i++) {
+            Query shard = shards.get(i);
+            List<SearchResult> results = shardFinalResults.get(i);
+            completedResults.add(results.isEmpty() ? null : executor.submit(() -> {
+                shard.completeResults(results, words);
+                return results;
+            }));
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            if (completedResults.get(i) != null) {
+                for (SearchResult sr : waitFor(completedResults.get(i))) {
+                    sr.setDocumentId(docIdBases[i] + sr.getDocumentId());
+                }
+            }
+        }
+        if (totalTime != null) {
+            totalTime.record(System.nanoTime() - startTime);
+        }
+        return finalListOfUrls;
+    }
+
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Opens every shard in ./shards with the evaluation options of the command line, see open(String, List).
+     */
+    public static ShardedQuery open(List<String> arguments) {
+        return open(".", arguments);
+    }
+
+    /**
+     * Opens every shard in the shards directory of indexDirectoryPath, with the document table and the documents of
+     * indexDirectoryPath, see Query.open. Returns null when a shard cannot be opened.
+     */
+    public static ShardedQuery open(String indexDirectoryPath, List<String> arguments) {
+        File[] shardDirectories = new File(indexDirectoryPath, "shards").listFiles(File::isDirectory);
+        if (shardDirectories == null || shardDirectories.length == 0) {
+            System.out.println("No shards in " + indexDirectoryPath + "/shards, build them with IndexBuilder --shards");
+            return null;
+        }
+        // the documents are mapped once for all the shards
+        IndexReader documents = Query.openDocuments(indexDirectoryPath + "/documents");
+        Arrays.sort(shardDirectories, (a, b) -> Integer.compare(Integer.parseInt(a.getName()),
+                Integer.parseInt(b.getName())));
+        List<Query> shards = new ArrayList();
+        for (File shardDirectory : shardDirectories) {
+            Query shard = Query.open(shardDirectory.getPath(), indexDirectoryPath + "/document_table.bin", documents,
+                    arguments);
+            if (shard == null) {
+                return null;
+            }
+            shards.add(shard);
+        }
+        return new ShardedQuery(shards);
+    }
+
+    /**
+     * Opens the segments of the incremental index in ./segments, see openSegments(String, List).
+     */
+    public static ShardedQuery openSegments(List<String> arguments) {
+        return openSegments(IncrementalIndex.SEGMENTS_DIRECTORY, arguments);
+    }
+
+    /**
+     * Opens the segments of the incremental index in segmentsDirectoryPath, segments without documents are skipped,
+     * and searches the segments published later from then on. Returns null when a segment cannot be opened.
+     */
+    public static ShardedQuery openSegments(String segmentsDirectoryPath, List<String> arguments) {
+        File segmentsDirectory = new File(segmentsDirectoryPath);
+        String version = manifestVersion(segmentsDirectory);
+        ShardSet segments = openSegmentSet(segmentsDirectory, arguments);
+        if (segments == null) {
+            return null;
+        }
+        ShardedQuery query = new ShardedQuery(segments.getShards(), segments.getDocIdBases());
+        query.segmentsDirectory = segmentsDirectory;
+        query.arguments = arguments;
+        query.manifestVersion = version;
+        query.lastRefresh = System.currentTimeMillis();
+        return query;
+    }
+
+    private static ShardSet openSegmentSet(File segmentsDirectory, List<String> arguments) {
+        List<Segment> segments = IncrementalIndex.readManifest(segmentsDirectory);
+        if (segments == null) {
+            return null;
+        }
+        // the documents are mapped once for all the segments, from the generations that the segments reference only
+        List<String> documentGenerations = new ArrayList();
+        for (Segment segment : segments) {
+            documentGenerations.addAll(segment.getDocumentGenerations());
+        }
+        IndexReader documents = Query.openDocuments(segmentsDirectory + "/documents", documentGenerations);
+        List<Query> segmentQueries = new ArrayList();
+        IntArrayList docIdBases = new IntArrayList();
+        for (Segment segment : segments) {
+            if (segment.getTotalDocuments() == 0) {
+                continue;
+            }
+            String segmentDirectory = segmentsDirectory + "/" + segment.getName();
+            Query segmentQuery = Query.open(segmentDirectory, segmentDirectory + "/document_table.bin", documents,
+                    arguments);
+            if (segmentQuery == null) {
+                return null;
+            }
+            segmentQueries.add(segmentQuery);
+            docIdBases.add(segment.getFirstDocId() - 1);
+        }
+        if (segmentQueries.isEmpty()) {
+            System.out.println("No documents in " + segmentsDirectory);
+            return null;
+        }
+        return ShardSet.segments(segmentQueries, docIdBases.toArray());
+    }
+
+    /**
+     * Searches the shards in ./shards, or with --segments the segments of the incremental index in ./segments.
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> arguments = Arrays.asList(args);
+        ShardedQuery query = arguments.contains("--segments") ? openSegments(arguments) : open(arguments);
+        if (query == null) {
+            return;
+        }
+
+        BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+        while (true) {
+            System.out.print("Enter query or enter exit to quit : ");
+            String input = br.readLine();
+            if (input == null || input.equals("exit")) {
+                if (query.getMetrics() != null) {
+                    System.out.println("Metrics =" + query.getMetrics().toJson());
+                }
+                break;
+            }
+            System.out.print("Enter type of query(conjunctive or disjunctive) : ");
+            String queryType = br.readLine();
+            long startTime = System.currentTimeMillis();
+            List<SearchResult> l = query.getSearchResults(input, queryType);
+            for (SearchResult sr : l) {
+                System.out.println("URL =" + sr.getUrl());
+                System.out.println("score =" + sr.getScore());
+                System.out.println("frequencies=" + sr.getWordsFrequenciesList());
+                System.out.println("");
+                System.out.println(sr.getSnippet());
+                System.out.println("====================================================================");
+            }
+            System.out.println("Total time =" + (System.currentTimeMillis() - startTime) / 1000.0 + " s");
+            System.out.println("\n\n\n\n\n");
+        }
+        query.close();
+    }
+}
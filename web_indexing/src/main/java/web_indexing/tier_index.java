@@ -0,0 +1,110 @@
+package web_indexing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * First tier of the inverted index, written by InvertedIndex next to the full index when it is asked to. It is an
+ * inverted index in the format of IndexFormat that holds only the best scoring postings of every term: a term of up to
+ * MIN_POSTINGS postings keeps all of them, a longer one the SHARE of its postings with the highest BM25 tf
+ * normalization, which is the score order of the postings of a term, and at least MIN_POSTINGS. The postings kept stay
+ * in docID order so the tier is evaluated like the full index.
+ *
+ * Its lexicon, in the format of Lexicon, holds the best tf normalization of the postings left out of the tier in place
+ * of the max score, 0 when the tier holds every posting of the term. Terms with a negative idf are left out, queries
+ * holding one are evaluated on the full index.
+ */
+class TierIndex {
+    public static final int MIN_POSTINGS = 256;
+    public static final double SHARE = 0.1;
+
+    private MappedFile tierIndexFile;
+    private Lexicon lexicon;
+    private PostingCodec codec;
+
+    TierIndex(String tierIndexPath, String tierLexiconPath) throws IOException {
+        tierIndexFile = new MappedFile(tierIndexPath);
+        codec = IndexFormat.readCodec(tierIndexFile.slice(0, Math.min(IndexFormat.HEADER_SIZE,
+                (int) tierIndexFile.length())));
+        if (codec == null) {
+            throw new IOException("Unsupported tier index format in " + tierIndexPath);
+        }
+        lexicon = new Lexicon(tierLexiconPath);
+    }
+
+    /**
+     * Returns the tier postings of the term, whose max score is the best tf normalization of the postings left out, or
+     * null when the term is not in the tier.
+     */
+    public Posting get(String term) {
+        return lexicon.get(term);
+    }
+
+    public ByteBuffer postings(long offset, int size) {
+        return tierIndexFile.slice(offset, size);
+    }
+
+    public PostingCodec getCodec() {
+        return codec;
+    }
+}
+
+/**
+ * Writes the tier index described in TierIndex from the postings of every term of the full index.
+ */
+class TierIndexWriter {
+    private PostingsWriter postingsWriter;
+    private DocumentTable documentTable;
+    private TermPostings tierPostings;
+
+    TierIndexWriter(String tierIndexPath, String tierLexiconPath, DocumentTable documentTable) throws IOException {
+        this.postingsWriter = new PostingsWriter(tierIndexPath, tierLexiconPath, documentTable);
+        this.documentTable = documentTable;
+        this.tierPostings = new TermPostings();
+    }
+
+    public void setCodec(PostingCodec codec) {
+        postingsWriter.setCodec(codec);
+    }
+
+    public void add(String term, TermPostings postings, double idf) throws IOException {
+        if (idf <= 0) {
+            return;
+        }
+        int count = postings.size();
+        int keep = Math.max(TierIndex.MIN_POSTINGS, (int) Math.ceil(count * TierIndex.SHARE));
+        if (count <= keep) {
+            postingsWriter.add(term, postings, idf, 0.0);
+            return;
+        }
+        double[] tfs = new double[count];
+        for (int i = 0; i < count; i++) {
+            tfs[i] = BM25.tfNormalization(postings.getFrequency(i), documentTable.getNorm(postings.getDocId(i)));
+        }
+        double[] sortedTfs = Arrays.copyOf(tfs, count);
+        Arrays.sort(sortedTfs);
+        double cutoff = sortedTfs[count - keep];
+        // postings at the cutoff are kept in docID order until keep postings are kept
+        int cutoffPostings = keep;
+        for (int i = count - keep; i < count; i++) {
+            if (sortedTfs[i] > cutoff) {
+                cutoffPostings--;
+            }
+        }
+        double leftOutTf = 0;
+        tierPostings.clear();
+        for (int i = 0; i < count; i++) {
+            if (tfs[i] > cutoff || (tfs[i] == cutoff && cutoffPostings-- > 0)) {
+                tierPostings.add(postings.getDocId(i), postings.getFrequency(i));
+            } else {
+                leftOutTf = Math.max(leftOutTf, tfs[i]);
+            }
+        }
+        postingsWriter.add(term, tierPostings, idf, leftOutTf);
+    }
+
+    public void finish() throws IOException {
+        postingsWriter.finish();
+    }
+}
@@ -0,0 +1,90 @@
+package web_indexing;
+
+import java.util.Arrays;
+
+/**
+ * Receives the valid tokens of a record. The bytes are only valid during the call, they are reused for the next
+ * token.
+ */
+interface TokenConsumer {
+    void accept(byte[] token, int length);
+}
+
+/**
+ * Single pass tokenizer over the raw bytes of a record. Tokens are separated by ASCII whitespace and punctuation, bytes
+ * of multi-byte UTF-8 characters are kept inside tokens. A token is valid when it is longer than 2 characters and only
+ * holds ASCII letters and digits, valid tokens are passed lowercased to the consumer without creating a String.
+ */
+class Tokenizer {
+    private static final byte SEPARATOR = 0;
+    private static final byte ALPHANUMERIC = 1;
+    private static final byte NON_ASCII = 2;
+    private static final byte[] BYTE_CLASSES = new byte[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')) {
+                BYTE_CLASSES[b] = ALPHANUMERIC;
+            } else if (b >= 0x80) {
+                BYTE_CLASSES[b] = NON_ASCII;
+            } else {
+                BYTE_CLASSES[b] = SEPARATOR;
+            }
+        }
+    }
+
+    private byte[] token;
+    private int tokenStart;
+
+    Tokenizer() {
+        token = new byte[64];
+    }
+
+    /**
+     * Offset in the data of the first byte of the token passed to the consumer, only valid during the call.
+     */
+    public int getTokenStart() {
+        return tokenStart;
+    }
+
+    /**
+     * Passes the valid tokens of data[offset, offset + length) to the consumer and returns the number of tokens,
+     * valid or not.
+     */
+    public int tokenize(byte[] data, int offset, int length, TokenConsumer consumer) {
+        int totalTokens = 0;
+        int tokenLength = 0;
+        boolean inToken = false;
+        boolean valid = true;
+        int end = offset + length;
+        for (int i = offset; i <= end; i++) {
+            byte byteClass = (i < end) ? BYTE_CLASSES[data[i] & 0xFF] : SEPARATOR;
+            if (byteClass == SEPARATOR) {
+                if (inToken) {
+                    totalTokens++;
+                    if (valid && tokenLength > 2) {
+                        consumer.accept(token, tokenLength);
+                    }
+                    inToken = false;
+                }
+                continue;
+            }
+            if (!inToken) {
+                inToken = true;
+                tokenStart = i;
+                valid = true;
+                tokenLength = 0;
+            }
+            if (byteClass == NON_ASCII) {
+                valid = false;
+            } else if (valid) {
+                if (tokenLength == token.length) {
+                    token = Arrays.copyOf(token, tokenLength * 2);
+                }
+                byte b = data[i];
+                token[tokenLength++] = (b >= 'A' && b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
+            }
+        }
+        return totalTokens;
+    }
+}
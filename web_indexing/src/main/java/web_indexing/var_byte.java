@@ -0,0 +1,52 @@
+package web_indexing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Byte level var-byte codec. Every number is split into 7 bit groups written most significant group first, the last
+ * byte of a number has its high bit set.
+ */
+class VarByte {
+
+    private VarByte() {
+    }
+
+    public static void encode(int number, ByteArrayOutputStream out) {
+        int shift = 28;
+        while (shift > 0 && (number >>> shift) == 0) {
+            shift -= 7;
+        }
+        while (shift > 0) {
+            out.write((number >>> shift) & 0x7F);
+            shift -= 7;
+        }
+        out.write((number & 0x7F) | 0x80);
+    }
+
+    public static int decode(ByteBuffer buffer) {
+        int number = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            number = (number << 7) | (b & 0x7F);
+        } while (b >= 0);
+        return number;
+    }
+
+    public static int decode(InputStream in) throws IOException {
+        int number = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            number = (number << 7) | (b & 0x7F);
+        } while (b < 0x80);
+        return number;
+    }
+}
@@ -0,0 +1,99 @@
+package web_indexing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the byte string to id map, checked against a HashMap of Strings.
+ */
+public class BytesIntMapTest {
+
+    private static int add(BytesIntMap map, String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return map.add(bytes, 0, bytes.length);
+    }
+
+    private static int get(BytesIntMap map, String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return map.get(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testMatchesHashMap() {
+        BytesIntMap map = new BytesIntMap();
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            String key = Integer.toString(random.nextInt(5000), 36);
+            Integer id = expected.get(key);
+            if (id == null) {
+                id = expected.size();
+                expected.put(key, id);
+            }
+            assertEquals(key, id.intValue(), add(map, key));
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().intValue(), get(map, entry.getKey()));
+            assertEquals(entry.getKey(), map.keyToString(entry.getValue()));
+        }
+        assertEquals(-1, get(map, "missing key"));
+    }
+
+    @Test
+    public void testSortedIds() {
+        BytesIntMap map = new BytesIntMap();
+        String[] keys = {"posting", "index", "indexes", "abc", "zebra", "in", "query", "lexicon"};
+        for (String key : keys) {
+            add(map, key);
+        }
+        String[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        int[] ids = map.sortedIds();
+        assertEquals(keys.length, ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(sorted[i], map.keyToString(ids[i]));
+        }
+    }
+
+    @Test
+    public void testAddKeyAndClear() {
+        BytesIntMap document = new BytesIntMap();
+        add(document, "search");
+        add(document, "engine");
+        BytesIntMap terms = new BytesIntMap();
+        add(terms, "engine");
+        assertEquals(1, terms.addKey(document, 0));
+        assertEquals(0, terms.addKey(document, 1));
+        assertEquals(2, terms.size());
+
+        document.clear();
+        assertEquals(0, document.size());
+        assertEquals(-1, get(document, "search"));
+        assertEquals(0, add(document, "index"));
+        assertEquals("index", document.keyToString(0));
+    }
+
+    @Test
+    public void testIntIntMap() {
+        IntIntMap map = new IntIntMap();
+        for (int key = 1; key <= 10000; key++) {
+            map.put(key * 31, key);
+        }
+        assertEquals(10000, map.size());
+        for (int key = 1; key <= 10000; key++) {
+            assertEquals(key, map.get(key * 31, -1));
+        }
+        assertEquals(-1, map.get(32, -1));
+        map.put(31, 7);
+        assertEquals(7, map.get(31, -1));
+        assertEquals(10000, map.size());
+    }
+}
@@ -0,0 +1,56 @@
+package web_indexing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for numbering documents in URL order: the sort key of the URLs and the renumbering of the postings.
+ */
+public class DocIdOrderTest {
+
+    @Test
+    public void testUrlOrderKey() {
+        assertEquals("com.example.www/a?b", GeneratePostings.urlOrderKey("http://www.Example.com/a?b"));
+        assertEquals("org.example:8080/", GeneratePostings.urlOrderKey("https://example.org:8080/"));
+        assertEquals("com.example", GeneratePostings.urlOrderKey("http://example.com"));
+    }
+
+    @Test
+    public void testPagesOfASiteSortTogether() {
+        List<String> urls = new ArrayList();
+        urls.add("http://news.example.com/2");
+        urls.add("http://other.org/1");
+        urls.add("https://www.example.com/1");
+        urls.add("http://news.example.com/1");
+        Collections.sort(urls, Comparator.comparing(GeneratePostings::urlOrderKey));
+        assertEquals("http://news.example.com/1", urls.get(0));
+        assertEquals("http://news.example.com/2", urls.get(1));
+        assertEquals("https://www.example.com/1", urls.get(2));
+        assertEquals("http://other.org/1", urls.get(3));
+    }
+
+    @Test
+    public void testRenumberSortsByNewDocIds() {
+        TermPostings postings = new TermPostings();
+        postings.add(1, 5);
+        postings.add(2, 1);
+        postings.add(4, 2);
+        postings.add(5, 7);
+        // document d becomes newDocIds[d]
+        int[] newDocIds = {0, 4, 5, 1, 3, 2};
+        postings.renumber(newDocIds);
+        assertEquals(4, postings.size());
+        int[] docIds = {2, 3, 4, 5};
+        int[] frequencies = {7, 2, 5, 1};
+        for (int i = 0; i < docIds.length; i++) {
+            assertEquals(docIds[i], postings.getDocId(i));
+            assertEquals(frequencies[i], postings.getFrequency(i));
+        }
+    }
+}
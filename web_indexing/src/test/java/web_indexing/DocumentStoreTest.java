@@ -0,0 +1,110 @@
+package web_indexing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the compressed document store, written with DocumentStoreWriter and read back by offset.
+ */
+public class DocumentStoreTest {
+
+    private static byte[] document(Random random, int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ((random.nextInt(4) == 0) ? ' ' : 'a' + random.nextInt(6));
+        }
+        return data;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    @Test
+    public void testReadDocuments() throws IOException {
+        File file = File.createTempFile("documents", "");
+        file.deleteOnExit();
+        DocumentStoreWriter writer = new DocumentStoreWriter(file.getPath());
+        Random random = new Random(11);
+        List<byte[]> documents = new ArrayList();
+        List<Long> offsets = new ArrayList();
+        long length = 0;
+        for (int i = 0; i < 200; i++) {
+            // mostly small documents, some larger than a block
+            int size = (i % 50 == 7) ? 3 * DocumentStoreWriter.BLOCK_SIZE / 2 : random.nextInt(5000);
+            byte[] data = document(random, size);
+            long offset = writer.add(data);
+            assertEquals(length, offset);
+            documents.add(data);
+            offsets.add(offset);
+            length += size;
+        }
+        writer.finish();
+        assertTrue(file.length() < length / 2);
+
+        MappedFile documentFile = new MappedFile(file.getPath());
+        assertTrue(DocumentStore.isDocumentStore(documentFile));
+        SegmentedLruCache<Long, byte[]> cache = new SegmentedLruCache<Long, byte[]>(1L << 20, block -> block.length);
+        DocumentStore cached = new DocumentStore(documentFile, 0, cache);
+        DocumentStore uncached = new DocumentStore(documentFile, 1, null);
+        for (int round = 0; round < 2; round++) {
+            for (int i = documents.size() - 1; i >= 0; i--) {
+                byte[] expected = documents.get(i);
+                assertArrayEquals(expected, bytes(cached.read(offsets.get(i), expected.length)));
+                assertArrayEquals(expected, bytes(uncached.read(offsets.get(i), expected.length)));
+            }
+        }
+        assertTrue(cache.getHits() > 0);
+    }
+
+    @Test
+    public void testParallelCompressionWritesTheSameFile() throws IOException {
+        File serialFile = File.createTempFile("documents", "");
+        serialFile.deleteOnExit();
+        File parallelFile = File.createTempFile("documents", "");
+        parallelFile.deleteOnExit();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        DocumentStoreWriter serial = new DocumentStoreWriter(serialFile.getPath());
+        DocumentStoreWriter parallel = new DocumentStoreWriter(parallelFile.getPath(), executor, 3);
+        Random random = new Random(5);
+        for (int i = 0; i < 300; i++) {
+            byte[] data = document(random, random.nextInt(3 * DocumentStoreWriter.BLOCK_SIZE / 2));
+            assertEquals(serial.add(data), parallel.add(data));
+        }
+        serial.finish();
+        parallel.finish();
+        executor.shutdown();
+        assertArrayEquals(Files.readAllBytes(serialFile.toPath()), Files.readAllBytes(parallelFile.toPath()));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testRejectsReadsPastTheEnd() throws IOException {
+        File file = File.createTempFile("documents", "");
+        file.deleteOnExit();
+        DocumentStoreWriter writer = new DocumentStoreWriter(file.getPath());
+        writer.add(new byte[100]);
+        writer.finish();
+        new DocumentStore(new MappedFile(file.getPath()), 0, null).read(50, 51);
+    }
+
+    @Test
+    public void testRawDocumentFilesAreNotStores() throws IOException {
+        File file = File.createTempFile("documents", "");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "WARC/1.0 raw document".getBytes("UTF-8"));
+        assertFalse(DocumentStore.isDocumentStore(new MappedFile(file.getPath())));
+    }
+}
@@ -0,0 +1,72 @@
+package web_indexing;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the document table, written with DocumentTableWriter and read back through the memory mapping.
+ */
+public class DocumentTableTest {
+
+    @Test
+    public void testColumns() throws IOException {
+        File file = IndexFixtures.tempFile("document_table");
+        DocumentTableWriter writer = new DocumentTableWriter(file.getPath());
+        long offset = 0;
+        for (int docId = 1; docId <= 1000; docId++) {
+            String documentFileName = "documents/" + (1 + (docId - 1) / 300);
+            writer.add("http://example.com/page/" + docId, docId % 97, documentFileName, offset, 100 + docId);
+            offset = (docId % 300 == 0) ? 0 : offset + 100 + docId;
+        }
+        writer.finish();
+
+        DocumentTable table = new DocumentTable(file.getPath());
+        assertEquals(1000, table.size());
+        long totalDocumentsTerms = 0;
+        offset = 0;
+        for (int docId = 1; docId <= 1000; docId++) {
+            assertEquals("http://example.com/page/" + docId, table.getUrl(docId));
+            assertEquals(docId % 97, table.getLength(docId));
+            assertEquals("documents/" + (1 + (docId - 1) / 300), table.getDocumentFileName(docId));
+            assertEquals(offset, table.getOffset(docId));
+            assertEquals(100 + docId, table.getSize(docId));
+            totalDocumentsTerms += docId % 97;
+            offset = (docId % 300 == 0) ? 0 : offset + 100 + docId;
+        }
+        assertEquals(totalDocumentsTerms, table.getTotalDocumentsTerms());
+        assertEquals(totalDocumentsTerms / 1000.0, table.getAverageLength(), 1e-12);
+        for (int docId = 1; docId <= 1000; docId++) {
+            assertEquals(BM25.documentNorm(docId % 97, table.getAverageLength()), table.getNorm(docId), 0);
+        }
+    }
+
+    @Test
+    public void testNonAsciiUrl() throws IOException {
+        File file = IndexFixtures.tempFile("document_table");
+        DocumentTableWriter writer = new DocumentTableWriter(file.getPath());
+        writer.add("http://example.com/café", 10, "documents/1", 0, 5);
+        writer.add("http://example.com/", 20, "documents/1", 5, 7);
+        writer.finish();
+
+        DocumentTable table = new DocumentTable(file.getPath());
+        assertEquals("http://example.com/café", table.getUrl(1));
+        assertEquals("http://example.com/", table.getUrl(2));
+        assertEquals(15.0, table.getAverageLength(), 0);
+        assertEquals(BM25.K1 * ((1 - BM25.B) + BM25.B * 10 / 15.0), table.getNorm(1), 1e-6);
+        assertEquals(BM25.K1 * ((1 - BM25.B) + BM25.B * 20 / 15.0), table.getNorm(2), 1e-6);
+    }
+
+    @Test
+    public void testNoTemporaryFilesLeft() throws IOException {
+        File file = IndexFixtures.tempFile("document_table");
+        DocumentTableWriter writer = new DocumentTableWriter(file.getPath());
+        writer.add("http://example.com/", 3, "documents/1", 0, 1);
+        writer.finish();
+        File[] leftovers = file.getParentFile().listFiles((dir, name) -> name.startsWith(file.getName() + "."));
+        assertEquals(0, leftovers.length);
+    }
+}
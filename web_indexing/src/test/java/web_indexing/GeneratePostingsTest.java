@@ -0,0 +1,78 @@
+package web_indexing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the ingestion pipeline, with readers that hand records to the tokenizer stage without a WET file.
+ */
+public class GeneratePostingsTest {
+
+    private static File wetFilesDirectory(File directory) throws IOException {
+        File wetFilesDirectory = new File(directory, "wet_files");
+        wetFilesDirectory.mkdirs();
+        new File(wetFilesDirectory, "1.warc.wet.gz").createNewFile();
+        new File(wetFilesDirectory, "2.warc.wet.gz").createNewFile();
+        return wetFilesDirectory;
+    }
+
+    /**
+     * Ingests two WET files into directory, with the positions sidecars of the document files, with a reader that puts
+     * two records of every file and then fails with failure when it is not null.
+     */
+    private static Boolean ingest(File directory, final Error failure) throws IOException {
+        File[] wetFiles = wetFilesDirectory(directory).listFiles();
+        Arrays.sort(wetFiles);
+        GeneratePostings gp = new GeneratePostings(directory + "/wet_files", directory + "/runs",
+                directory + "/documents", directory.getPath(), 64 << 20, 2) {
+            @Override
+            Void readRecords(File fileEntry, BlockingQueue<WarcDocument> records) throws InterruptedException {
+                for (int i = 0; i < 2; i++) {
+                    records.put(new WarcDocument("http://example.com/" + fileEntry.getName() + "/" + i,
+                            "words of a web page".getBytes(StandardCharsets.UTF_8)));
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                records.put(WarcDocument.END);
+                return null;
+            }
+        };
+        assertTrue(gp.ifDirectoryAndMappingDocumentCreated());
+        gp.setPositions(true);
+        return gp.createPostings(wetFiles);
+    }
+
+    @Test(timeout = 30000)
+    public void testIngestion() throws IOException {
+        File directory = Files.createTempDirectory("generate_postings").toFile();
+        try {
+            assertTrue(ingest(directory, null));
+            assertEquals(4, new DocumentTable(directory + "/document_table.bin").size());
+            assertEquals(4, new File(directory, "documents").list().length);
+        } finally {
+            IncrementalIndex.deleteDirectory(directory);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testReaderErrorFailsIngestion() throws IOException {
+        File directory = Files.createTempDirectory("generate_postings").toFile();
+        try {
+            // an Error such as a missing class must not leave the tokenizer stage waiting for END
+            assertFalse(ingest(directory, new NoClassDefFoundError("org/apache/commons/lang/StringUtils")));
+            // the document files and positions written before the failure are deleted
+            assertEquals(0, new File(directory, "documents").list().length);
+        } finally {
+            IncrementalIndex.deleteDirectory(directory);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package web_indexing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the impact ordered index, written with ImpactIndexWriter and read back through ImpactList, and for the
+ * top accumulators of its score-at-a-time evaluation.
+ */
+public class ImpactIndexTest {
+
+    @Test
+    public void testSegmentsAreOrderedByImpact() throws IOException {
+        int totalDocuments = 500;
+        Random random = new Random(11);
+        DocumentTable documentTable = IndexFixtures.writeDocumentTable(totalDocuments, random);
+
+        TermPostings postings = new TermPostings();
+        for (int docId = 1; docId <= totalDocuments; docId += 1 + random.nextInt(20)) {
+            postings.add(docId, 1 + random.nextInt(20));
+        }
+        TermPostings frequentPostings = new TermPostings();
+        for (int docId = 1; docId <= totalDocuments; docId++) {
+            frequentPostings.add(docId, 1);
+        }
+        File impactIndexFile = IndexFixtures.tempFile("impactIndex");
+        File impactLexiconFile = IndexFixtures.tempFile("impactLexicon");
+        ImpactIndexWriter writer = new ImpactIndexWriter(impactIndexFile.getPath(), impactLexiconFile.getPath(),
+                totalDocuments);
+        double idf = BM25.idf(totalDocuments, postings.size());
+        writer.add("index", postings, idf, documentTable);
+        writer.add("the", frequentPostings, BM25.idf(totalDocuments, frequentPostings.size()), documentTable);
+        writer.finish();
+
+        ImpactIndex impactIndex = new ImpactIndex(impactIndexFile.getPath(), impactLexiconFile.getPath());
+        assertNull(impactIndex.get("the"));
+        ImpactList il = impactIndex.get("index");
+        double levelScore = impactIndex.getMaxImpactScore() / ImpactIndex.IMPACT_LEVELS;
+        int[] impacts = new int[totalDocuments + 1];
+        int totalPostings = 0;
+        for (int s = 0; s < il.getSegments(); s++) {
+            if (s > 0) {
+                assertTrue(il.getImpact(s) < il.getImpact(s - 1));
+            }
+            int[] docIds = new int[il.getCount(s)];
+            il.decodeSegment(s, docIds);
+            for (int i = 0; i < docIds.length; i++) {
+                if (i > 0) {
+                    assertTrue(docIds[i] > docIds[i - 1]);
+                }
+                impacts[docIds[i]] = il.getImpact(s);
+            }
+            totalPostings += docIds.length;
+        }
+        assertEquals(postings.size(), totalPostings);
+        for (int i = 0; i < postings.size(); i++) {
+            int docId = postings.getDocId(i);
+            double score = idf * BM25.tfNormalization(postings.getFrequency(i), documentTable.getNorm(docId));
+            // impacts round up, so every score lies within the level of its impact
+            assertTrue(score <= impacts[docId] * levelScore + 1e-9);
+            assertTrue(score > (impacts[docId] - 1) * levelScore - 1e-9);
+        }
+    }
+
+    @Test
+    public void testTopAccumulatorsTrackTheKthHighestAccumulator() {
+        int capacity = 10;
+        Random random = new Random(5);
+        TopAccumulators topAccumulators = new TopAccumulators();
+        topAccumulators.clear(capacity);
+        int[] accumulators = new int[300];
+        for (int n = 0; n < 20000; n++) {
+            int docId = random.nextInt(accumulators.length);
+            accumulators[docId] += 1 + random.nextInt(8);
+            topAccumulators.update(docId, accumulators[docId]);
+            int[] sorted = accumulators.clone();
+            Arrays.sort(sorted);
+            int seen = 0;
+            for (int accumulator : accumulators) {
+                seen += (accumulator > 0) ? 1 : 0;
+            }
+            assertEquals(seen >= capacity, topAccumulators.isFull());
+            if (seen >= capacity) {
+                assertEquals(sorted[sorted.length - capacity], topAccumulators.getThreshold());
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package web_indexing;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the incremental index: segments are added and merged in the background while a ShardedQuery over
+ * the segments searches them.
+ */
+public class IncrementalIndexTest {
+    private static final int DOCUMENTS_PER_FILE = 3;
+
+    /**
+     * Writes WET file file of DOCUMENTS_PER_FILE documents, document i holds the word marker(file, i) that no other
+     * document holds.
+     */
+    private static void writeWetFile(File wetFilesDirectory, int file) throws IOException {
+        String[] urls = new String[DOCUMENTS_PER_FILE];
+        String[] contents = new String[DOCUMENTS_PER_FILE];
+        for (int i = 0; i < DOCUMENTS_PER_FILE; i++) {
+            urls[i] = url(file, i);
+            contents[i] = "Shared words of every page and the marker " + marker(file, i) + " of this page.";
+        }
+        IndexFixtures.writeWetFile(new File(wetFilesDirectory, String.format("%05d.warc.wet.gz", file)), urls,
+                contents);
+    }
+
+    private static String marker(int file, int i) {
+        return "marker" + (char) ('a' + file) + (char) ('a' + i);
+    }
+
+    private static String url(int file, int i) {
+        return "http://example.com/" + file + "/" + i;
+    }
+
+    private static void assertFound(ShardedQuery query, int file, int i) {
+        List<SearchResult> results = query.getSearchResults(marker(file, i), "conjunctive");
+        assertEquals(1, results.size());
+        assertEquals(url(file, i), results.get(0).getUrl());
+        assertEquals(file * DOCUMENTS_PER_FILE + i + 1, results.get(0).getDocumentId().intValue());
+    }
+
+    /**
+     * Writes the header of a document store and then data, without the trailer, as a crash in the middle of an
+     * ingestion leaves it.
+     */
+    private static void writeStoreWithoutTrailer(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(DocumentStoreWriter.MAGIC);
+        out.writeInt(DocumentStoreWriter.VERSION);
+        out.write(new byte[20000]);
+        out.close();
+    }
+
+    @Test(timeout = 120000)
+    public void testFailedSegmentsAreNotRead() throws Exception {
+        File directory = Files.createTempDirectory("incremental_index").toFile();
+        try {
+            File wetFilesDirectory = new File(directory, "wet_files");
+            wetFilesDirectory.mkdirs();
+            String segmentsPath = directory + "/segments";
+            IncrementalIndex index = new IncrementalIndex(segmentsPath, 64 << 20, 1);
+            writeWetFile(wetFilesDirectory, 0);
+            assertTrue(index.addSegment(wetFilesDirectory.getPath()));
+
+            // an ingestion that fails leaves neither its segment nor its documents
+            IncrementalIndex failingIndex = new IncrementalIndex(segmentsPath, 64 << 20, 1) {
+                @Override
+                GeneratePostings newGeneratePostings(String wetFilesPath, String runsPath, String documentsPath,
+                        String segmentPath) {
+                    return new GeneratePostings(wetFilesPath, runsPath, documentsPath, segmentPath, 64 << 20, 1) {
+                        @Override
+                        Void readRecords(File fileEntry, BlockingQueue<WarcDocument> records) throws IOException {
+                            throw new IOException("Truncated " + fileEntry.getName());
+                        }
+                    };
+                }
+            };
+            writeWetFile(wetFilesDirectory, 1);
+            assertFalse(failingIndex.addSegment(wetFilesDirectory.getPath()));
+            failingIndex.close();
+            assertFalse(new File(segmentsPath, "2").exists());
+            assertEquals(Arrays.asList("1"), Arrays.asList(new File(segmentsPath, "documents").list()));
+
+            // the directories of a crashed ingestion, and a document file that cannot be read, are not opened
+            new File(segmentsPath, "7").mkdirs();
+            writeStoreWithoutTrailer(new File(segmentsPath, "documents/7/0"));
+            writeStoreWithoutTrailer(new File(segmentsPath, "documents/1/9"));
+            ShardedQuery query = ShardedQuery.openSegments(segmentsPath, Arrays.asList("--no-cache",
+                    "--sequential-snippets"));
+            assertNotNull(query);
+            assertFound(query, 0, 1);
+
+            assertTrue(index.addSegment(wetFilesDirectory.getPath()));
+            index.close();
+            assertEquals("8", IncrementalIndex.readManifest(new File(segmentsPath)).get(1).getName());
+            assertTrue(query.refresh());
+            assertFound(query, 1, 2);
+            query.close();
+        } finally {
+            IncrementalIndex.deleteDirectory(directory);
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testAddMergeAndSearchSegments() throws Exception {
+        File directory = Files.createTempDirectory("incremental_index").toFile();
+        try {
+            File wetFilesDirectory = new File(directory, "wet_files");
+            wetFilesDirectory.mkdirs();
+            String segmentsPath = directory + "/segments";
+            IncrementalIndex index = new IncrementalIndex(segmentsPath, 64 << 20, 1);
+            writeWetFile(wetFilesDirectory, 0);
+            assertTrue(index.addSegment(wetFilesDirectory.getPath()));
+            ShardedQuery query = ShardedQuery.openSegments(segmentsPath, Arrays.asList("--no-cache",
+                    "--sequential-snippets"));
+            assertNotNull(query);
+            assertFound(query, 0, 2);
+            assertTrue(query.getSearchResults(marker(3, 1), "conjunctive").isEmpty());
+
+            // MERGE_FACTOR segments of the same tier are merged into one
+            for (int file = 1; file < IncrementalIndex.MERGE_FACTOR; file++) {
+                writeWetFile(wetFilesDirectory, file);
+                assertTrue(index.addSegment(wetFilesDirectory.getPath()));
+            }
+            index.close();
+            List<Segment> segments = IncrementalIndex.readManifest(new File(segmentsPath));
+            assertEquals(1, segments.size());
+            assertEquals(IncrementalIndex.MERGE_FACTOR * DOCUMENTS_PER_FILE,
+                    segments.get(0).getTotalDocuments().intValue());
+            assertEquals(Arrays.asList("1", "2", "3", "4"), segments.get(0).getDocumentGenerations());
+
+            // the searcher opened before the merge picks up the merged segment
+            assertTrue(query.refresh());
+            assertEquals(1, query.getShardSet().getShards().size());
+            for (int file = 0; file < IncrementalIndex.MERGE_FACTOR; file++) {
+                for (int i = 0; i < DOCUMENTS_PER_FILE; i++) {
+                    assertFound(query, file, i);
+                }
+            }
+            query.close();
+        } finally {
+            IncrementalIndex.deleteDirectory(directory);
+        }
+    }
+}
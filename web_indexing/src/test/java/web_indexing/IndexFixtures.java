@@ -0,0 +1,78 @@
+package web_indexing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Files shared by the unit tests that build indexes.
+ */
+class IndexFixtures {
+
+    static File tempFile(String prefix) throws IOException {
+        File file = File.createTempFile(prefix, ".bin");
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Writes a document table of documents 1 to totalDocuments with random lengths and opens it.
+     */
+    static DocumentTable writeDocumentTable(int totalDocuments, Random random) throws IOException {
+        File documentTableFile = tempFile("document_table");
+        DocumentTableWriter documentTableWriter = new DocumentTableWriter(documentTableFile.getPath());
+        for (int docId = 1; docId <= totalDocuments; docId++) {
+            documentTableWriter.add("http://example.com/" + docId, 1 + random.nextInt(500), "documents/1", 0, 1);
+        }
+        documentTableWriter.finish();
+        return new DocumentTable(documentTableFile.getPath());
+    }
+
+    /**
+     * Writes a WET file holding a WARC conversion record per document, one gzip member each like the files of Common
+     * Crawl.
+     */
+    static void writeWetFile(File file, String[] urls, String[] contents) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        for (int i = 0; i < urls.length; i++) {
+            byte[] content = contents[i].getBytes(StandardCharsets.UTF_8);
+            String header = "WARC/1.0\r\n"
+                    + "WARC-Type: conversion\r\n"
+                    + "WARC-Target-URI: " + urls[i] + "\r\n"
+                    + "Content-Type: text/plain\r\n"
+                    + "Content-Length: " + content.length + "\r\n\r\n";
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(record);
+            gzip.write(header.getBytes(StandardCharsets.UTF_8));
+            gzip.write(content);
+            gzip.write("\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            gzip.close();
+            record.writeTo(out);
+        }
+        out.close();
+    }
+
+    /**
+     * Builds the index of the WET files in directory as IndexBuilder does, split into shards when shards > 1.
+     */
+    static void buildIndex(File directory, File wetFilesDirectory, int shards) {
+        directory.mkdirs();
+        String path = directory.getPath();
+        GeneratePostings gp = new GeneratePostings(wetFilesDirectory.getPath(), path + "/runs", path + "/documents",
+                path, 64 << 20, 1);
+        assertTrue(gp.ifDirectoryAndMappingDocumentCreated());
+        assertTrue(gp.createPostings());
+        InvertedIndex index = (shards > 1) ? new InvertedIndex(path + "/runs", path + "/document_table.bin",
+                path + "/shards", shards) : new InvertedIndex(path + "/runs", path + "/document_table.bin",
+                path + "/lexicon.gz", path + "/lexicon.bin", path + "/invertedIndex");
+        assertTrue(index.ifLexiconAndInvertedIndexDocumentCreated());
+        index.createIndex();
+    }
+}
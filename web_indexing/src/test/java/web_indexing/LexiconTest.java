@@ -0,0 +1,88 @@
+package web_indexing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the binary lexicon, written with LexiconWriter and read back through the memory mapping.
+ */
+public class LexiconTest {
+
+    private static File writeLexicon(String[] terms) throws IOException {
+        File file = File.createTempFile("lexicon", ".bin");
+        file.deleteOnExit();
+        LexiconWriter writer = new LexiconWriter(file.getPath());
+        for (int i = 0; i < terms.length; i++) {
+            writer.add(terms[i], 1000L * i + (1L << 32), 10 + i, 1 + i, i / 4.0);
+        }
+        writer.finish();
+        return file;
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        String[] terms = new String[1000];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = "term" + Integer.toString(i * 7919, 36);
+        }
+        Arrays.sort(terms);
+        Lexicon lexicon = new Lexicon(writeLexicon(terms).getPath());
+        assertEquals(terms.length, lexicon.size());
+        for (int i = 0; i < terms.length; i++) {
+            Posting p = lexicon.get(terms[i]);
+            assertNotNull(terms[i], p);
+            assertEquals(Long.valueOf(1000L * i + (1L << 32)), p.getOffset());
+            assertEquals(Integer.valueOf(10 + i), p.getSize());
+            assertEquals(Integer.valueOf(1 + i), p.getCount());
+            assertEquals(i / 4.0, p.getMaxScore(), 0);
+        }
+    }
+
+    @Test
+    public void testTermsInOrder() throws IOException {
+        String[] terms = new String[100];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = "w" + Integer.toString(i * 104729, 36);
+        }
+        Arrays.sort(terms);
+        Lexicon lexicon = new Lexicon(writeLexicon(terms).getPath());
+        for (int i = 0; i < terms.length; i++) {
+            assertEquals(terms[i], new String(lexicon.getTerm(i), "UTF-8"));
+            assertEquals(Integer.valueOf(1 + i), lexicon.getPosting(i).getCount());
+            if (i > 0) {
+                assertTrue(Lexicon.compareTerms(lexicon.getTerm(i - 1), lexicon.getTerm(i)) < 0);
+            }
+        }
+    }
+
+    @Test
+    public void testMissingTerms() throws IOException {
+        String[] terms = {"engine", "index", "indexes", "posting", "query"};
+        Lexicon lexicon = new Lexicon(writeLexicon(terms).getPath());
+        for (String missing : new String[] {"", "aaa", "ind", "indexe", "indexess", "postings", "zzz"}) {
+            assertNull(missing, lexicon.get(missing));
+        }
+        assertEquals(Integer.valueOf(3), lexicon.get("indexes").getCount());
+    }
+
+    @Test
+    public void testEmptyLexicon() throws IOException {
+        Lexicon lexicon = new Lexicon(writeLexicon(new String[0]).getPath());
+        assertEquals(0, lexicon.size());
+        assertNull(lexicon.get("index"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws IOException {
+        File file = File.createTempFile("lexicon", ".gz");
+        file.deleteOnExit();
+        Files.write(file.toPath(), new byte[64]);
+        new Lexicon(file.getPath());
+    }
+}
@@ -0,0 +1,76 @@
+package web_indexing;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the latency histograms and counters, percentiles are checked against the exact ones of the recorded
+ * values.
+ */
+public class MetricsTest {
+
+    @Test
+    public void testPercentilesWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(13);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            // latencies from nanoseconds to seconds
+            values[i] = (long) Math.exp(random.nextDouble() * Math.log(1e9));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        for (double percentile : new double[] {1, 50, 90, 99, 99.9, 100}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long estimate = histogram.getPercentile(percentile);
+            assertTrue(percentile + ": " + estimate + " < " + exact, estimate >= exact);
+            assertTrue(percentile + ": " + estimate + " > " + exact, estimate <= exact + exact / 32 + 1);
+        }
+    }
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99));
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        Metrics metrics = new Metrics();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    metrics.histogram("stage").record(i);
+                    metrics.counter("events").increment();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, metrics.histogram("stage").getCount());
+        assertEquals(40000, metrics.counter("events").sum());
+        assertEquals(9999, metrics.histogram("stage").getMax());
+    }
+
+    @Test
+    public void testJson() {
+        Metrics metrics = new Metrics();
+        metrics.counter("b.count").add(3);
+        metrics.counter("a.count").add(2);
+        metrics.histogram("stage").record(1500);
+        assertEquals("{\"histograms\":{\"stage\":{\"count\":1,\"meanMicros\":1.500,\"p50Micros\":1.500,"
+                + "\"p99Micros\":1.500,\"p999Micros\":1.500,\"maxMicros\":1.500}},"
+                + "\"counters\":{\"a.count\":2,\"b.count\":3}}", metrics.toJson());
+    }
+}
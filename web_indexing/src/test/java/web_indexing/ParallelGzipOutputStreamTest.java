@@ -0,0 +1,54 @@
+package web_indexing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the gzip stream compressed in parallel, read back with GZIPInputStream.
+ */
+public class ParallelGzipOutputStreamTest {
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        return IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    public void testConcatenatedMembersReadAsOneStream() throws IOException {
+        Random random = new Random(3);
+        byte[] data = new byte[5 * ParallelGzipOutputStream.CHUNK_SIZE / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ((random.nextInt(5) == 0) ? '\n' : '0' + random.nextInt(10));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream out = new ParallelGzipOutputStream(compressed, executor, 2);
+        // single bytes and writes crossing chunks
+        out.write(data, 0, 1000);
+        for (int i = 1000; i < 2000; i++) {
+            out.write(data[i]);
+        }
+        out.write(data, 2000, data.length - 2000);
+        out.close();
+        executor.shutdown();
+        assertTrue(compressed.size() < data.length / 2);
+        assertArrayEquals(data, gunzip(compressed.toByteArray()));
+    }
+
+    @Test
+    public void testEmptyStream() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(compressed, null, 1).close();
+        assertEquals(0, gunzip(compressed.toByteArray()).length);
+    }
+}
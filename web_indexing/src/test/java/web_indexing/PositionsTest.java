@@ -0,0 +1,102 @@
+package web_indexing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the positions sidecar, written from tokenized documents and checked against a scan of the text.
+ */
+public class PositionsTest {
+
+    private static final String[] VOCABULARY = {"index", "query", "posting", "snippet", "lexicon", "Search", "web",
+            "an"};
+
+    private static List<Integer> scan(String content, String word) {
+        List<Integer> positions = new ArrayList();
+        String lowerCase = content.toLowerCase();
+        for (int i = lowerCase.indexOf(word); i >= 0; i = lowerCase.indexOf(word, i + 1)) {
+            boolean startsToken = i == 0 || !Character.isLetterOrDigit(lowerCase.charAt(i - 1));
+            int end = i + word.length();
+            boolean endsToken = end == lowerCase.length() || !Character.isLetterOrDigit(lowerCase.charAt(end));
+            if (startsToken && endsToken) {
+                positions.add(i);
+            }
+        }
+        return positions;
+    }
+
+    @Test
+    public void testPositionsOfWords() throws IOException {
+        File documentFile = File.createTempFile("documents", "");
+        documentFile.deleteOnExit();
+        new File(documentFile.getPath() + PositionsWriter.SUFFIX).deleteOnExit();
+        PositionsWriter writer = new PositionsWriter(documentFile.getPath());
+        Tokenizer tokenizer = new Tokenizer();
+        BytesIntMap words = new BytesIntMap();
+        IntArrayList wordsCount = new IntArrayList();
+        IntArrayList tokenWordIds = new IntArrayList();
+        IntArrayList tokenPositions = new IntArrayList();
+        Random random = new Random(7);
+        List<String> documents = new ArrayList();
+        List<Long> offsets = new ArrayList();
+        long offset = 0;
+        for (int d = 0; d < 50; d++) {
+            StringBuilder content = new StringBuilder();
+            int n = 1 + random.nextInt(200);
+            for (int i = 0; i < n; i++) {
+                content.append(VOCABULARY[random.nextInt(VOCABULARY.length)]).append(random.nextBoolean() ? " " : ". ");
+            }
+            byte[] data = content.toString().getBytes(StandardCharsets.UTF_8);
+            words.clear();
+            wordsCount.clear();
+            tokenWordIds.clear();
+            tokenPositions.clear();
+            tokenizer.tokenize(data, 0, data.length, (token, length) -> {
+                int wordId = words.add(token, 0, length);
+                if (wordId == wordsCount.size()) {
+                    wordsCount.add(1);
+                } else {
+                    wordsCount.increment(wordId);
+                }
+                tokenWordIds.add(wordId);
+                tokenPositions.add(tokenizer.getTokenStart());
+            });
+            writer.add(offset, words, wordsCount, tokenWordIds, tokenPositions);
+            documents.add(content.toString());
+            offsets.add(offset);
+            offset += data.length;
+        }
+        writer.finish();
+
+        Positions positions = new Positions(documentFile.getPath() + PositionsWriter.SUFFIX);
+        String[] queryWords = {"index", "search", "snippet", "missing", "an"};
+        for (int d = 0; d < documents.size(); d++) {
+            int[][] wordPositions = positions.find(offsets.get(d), queryWords);
+            assertNotNull(wordPositions);
+            for (int i = 0; i < queryWords.length; i++) {
+                List<Integer> expected = (queryWords[i].length() > 2) ? scan(documents.get(d), queryWords[i])
+                        : new ArrayList<Integer>();
+                assertEquals(expected.size(), wordPositions[i].length);
+                for (int j = 0; j < expected.size(); j++) {
+                    assertEquals((int) expected.get(j), wordPositions[i][j]);
+                }
+            }
+        }
+        assertNull(positions.find(offset + 1, queryWords));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws IOException {
+        File file = File.createTempFile("documents", PositionsWriter.SUFFIX);
+        file.deleteOnExit();
+        new Positions(file.getPath());
+    }
+}
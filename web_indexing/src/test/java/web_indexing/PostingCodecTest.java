@@ -0,0 +1,73 @@
+package web_indexing;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the posting codecs, every codec must decode the blocks it encodes whatever the distribution of the
+ * values.
+ */
+public class PostingCodecTest {
+
+    private static void assertRoundTrip(PostingCodec codec, int[] values, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(values, count, out);
+        int size = out.size();
+        codec.encode(values, count, out);
+        ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+        int[] decoded = new int[IndexFormat.BLOCK_SIZE];
+        for (int copy = 0; copy < 2; copy++) {
+            Arrays.fill(decoded, -1);
+            codec.decode(in, decoded, count);
+            assertArrayEquals(codec.getName(), Arrays.copyOf(values, count), Arrays.copyOf(decoded, count));
+            assertEquals(codec.getName(), size * (copy + 1), in.position());
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(3);
+        int[] values = new int[IndexFormat.BLOCK_SIZE];
+        for (int id = 0; PostingCodecs.forId(id) != null; id++) {
+            PostingCodec codec = PostingCodecs.forId(id);
+            assertEquals(id, codec.getId());
+            assertSame(codec, PostingCodecs.forName(codec.getName()));
+            for (int n = 0; n < 500; n++) {
+                int count = (n % 5 == 0) ? IndexFormat.BLOCK_SIZE : random.nextInt(IndexFormat.BLOCK_SIZE + 1);
+                int bits = random.nextInt(31);
+                for (int i = 0; i < count; i++) {
+                    switch (n % 4) {
+                    case 0:
+                        values[i] = 1;
+                        break;
+                    case 1:
+                        values[i] = random.nextInt(1 << bits);
+                        break;
+                    case 2:
+                        // small values with rare large exceptions
+                        values[i] = (random.nextInt(20) == 0) ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(8);
+                        break;
+                    default:
+                        values[i] = (random.nextBoolean()) ? 1 : random.nextInt(Integer.MAX_VALUE);
+                    }
+                }
+                assertRoundTrip(codec, values, count);
+            }
+            values[0] = Integer.MAX_VALUE;
+            values[1] = 0;
+            assertRoundTrip(codec, values, 2);
+        }
+    }
+
+    @Test
+    public void testUnknownCodecs() {
+        assertNull(PostingCodecs.forId(-1));
+        assertNull(PostingCodecs.forName("gzip"));
+    }
+}
@@ -0,0 +1,128 @@
+package web_indexing;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the segmented LRU cache and the cached postings that PostingList reads.
+ */
+public class QueryCacheTest {
+
+    @Test
+    public void testCountersAndEviction() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(10, value -> value.length());
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        assertEquals("aaaa", cache.get("a"));
+        assertNull(cache.get("c"));
+        cache.put("c", "cccc");
+        assertEquals(2, cache.size());
+        assertEquals(8, cache.getWeight());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getEvictions());
+        // b was only in probation, a was protected by its hit
+        assertNull(cache.get("b"));
+        assertEquals("aaaa", cache.get("a"));
+        cache.put("d", "0123456789a");
+        assertNull(cache.get("d"));
+    }
+
+    @Test
+    public void testScanKeepsProtectedEntries() {
+        SegmentedLruCache<Integer, Integer> cache = new SegmentedLruCache<Integer, Integer>(100, value -> 1);
+        for (int key = 0; key < 50; key++) {
+            cache.put(key, key);
+            cache.get(key);
+        }
+        for (int key = 1000; key < 2000; key++) {
+            cache.put(key, key);
+        }
+        for (int key = 0; key < 50; key++) {
+            assertEquals(Integer.valueOf(key), cache.get(key));
+        }
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void testAdmissionOnSecondMiss() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(100, value -> 1);
+        assertTrue(cache.admit("a"));
+        cache.setAdmission(1024);
+        assertFalse(cache.admit("b"));
+        assertTrue(cache.admit("b"));
+        int admitted = 0;
+        for (int key = 0; key < 100; key++) {
+            admitted += cache.admit("once" + key) ? 1 : 0;
+        }
+        assertTrue(admitted < 10);
+        // the sketch halves its counters as it ages, so a miss long ago no longer counts
+        assertFalse(cache.admit("c"));
+        for (int i = 0; i < 10 * 1024; i++) {
+            cache.admit("hot");
+        }
+        assertFalse(cache.admit("c"));
+    }
+
+    @Test
+    public void testCachedPostingsMatchEncodedPostings() {
+        Random random = new Random(5);
+        int count = 1000;
+        int[] docIds = new int[count];
+        int[] frequencies = new int[count];
+        ByteArrayOutputStream headers = new ByteArrayOutputStream();
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        int docId = 0;
+        for (int start = 0; start < count; start += IndexFormat.BLOCK_SIZE) {
+            int end = Math.min(count, start + IndexFormat.BLOCK_SIZE);
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            for (int i = start; i < end; i++) {
+                int gap = 1 + random.nextInt(300);
+                docId += gap;
+                docIds[i] = docId;
+                VarByte.encode(gap, block);
+            }
+            for (int i = start; i < end; i++) {
+                frequencies[i] = 1 + random.nextInt(10);
+                VarByte.encode(frequencies[i], block);
+            }
+            VarByte.encode(docId, headers);
+            VarByte.encode(block.size(), headers);
+            VarByte.encode(start / IndexFormat.BLOCK_SIZE, headers);
+            blocks.write(block.toByteArray(), 0, block.size());
+        }
+        ByteBuffer postings = ByteBuffer.allocate(headers.size() + blocks.size());
+        postings.put(headers.toByteArray()).put(blocks.toByteArray()).flip();
+
+        CachedPostings cached = CachedPostings.decode(postings.duplicate(), count, PostingCodecs.DEFAULT);
+        assertArrayEquals(docIds, cached.getDocIds());
+        assertArrayEquals(frequencies, cached.getFrequencies());
+        assertEquals(CachedPostings.weight(count), cached.weight());
+
+        PostingList encoded = new PostingList();
+        encoded.createPostings(postings.duplicate(), count, PostingCodecs.DEFAULT);
+        PostingList decoded = new PostingList();
+        decoded.createPostings(cached, count);
+        encoded.setScoreBounds(1, 10);
+        decoded.setScoreBounds(1, 10);
+        int target = 0;
+        while (true) {
+            target += random.nextInt(2000);
+            int expected = encoded.nextGEQ(target);
+            assertEquals(expected, decoded.nextGEQ(target));
+            encoded.shallowNextGEQ(target);
+            decoded.shallowNextGEQ(target);
+            assertEquals(encoded.getBlockMaxScore(), decoded.getBlockMaxScore(), 0);
+            if (expected == PostingList.END) {
+                break;
+            }
+            assertEquals(encoded.freq(), decoded.freq());
+            assertEquals(encoded.next(), decoded.next());
+        }
+    }
+}
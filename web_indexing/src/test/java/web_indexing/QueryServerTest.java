@@ -0,0 +1,104 @@
+package web_indexing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the HTTP front end, the server listens on an ephemeral port and is queried over HTTP.
+ */
+public class QueryServerTest {
+
+    /**
+     * Sends a GET request for path and returns the status followed by the body of the response.
+     */
+    private static String[] get(QueryServer server, String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path)
+                .openConnection();
+        int status = connection.getResponseCode();
+        InputStream in = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            body.write(buffer, 0, n);
+        }
+        in.close();
+        connection.disconnect();
+        return new String[] {String.valueOf(status), new String(body.toByteArray(), StandardCharsets.UTF_8)};
+    }
+
+    @Test(timeout = 120000)
+    public void testSearchStatsAndBadRequests() throws IOException {
+        File directory = Files.createTempDirectory("query_server").toFile();
+        QueryServer server = null;
+        try {
+            File wetFilesDirectory = new File(directory, "wet_files");
+            wetFilesDirectory.mkdirs();
+            IndexFixtures.writeWetFile(new File(wetFilesDirectory, "00000.warc.wet.gz"),
+                    new String[] {"http://example.com/0", "http://example.com/1", "http://example.com/2"},
+                    new String[] {"The first page about apples.", "The second page about pears.",
+                            "The third page about apples and pears."});
+            File indexDirectory = new File(directory, "index");
+            IndexFixtures.buildIndex(indexDirectory, wetFilesDirectory, 1);
+            Query query = Query.open(indexDirectory.getPath(), indexDirectory + "/document_table.bin",
+                    indexDirectory + "/documents", Arrays.asList("--sequential-snippets"));
+            assertNotNull(query);
+            server = new QueryServer(query, 0, 2, 8);
+            server.start();
+            assertTrue(server.getPort() > 0);
+
+            // the query string is echoed back escaped, the quoted word matches nothing
+            String keyword = "second \"quoted\" back\\slash";
+            List<SearchResult> results = query.getSearchResults(keyword, "conjunctive");
+            assertEquals(1, results.size());
+            SearchResult result = results.get(0);
+            String[] response = get(server, "/search?type=conjunctive&q=" + URLEncoder.encode(keyword, "UTF-8"));
+            assertEquals("200", response[0]);
+            assertEquals("{\"query\":\"second \\\"quoted\\\" back\\\\slash\",\"type\":\"conjunctive\",\"timeMicros\":0,"
+                    + "\"results\":[{\"docId\":" + result.getDocumentId() + ",\"url\":\"" + result.getUrl()
+                    + "\",\"score\":" + result.getScore() + ",\"frequencies\":" + result.getWordsFrequenciesList()
+                    + ",\"snippet\":\"" + result.getSnippet() + "\"}]}",
+                    response[1].replaceFirst("\"timeMicros\":\\d+", "\"timeMicros\":0"));
+
+            response = get(server, "/search?q=apples");
+            assertEquals("200", response[0]);
+            assertTrue(response[1].startsWith("{\"query\":\"apples\",\"type\":\"conjunctive\","));
+            assertTrue(response[1].contains("\"url\":\"http://example.com/0\""));
+            assertTrue(response[1].contains("\"url\":\"http://example.com/2\""));
+            assertFalse(response[1].contains("\"url\":\"http://example.com/1\""));
+
+            response = get(server, "/stats");
+            assertEquals("200", response[0]);
+            assertTrue(response[1].startsWith("{\"resultCache\":{\"entries\":2,"));
+            assertTrue(response[1].contains("\"documentBlockCache\":{"));
+            assertTrue(response[1].contains("\"metrics\":{"));
+
+            for (String path : new String[] {"/search", "/search?q=", "/search?q=%20%20", "/search?type=conjunctive",
+                    "/search?q=apples&type=other"}) {
+                response = get(server, path);
+                assertEquals(path, "400", response[0]);
+                assertTrue(path, response[1].startsWith("{\"error\":"));
+            }
+            // the server still answers after the bad requests
+            assertEquals("200", get(server, "/search?q=pears")[0]);
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+            IncrementalIndex.deleteDirectory(directory);
+        }
+    }
+}
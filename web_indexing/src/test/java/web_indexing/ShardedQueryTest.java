@@ -0,0 +1,102 @@
+package web_indexing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the scatter-gather front end: the top results of a sharded index are the top results of the same
+ * collection indexed as a single index.
+ */
+public class ShardedQueryTest {
+    private static final String[] VOCABULARY = ("alpha bravo charlie delta echo foxtrot golf hotel india "
+            + "juliet kilo lima mike november oscar papa quebec romeo sierra tango uniform victor whiskey xray "
+            + "yankee zulu").split(" ");
+
+    private static void writeCorpus(File wetFilesDirectory, Random random) throws IOException {
+        for (int file = 0; file < 2; file++) {
+            String[] urls = new String[150];
+            String[] contents = new String[urls.length];
+            for (int i = 0; i < urls.length; i++) {
+                urls[i] = "http://example.com/" + file + "/" + i;
+                StringBuilder content = new StringBuilder();
+                int words = 5 + random.nextInt(60);
+                for (int w = 0; w < words; w++) {
+                    // frequent words come first in the vocabulary
+                    double x = random.nextDouble();
+                    content.append(VOCABULARY[(int) (x * x * VOCABULARY.length)]).append(' ');
+                }
+                contents[i] = content.toString();
+            }
+            IndexFixtures.writeWetFile(new File(wetFilesDirectory, String.format("%05d.warc.wet.gz", file)), urls,
+                    contents);
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testShardedTopResultsMatchSingleIndex() throws IOException {
+        File directory = Files.createTempDirectory("sharded_query").toFile();
+        try {
+            File wetFilesDirectory = new File(directory, "wet_files");
+            wetFilesDirectory.mkdirs();
+            writeCorpus(wetFilesDirectory, new Random(3));
+            File singleDirectory = new File(directory, "single");
+            File shardedDirectory = new File(directory, "sharded");
+            IndexFixtures.buildIndex(singleDirectory, wetFilesDirectory, 1);
+            IndexFixtures.buildIndex(shardedDirectory, wetFilesDirectory, 3);
+
+            List<String> arguments = Arrays.asList("--no-cache", "--sequential-snippets");
+            Query single = Query.open(singleDirectory.getPath(), singleDirectory + "/document_table.bin",
+                    singleDirectory + "/documents", arguments);
+            ShardedQuery sharded = ShardedQuery.open(shardedDirectory.getPath(), arguments);
+            assertNotNull(single);
+            assertNotNull(sharded);
+            List<Query> shards = sharded.getShardSet().getShards();
+            assertEquals(3, shards.size());
+            // the shards read the documents through one reader and one block cache
+            for (Query shard : shards) {
+                assertSame(shards.get(0).getDocumentBlockCache(), shard.getDocumentBlockCache());
+            }
+
+            for (int a = 0; a < 12; a++) {
+                for (int b = a + 1; b < 12; b++) {
+                    for (String queryType : new String[] {"conjunctive", "disjunctive"}) {
+                        String keyword = VOCABULARY[a] + " " + VOCABULARY[b];
+                        List<SearchResult> expected = single.getSearchResults(keyword, queryType);
+                        List<SearchResult> actual = sharded.getSearchResults(keyword, queryType);
+                        if (queryType.equals("conjunctive")) {
+                            assertFalse(keyword, expected.isEmpty());
+                        }
+                        assertEquals(keyword, expected.size(), actual.size());
+                        HashMap<Integer, SearchResult> expectedResults = new HashMap();
+                        for (int i = 0; i < expected.size(); i++) {
+                            assertEquals(keyword, expected.get(i).getScore(), actual.get(i).getScore(), 1e-9);
+                            expectedResults.put(expected.get(i).getDocumentId(), expected.get(i));
+                        }
+                        double lastScore = expected.isEmpty() ? 0 : expected.get(expected.size() - 1).getScore();
+                        for (SearchResult result : actual) {
+                            // documents tied with the last result may differ
+                            if (result.getScore() > lastScore + 1e-9) {
+                                SearchResult expectedResult = expectedResults.get(result.getDocumentId());
+                                assertNotNull(keyword, expectedResult);
+                                assertEquals(expectedResult.getUrl(), result.getUrl());
+                                assertEquals(expectedResult.getSnippet(), result.getSnippet());
+                            }
+                        }
+                    }
+                }
+            }
+            sharded.close();
+        } finally {
+            IncrementalIndex.deleteDirectory(directory);
+        }
+    }
+}
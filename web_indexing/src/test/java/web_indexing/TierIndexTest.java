@@ -0,0 +1,76 @@
+package web_indexing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the tier index, written with TierIndexWriter and read back through TierIndex.
+ */
+public class TierIndexTest {
+
+    @Test
+    public void testTierKeepsTheBestPostings() throws IOException {
+        int totalDocuments = 20000;
+        Random random = new Random(17);
+        DocumentTable documentTable = IndexFixtures.writeDocumentTable(totalDocuments, random);
+
+        TermPostings postings = new TermPostings();
+        for (int docId = 1; docId <= totalDocuments; docId += 1 + random.nextInt(6)) {
+            postings.add(docId, 1 + random.nextInt(5));
+        }
+        TermPostings shortPostings = new TermPostings();
+        for (int docId = 1; docId <= totalDocuments; docId += 200) {
+            shortPostings.add(docId, 1 + random.nextInt(5));
+        }
+        TermPostings frequentPostings = new TermPostings();
+        for (int docId = 1; docId <= totalDocuments; docId++) {
+            frequentPostings.add(docId, 1);
+        }
+        File tierIndexFile = IndexFixtures.tempFile("tierIndex");
+        File tierLexiconFile = IndexFixtures.tempFile("tierLexicon");
+        TierIndexWriter writer = new TierIndexWriter(tierIndexFile.getPath(), tierLexiconFile.getPath(),
+                documentTable);
+        writer.add("index", postings, BM25.idf(totalDocuments, postings.size()));
+        writer.add("rare", shortPostings, BM25.idf(totalDocuments, shortPostings.size()));
+        writer.add("the", frequentPostings, BM25.idf(totalDocuments, frequentPostings.size()));
+        writer.finish();
+
+        TierIndex tierIndex = new TierIndex(tierIndexFile.getPath(), tierLexiconFile.getPath());
+        assertNull(tierIndex.get("the"));
+        Posting rare = tierIndex.get("rare");
+        assertEquals(shortPostings.size(), rare.getCount().intValue());
+        assertEquals(0, rare.getMaxScore(), 0);
+
+        Posting p = tierIndex.get("index");
+        int keep = Math.max(TierIndex.MIN_POSTINGS, (int) Math.ceil(postings.size() * TierIndex.SHARE));
+        assertEquals(keep, p.getCount().intValue());
+        CachedPostings tier = CachedPostings.decode(tierIndex.postings(p.getOffset(), p.getSize()), p.getCount(),
+                tierIndex.getCodec());
+        boolean[] inTier = new boolean[totalDocuments + 1];
+        double minTierTf = Double.MAX_VALUE;
+        for (int i = 0; i < p.getCount(); i++) {
+            int docId = tier.getDocIds()[i];
+            if (i > 0) {
+                assertTrue(docId > tier.getDocIds()[i - 1]);
+            }
+            inTier[docId] = true;
+            minTierTf = Math.min(minTierTf, BM25.tfNormalization(tier.getFrequencies()[i],
+                    documentTable.getNorm(docId)));
+        }
+        double leftOutTf = 0;
+        for (int i = 0; i < postings.size(); i++) {
+            if (!inTier[postings.getDocId(i)]) {
+                leftOutTf = Math.max(leftOutTf, BM25.tfNormalization(postings.getFrequency(i),
+                        documentTable.getNorm(postings.getDocId(i))));
+            }
+        }
+        // the lexicon bounds every posting left out, none of which beats a posting of the tier
+        assertEquals(leftOutTf, p.getMaxScore(), 1e-9);
+        assertTrue(leftOutTf <= minTierTf);
+    }
+}
@@ -0,0 +1,123 @@
+package web_indexing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the byte level tokenizer, checked against the split/toLowerCase/regex tokenization it replaces.
+ */
+public class TokenizerTest {
+
+    private static Map<String, Integer> splitTokenize(String content) {
+        Map<String, Integer> wordsCount = new HashMap<String, Integer>();
+        for (String word : content.split(" ")) {
+            word = word.toLowerCase();
+            if (word.length() > 2 && word.matches("^[a-zA-Z0-9]*$")) {
+                wordsCount.put(word, wordsCount.getOrDefault(word, 0) + 1);
+            }
+        }
+        return wordsCount;
+    }
+
+    private static int tokenize(String content, Map<String, Integer> wordsCount) {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        return new Tokenizer().tokenize(data, 0, data.length, (token, length) -> {
+            String word = new String(token, 0, length, StandardCharsets.US_ASCII);
+            wordsCount.put(word, wordsCount.getOrDefault(word, 0) + 1);
+        });
+    }
+
+    private static Map<String, Integer> tokenize(String content) {
+        Map<String, Integer> wordsCount = new HashMap<String, Integer>();
+        tokenize(content, wordsCount);
+        return wordsCount;
+    }
+
+    @Test
+    public void testMatchesSplitOnSpaceSeparatedWords() {
+        String[] alphabet = {"a", "Z", "q", "0", "7", "M", "x", "é", "ß", "中"};
+        Random random = new Random(42);
+        for (int n = 0; n < 500; n++) {
+            StringBuilder content = new StringBuilder();
+            int words = 1 + random.nextInt(50);
+            for (int i = 0; i < words; i++) {
+                if (i > 0) {
+                    content.append(' ');
+                }
+                int length = 1 + random.nextInt(8);
+                for (int j = 0; j < length; j++) {
+                    content.append(alphabet[random.nextInt(alphabet.length)]);
+                }
+            }
+            Map<String, Integer> wordsCount = new HashMap<String, Integer>();
+            int totalWords = tokenize(content.toString(), wordsCount);
+            assertEquals(content.toString(), splitTokenize(content.toString()), wordsCount);
+            assertEquals(content.toString(), content.toString().split(" ").length, totalWords);
+        }
+    }
+
+    @Test
+    public void testSplitsOnWhitespaceAndPunctuation() {
+        Map<String, Integer> wordsCount = new HashMap<String, Integer>();
+        int totalWords = tokenize("search,engine\tindex\nquery.  posting (lexicon) e-mail it's", wordsCount);
+        assertEquals(10, totalWords);
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        for (String word : new String[] {"search", "engine", "index", "query", "posting", "lexicon", "mail"}) {
+            expected.put(word, 1);
+        }
+        assertEquals(expected, wordsCount);
+    }
+
+    @Test
+    public void testLowercasesAscii() {
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        expected.put("hello", 3);
+        expected.put("abc123", 1);
+        assertEquals(expected, tokenize("Hello HELLO hello ABC123"));
+    }
+
+    @Test
+    public void testRejectsShortAndNonAsciiTokens() {
+        Map<String, Integer> wordsCount = new HashMap<String, Integer>();
+        int totalWords = tokenize("ab a 12 café naïve über abc", wordsCount);
+        assertEquals(7, totalWords);
+        assertEquals(1, wordsCount.size());
+        assertEquals(Integer.valueOf(1), wordsCount.get("abc"));
+    }
+
+    @Test
+    public void testLongTokens() {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            word.append((char) ('a' + i % 26));
+        }
+        Map<String, Integer> wordsCount = tokenize(word + " " + word.toString().toUpperCase());
+        assertEquals(Integer.valueOf(2), wordsCount.get(word.toString()));
+    }
+
+    @Test
+    public void testOffsetAndLength() {
+        byte[] data = "skip these words only".getBytes(StandardCharsets.UTF_8);
+        Map<String, Integer> wordsCount = new HashMap<String, Integer>();
+        int totalWords = new Tokenizer().tokenize(data, 5, 11, (token, length) -> wordsCount.put(
+                new String(token, 0, length, StandardCharsets.US_ASCII), 1));
+        assertEquals(2, totalWords);
+        assertEquals(2, wordsCount.size());
+        assertNotNull(wordsCount.get("these"));
+        assertNotNull(wordsCount.get("words"));
+    }
+
+    @Test
+    public void testEmptyInput() {
+        Map<String, Integer> wordsCount = new HashMap<String, Integer>();
+        assertEquals(0, tokenize("", wordsCount));
+        assertEquals(0, tokenize(" \t\n.,", wordsCount));
+        assertTrue(wordsCount.isEmpty());
+    }
+}
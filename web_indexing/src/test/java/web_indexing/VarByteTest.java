@@ -0,0 +1,39 @@
+package web_indexing;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the var-byte codec.
+ */
+public class VarByteTest {
+
+    @Test
+    public void testEncodedLength() {
+        int[] numbers = {0, 127, 128, 16383, 16384, Integer.MAX_VALUE};
+        int[] lengths = {1, 1, 2, 2, 3, 5};
+        for (int i = 0; i < numbers.length; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            VarByte.encode(numbers[i], out);
+            assertEquals("length of " + numbers[i], lengths[i], out.size());
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        int[] numbers = {0, 1, 5, 127, 128, 300, 16384, 2097151, 2097152, 123456789, Integer.MAX_VALUE};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int number : numbers) {
+            VarByte.encode(number, out);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+        for (int number : numbers) {
+            assertEquals(number, VarByte.decode(buffer));
+        }
+        assertFalse(buffer.hasRemaining());
+    }
+}